@@ -0,0 +1,100 @@
+package de.tu_darmstadt.seemoo.nfcgate.db;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares writing log entries one per transaction with the batches LogInserter writes, on a
+ * database file of the device. Rates are logged with the tag InsertBenchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InsertBenchmarkTest {
+    private static final String TAG = "InsertBenchmark";
+    private static final String NAME = "insert-benchmark";
+
+    private static final int ENTRIES = 5000;
+    // same as LogInserter.MAX_BATCH_SIZE
+    private static final int BATCH_SIZE = 256;
+
+    private Context mContext;
+    private AppDatabase mDatabase;
+    private long mSessionId;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(NAME);
+        mDatabase = Room.databaseBuilder(mContext, AppDatabase.class, NAME).build();
+        mSessionId = mDatabase.sessionLogDao().insert(new SessionLog(new Date(), SessionLog.SessionType.RELAY));
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+        mContext.deleteDatabase(NAME);
+    }
+
+    @Test
+    public void batchedInsertsAreFaster() {
+        final List<NfcCommEntry> entries = createEntries();
+
+        // one transaction per entry, as LogInserter did before batching
+        long start = System.nanoTime();
+        for (NfcCommEntry entry : entries)
+            mDatabase.nfcCommEntryDao().insert(entry);
+        double single = rate(start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < entries.size(); i += BATCH_SIZE) {
+            final List<NfcCommEntry> batch = entries.subList(i, Math.min(i + BATCH_SIZE, entries.size()));
+            mDatabase.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    mDatabase.nfcCommEntryDao().insertAll(batch);
+                }
+            });
+        }
+        double batched = rate(start);
+
+        Log.i(TAG, String.format("%d entries: %.0f rows/s one per transaction, %.0f rows/s in batches of %d",
+                ENTRIES, single, batched, BATCH_SIZE));
+        assertEquals(2 * ENTRIES, mDatabase.nfcCommEntryDao().getSession(mSessionId).size());
+        assertTrue(batched > single);
+    }
+
+    private List<NfcCommEntry> createEntries() {
+        List<NfcCommEntry> entries = new ArrayList<>(ENTRIES);
+
+        for (int i = 0; i < ENTRIES; i++) {
+            // APDU sized payload
+            byte[] data = new byte[40];
+            data[0] = (byte) i;
+            data[1] = (byte) (i >> 8);
+            entries.add(new NfcCommEntry(new NfcComm(i % 2 == 0, false, data), mSessionId));
+        }
+
+        return entries;
+    }
+
+    private static double rate(long start) {
+        return ENTRIES * 1e9 / (System.nanoTime() - start);
+    }
+}
@@ -1,20 +1,24 @@
 package de.tu_darmstadt.seemoo.nfcgate.db;
 
 import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
 import androidx.room.migration.Migration;
 import android.content.Context;
+import android.database.Cursor;
 import androidx.annotation.NonNull;
 
-@Database(entities = {TagInfo.class, SessionLog.class, NfcCommEntry.class}, version = 2, exportSchema = false)
+import de.tu_darmstadt.seemoo.nfcgate.db.search.SearchIndex;
+import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
+
+@Database(entities = {TagInfo.class, SessionLog.class, NfcCommEntry.class}, version = 4, exportSchema = false)
 @TypeConverters({Converters.class})
 public abstract class AppDatabase extends RoomDatabase {
     public abstract TagInfoDao tagInfoDao();
     public abstract SessionLogDao sessionLogDao();
-    public abstract SessionLogJoinDao sessionLogJoinDao();
     public abstract NfcCommEntryDao nfcCommEntryDao();
 
     private static AppDatabase mInstance;
@@ -22,7 +26,14 @@ public abstract class AppDatabase extends RoomDatabase {
     public static AppDatabase getDatabase(Context context) {
         if (mInstance == null)
             mInstance = Room.databaseBuilder(context.getApplicationContext(), AppDatabase.class, "nfcgate")
-                    .addMigrations(MIGRATION_1_2)
+                    .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4)
+                    .addCallback(new Callback() {
+                        @Override
+                        public void onCreate(@NonNull SupportSQLiteDatabase db) {
+                            // not an entity, Room does not create it
+                            SearchIndex.create(db);
+                        }
+                    })
                     .build();
         return mInstance;
     }
@@ -33,4 +44,51 @@ public abstract class AppDatabase extends RoomDatabase {
             database.execSQL("ALTER TABLE SessionLog ADD COLUMN type INTEGER DEFAULT 0");
         }
     };
+
+    private static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE NfcCommEntry ADD COLUMN isCard INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE NfcCommEntry ADD COLUMN isInitial INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE NfcCommEntry ADD COLUMN timestamp INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE NfcCommEntry ADD COLUMN length INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE NfcCommEntry ADD COLUMN data BLOB");
+
+            // fill the new columns from the protobuf of existing entries
+            SupportSQLiteStatement update = database.compileStatement(
+                    "UPDATE NfcCommEntry SET isCard = ?, isInitial = ?, timestamp = ?, length = ?, data = ? WHERE entryId = ?");
+            Cursor cursor = database.query("SELECT entryId, nfcComm FROM NfcCommEntry");
+            try {
+                while (cursor.moveToNext()) {
+                    NfcComm nfcComm = Converters.fromBytearray(cursor.getBlob(1));
+                    if (nfcComm == null)
+                        continue;
+
+                    byte[] data = nfcComm.getData();
+                    update.bindLong(1, nfcComm.isCard() ? 1 : 0);
+                    update.bindLong(2, nfcComm.isInitial() ? 1 : 0);
+                    update.bindLong(3, nfcComm.getTimestamp());
+                    update.bindLong(4, data.length);
+                    update.bindBlob(5, data);
+                    update.bindLong(6, cursor.getLong(0));
+                    update.executeUpdateDelete();
+                }
+            } finally {
+                cursor.close();
+            }
+
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_NfcCommEntry_isCard ON NfcCommEntry (isCard)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_NfcCommEntry_isInitial ON NfcCommEntry (isInitial)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_NfcCommEntry_timestamp ON NfcCommEntry (timestamp)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_NfcCommEntry_length ON NfcCommEntry (length)");
+        }
+    };
+
+    private static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            SearchIndex.create(database);
+            SearchIndex.rebuild(database);
+        }
+    };
 }
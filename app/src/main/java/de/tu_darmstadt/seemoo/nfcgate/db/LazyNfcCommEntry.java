@@ -0,0 +1,46 @@
+package de.tu_darmstadt.seemoo.nfcgate.db;
+
+import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
+
+/**
+ * Entry of a session log read from the plain columns, the NfcComm is created on each access
+ */
+public class LazyNfcCommEntry {
+    private int entryId;
+    private boolean card;
+    private boolean initial;
+    private long timestamp;
+    private byte[] data;
+
+    public LazyNfcCommEntry(int entryId, boolean card, boolean initial, long timestamp, byte[] data) {
+        this.entryId = entryId;
+        this.card = card;
+        this.initial = initial;
+        this.timestamp = timestamp;
+        this.data = data;
+    }
+
+    public int getEntryId() {
+        return entryId;
+    }
+
+    public boolean isCard() {
+        return card;
+    }
+
+    public boolean isInitial() {
+        return initial;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public NfcComm getNfcComm() {
+        return new NfcComm(card, initial, data, timestamp);
+    }
+}
@@ -8,7 +8,7 @@ import androidx.room.PrimaryKey;
 
 import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
 
-@Entity(indices = {@Index("sessionId")},
+@Entity(indices = {@Index("sessionId"), @Index("isCard"), @Index("isInitial"), @Index("timestamp"), @Index("length")},
         foreignKeys = {
                 @ForeignKey(entity = SessionLog.class, parentColumns = "id", childColumns = "sessionId", onDelete = ForeignKey.CASCADE)
         })
@@ -22,9 +22,31 @@ public class NfcCommEntry {
     @ColumnInfo
     private long sessionId;
 
+    // copies of nfcComm fields, they can be filtered without decoding nfcComm
+    @ColumnInfo(name = "isCard")
+    private boolean card;
+
+    @ColumnInfo(name = "isInitial")
+    private boolean initial;
+
+    @ColumnInfo
+    private long timestamp;
+
+    @ColumnInfo
+    private int length;
+
+    @ColumnInfo
+    private byte[] data;
+
     public NfcCommEntry(NfcComm nfcComm, long sessionId) {
         this.nfcComm = nfcComm;
         this.sessionId = sessionId;
+
+        card = nfcComm.isCard();
+        initial = nfcComm.isInitial();
+        timestamp = nfcComm.getTimestamp();
+        data = nfcComm.getData();
+        length = data.length;
     }
 
     public int getEntryId() {
@@ -51,6 +73,46 @@ public class NfcCommEntry {
         this.sessionId = sessionId;
     }
 
+    public boolean isCard() {
+        return card;
+    }
+
+    public void setCard(boolean card) {
+        this.card = card;
+    }
+
+    public boolean isInitial() {
+        return initial;
+    }
+
+    public void setInitial(boolean initial) {
+        this.initial = initial;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void setLength(int length) {
+        this.length = length;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
     @Override
     public String toString() {
         return nfcComm.toString();
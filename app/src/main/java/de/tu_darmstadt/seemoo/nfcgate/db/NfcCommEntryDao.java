@@ -1,10 +1,55 @@
 package de.tu_darmstadt.seemoo.nfcgate.db;
 
+import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Insert;
+import androidx.room.Query;
+
+import java.util.List;
 
 @Dao
 public interface NfcCommEntryDao {
     @Insert
     void insert(NfcCommEntry log);
+
+    @Insert
+    List<Long> insertAll(List<NfcCommEntry> logs);
+
+    /**
+     * All entries of a session in log order
+     */
+    @Query("SELECT * FROM NfcCommEntry WHERE sessionId = :sessionId ORDER BY entryId ASC")
+    List<NfcCommEntry> getSession(long sessionId);
+
+    /**
+     * Whether a session has any entries
+     */
+    @Query("SELECT EXISTS(SELECT 1 FROM NfcCommEntry WHERE sessionId = :sessionId)")
+    boolean hasEntries(long sessionId);
+
+    /**
+     * Up to limit entries of a session following the entry afterEntryId, in log order
+     */
+    @Query("SELECT entryId, isCard AS card, isInitial AS initial, timestamp, data FROM NfcCommEntry WHERE sessionId = :sessionId AND entryId > :afterEntryId ORDER BY entryId ASC LIMIT :limit")
+    List<LazyNfcCommEntry> getPage(long sessionId, int afterEntryId, int limit);
+
+    /**
+     * Id of the last entry of a session, null if it has none
+     */
+    @Query("SELECT MAX(entryId) FROM NfcCommEntry WHERE sessionId = :sessionId")
+    LiveData<Integer> getLastEntryId(long sessionId);
+
+    /**
+     * Number, direction, size and duration of the non-initial entries of a session
+     */
+    @Query("SELECT COUNT(*) AS count, SUM(isCard) AS cardCount, SUM(length) AS totalLength, "
+            + "MIN(timestamp) AS firstTimestamp, MAX(timestamp) AS lastTimestamp "
+            + "FROM NfcCommEntry WHERE sessionId = :sessionId AND isInitial = 0")
+    LiveData<SessionSummary> getSummary(long sessionId);
+
+    /**
+     * Most recent non-initial entries of all sessions except the given one
+     */
+    @Query("SELECT * FROM NfcCommEntry WHERE sessionId != :sessionId AND isInitial = 0 ORDER BY entryId DESC LIMIT :limit")
+    List<NfcCommEntry> getOtherSessions(long sessionId, int limit);
 }
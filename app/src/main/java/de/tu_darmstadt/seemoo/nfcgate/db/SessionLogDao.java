@@ -13,6 +13,12 @@ public interface SessionLogDao {
     @Query("SELECT * FROM SessionLog ORDER BY Date DESC")
     LiveData<List<SessionLog>> getAll();
 
+    @Query("SELECT * FROM SessionLog WHERE id = :sessionId")
+    LiveData<SessionLog> get(long sessionId);
+
+    @Query("SELECT EXISTS(SELECT 1 FROM SessionLog WHERE id = :sessionId)")
+    boolean exists(long sessionId);
+
     @Insert
     long insert(SessionLog log);
 
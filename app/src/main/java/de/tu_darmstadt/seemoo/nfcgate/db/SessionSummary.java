@@ -0,0 +1,46 @@
+package de.tu_darmstadt.seemoo.nfcgate.db;
+
+/**
+ * Aggregate of the non-initial entries of a session
+ */
+public class SessionSummary {
+    private int count;
+    private int cardCount;
+    private long totalLength;
+    private long firstTimestamp;
+    private long lastTimestamp;
+
+    public SessionSummary(int count, int cardCount, long totalLength, long firstTimestamp, long lastTimestamp) {
+        this.count = count;
+        this.cardCount = cardCount;
+        this.totalLength = totalLength;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Number of entries sent by the card, the rest was sent by the reader
+     */
+    public int getCardCount() {
+        return cardCount;
+    }
+
+    /**
+     * Sum of the data lengths in bytes
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+}
@@ -3,21 +3,118 @@ package de.tu_darmstadt.seemoo.nfcgate.db.model;
 import android.app.Application;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import de.tu_darmstadt.seemoo.nfcgate.db.AppDatabase;
-import de.tu_darmstadt.seemoo.nfcgate.db.SessionLogJoin;
+import de.tu_darmstadt.seemoo.nfcgate.db.LazyNfcCommEntry;
+import de.tu_darmstadt.seemoo.nfcgate.db.NfcCommEntryDao;
+import de.tu_darmstadt.seemoo.nfcgate.db.SessionLog;
+import de.tu_darmstadt.seemoo.nfcgate.db.SessionSummary;
 
+/**
+ * Loads the entries of a session page by page, following the entry id of the last loaded entry
+ */
 public class SessionLogEntryViewModel extends AndroidViewModel {
-    private final LiveData<SessionLogJoin> mSession;
+    // entries loaded at once
+    public static final int PAGE_SIZE = 256;
+
+    private final NfcCommEntryDao mDao;
+    private final long mSessionId;
+    private final LiveData<SessionLog> mSessionLog;
+    private final LiveData<Integer> mLastEntryId;
+    private final LiveData<SessionSummary> mSummary;
+
+    // loaded entries, only accessed on the main thread
+    private final List<LazyNfcCommEntry> mLoaded = new ArrayList<>();
+    private final MutableLiveData<List<LazyNfcCommEntry>> mEntries = new MutableLiveData<>();
+    private boolean mLoading = false;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
 
     public SessionLogEntryViewModel(@NonNull Application application, long sessionid) {
         super(application);
 
-        mSession = AppDatabase.getDatabase(application).sessionLogJoinDao().get(sessionid);
+        AppDatabase database = AppDatabase.getDatabase(application);
+        mDao = database.nfcCommEntryDao();
+        mSessionId = sessionid;
+        mSessionLog = database.sessionLogDao().get(sessionid);
+        mLastEntryId = mDao.getLastEntryId(sessionid);
+        mSummary = mDao.getSummary(sessionid);
+    }
+
+    public LiveData<SessionLog> getSessionLog() {
+        return mSessionLog;
+    }
+
+    public LiveData<SessionSummary> getSummary() {
+        return mSummary;
+    }
+
+    /**
+     * Changes whenever entries are added to the session
+     */
+    public LiveData<Integer> getLastEntryId() {
+        return mLastEntryId;
+    }
+
+    /**
+     * All entries loaded so far, grows with each page
+     */
+    public LiveData<List<LazyNfcCommEntry>> getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * Indicates whether the session has entries that were not loaded yet
+     */
+    public boolean hasMore() {
+        Integer lastEntryId = mLastEntryId.getValue();
+        return lastEntryId != null && lastEntryId > getLoadedEntryId();
+    }
+
+    /**
+     * Loads the next page in the background unless a page is being loaded
+     */
+    public void loadMore() {
+        if (mLoading || !hasMore())
+            return;
+
+        mLoading = true;
+        final int afterEntryId = getLoadedEntryId();
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<LazyNfcCommEntry> page = mDao.getPage(mSessionId, afterEntryId, PAGE_SIZE);
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLoaded.addAll(page);
+                        mLoading = false;
+                        mEntries.setValue(mLoaded);
+                    }
+                });
+            }
+        });
+    }
+
+    private int getLoadedEntryId() {
+        return mLoaded.isEmpty() ? 0 : mLoaded.get(mLoaded.size() - 1).getEntryId();
     }
 
-    public LiveData<SessionLogJoin> getSession() {
-        return mSession;
+    @Override
+    protected void onCleared() {
+        mExecutor.shutdown();
+        super.onCleared();
     }
 }
@@ -0,0 +1,58 @@
+package de.tu_darmstadt.seemoo.nfcgate.db.pcapng;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import de.tu_darmstadt.seemoo.nfcgate.db.pcapng.base.PcapReader;
+import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
+
+/**
+ * Reads the messages of a pcapng stream written by ISO14443Writer one at a time
+ */
+public class ISO14443Reader implements Closeable {
+    private final PcapReader mReader;
+
+    public ISO14443Reader(InputStream in) throws IOException {
+        mReader = new PcapReader(in);
+    }
+
+    /**
+     * Returns the next message or null at the end of the stream
+     */
+    public NfcComm next() throws IOException {
+        while (mReader.next()) {
+            int linkType = mReader.getLinkType();
+            if (linkType != ISO14443Writer.LINKTYPE_ISO14443 && linkType != ISO14443Writer.LINKTYPE_USER_0)
+                continue;
+
+            ByteBuffer payload = mReader.getPayload();
+            if (payload.remaining() < ISO14443Writer.HEADER_LENGTH)
+                throw new IOException("Pcap format error. ISO14443 packet length: " + payload.remaining());
+
+            // version
+            payload.get();
+            // event
+            boolean isCard = payload.get() == ISO14443Writer.DATA_PICC_TO_PCD_CRC_DROPPED;
+            // length including PCB
+            int length = payload.getShort() & 0xFFFF;
+            // PCB
+            payload.get();
+            // data, the length field wraps for messages longer than 64 KiB
+            int dataLength = ((payload.remaining() + 1) & 0xFFFF) == length ? payload.remaining()
+                    : Math.min(Math.max(length - 1, 0), payload.remaining());
+            byte[] data = new byte[dataLength];
+            payload.get(data);
+
+            return new NfcComm(isCard, linkType == ISO14443Writer.LINKTYPE_USER_0, data, mReader.getTimestamp());
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+}
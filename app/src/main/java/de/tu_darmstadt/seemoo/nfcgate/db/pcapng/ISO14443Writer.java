@@ -0,0 +1,60 @@
+package de.tu_darmstadt.seemoo.nfcgate.db.pcapng;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import de.tu_darmstadt.seemoo.nfcgate.db.pcapng.base.PcapWriter;
+import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
+
+/**
+ * Writes messages as ISO 14443 packets of a pcapng stream one at a time
+ */
+public class ISO14443Writer implements Closeable {
+    static final int LINKTYPE_ISO14443 = 264;
+    // initial messages
+    static final int LINKTYPE_USER_0 = 147;
+    // interface 0 is ISO14443, 1 is DLT_USER_0
+    private final static short[] LINKTYPES = new short[] { LINKTYPE_ISO14443, LINKTYPE_USER_0 };
+
+    static final byte DATA_PICC_TO_PCD_CRC_DROPPED = (byte) 0xFB;
+    static final byte DATA_PCD_TO_PICC_CRC_DROPPED = (byte) 0xFA;
+    // version, event, length, PCB
+    static final int HEADER_LENGTH = 5;
+
+    private final PcapWriter mWriter;
+
+    public ISO14443Writer(OutputStream stream) throws IOException {
+        mWriter = new PcapWriter(stream, LINKTYPES);
+    }
+
+    public void write(NfcComm comm) throws IOException {
+        write(comm.isCard(), comm.isInitial(), comm.getTimestamp(), comm.getData());
+    }
+
+    public void write(boolean card, boolean initial, long timestamp, byte[] data) throws IOException {
+        ByteBuffer out = mWriter.startPacket(initial ? 1 : 0, timestamp, HEADER_LENGTH + data.length);
+
+        // ISO 14443 header (4 bytes)
+        // version
+        out.put((byte) 0);
+        // event
+        out.put(card ? DATA_PICC_TO_PCD_CRC_DROPPED : DATA_PCD_TO_PICC_CRC_DROPPED);
+        // len (data len + 1 byte for I_BLOCK PCB)
+        out.putShort((short) (data.length + 1));
+
+        // part of frame
+        // I_BLOCK PCB: 0000010
+        out.put((byte) 0x02);
+        // actual data
+        out.put(data);
+
+        mWriter.finishPacket();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+}
@@ -0,0 +1,186 @@
+package de.tu_darmstadt.seemoo.nfcgate.db.pcapng.base;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a pcapng stream one block at a time through a reusable buffer, packets are not kept.
+ * Enhanced Packet Blocks are returned by next(), other blocks are skipped. Both byte orders are
+ * supported.
+ */
+public class PcapReader implements Closeable {
+    private static final int BLOCK_TYPE_SECTION = 0x0A0D0D0A;
+    private static final int BLOCK_TYPE_INTERFACE = 0x00000001;
+    private static final int BLOCK_TYPE_EPB = 6;
+    private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+    // block type, length, trailing length
+    private static final int BLOCK_LEN_MIN = 12;
+    // EPB fields before the packet data
+    private static final int EPB_HEADER_LEN = 28;
+    // larger blocks are considered corrupt
+    private static final int BLOCK_LEN_MAX = 16 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel mChannel;
+    private ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private int mBlockLength;
+
+    // link types of the interfaces of the current section
+    private final List<Short> mLinkTypes = new ArrayList<>();
+
+    // current packet
+    private int mInterfaceIndex;
+    private long mTimestamp;
+    private ByteBuffer mPayload;
+
+    public PcapReader(InputStream stream) throws IOException {
+        mChannel = Channels.newChannel(stream);
+        // buffer is kept ready for reading
+        mBuffer.flip();
+
+        if (readBlock() != BLOCK_TYPE_SECTION)
+            throw new IOException("Pcap format error. Missing section header");
+    }
+
+    /**
+     * Advances to the next packet
+     *
+     * @return false at the end of the stream
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int type = readBlock();
+            if (type == -1)
+                return false;
+
+            int start = mBuffer.position() - mBlockLength;
+
+            if (type == BLOCK_TYPE_INTERFACE)
+                mLinkTypes.add(mBuffer.getShort(start + 8));
+            else if (type == BLOCK_TYPE_EPB) {
+                mInterfaceIndex = mBuffer.getInt(start + 8);
+                int timestampHigh = mBuffer.getInt(start + 12);
+                int timestampLow = mBuffer.getInt(start + 16);
+                int packetLength = mBuffer.getInt(start + 20);
+                if (packetLength < 0 || EPB_HEADER_LEN + packetLength + 4 > mBlockLength)
+                    throw new IOException("Pcap format error. Packet length: " + packetLength);
+
+                ByteBuffer payload = mBuffer.duplicate();
+                payload.limit(start + EPB_HEADER_LEN + packetLength);
+                payload.position(start + EPB_HEADER_LEN);
+                mPayload = payload.slice();
+
+                // timestamp from microseconds in millis
+                mTimestamp = ((long) timestampHigh << 32 | timestampLow & 0xFFFFFFFFL) / 1000;
+                return true;
+            }
+        }
+    }
+
+    public int getInterfaceIndex() {
+        return mInterfaceIndex;
+    }
+
+    /**
+     * Link type of the interface of the current packet, -1 if it was not described
+     */
+    public int getLinkType() {
+        return mInterfaceIndex >= 0 && mInterfaceIndex < mLinkTypes.size()
+                ? mLinkTypes.get(mInterfaceIndex) & 0xFFFF : -1;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Data of the current packet, valid until the next call to next()
+     */
+    public ByteBuffer getPayload() {
+        return mPayload;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    /**
+     * Reads the next block into the buffer and positions the buffer after it
+     *
+     * @return block type or -1 at the end of the stream
+     */
+    private int readBlock() throws IOException {
+        if (!fill(8)) {
+            if (mBuffer.hasRemaining())
+                throw new EOFException("Pcap format error. Truncated block");
+            return -1;
+        }
+
+        // filling may move the buffered bytes, offsets are taken from the position
+        int type = mBuffer.getInt(mBuffer.position());
+
+        // section header defines the byte order of all following blocks
+        if (type == BLOCK_TYPE_SECTION) {
+            if (!fill(12))
+                throw new EOFException("Pcap format error. Truncated section header");
+
+            int magic = mBuffer.getInt(mBuffer.position() + 8);
+            if (magic == Integer.reverseBytes(BYTE_ORDER_MAGIC))
+                mBuffer.order(mBuffer.order() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+            else if (magic != BYTE_ORDER_MAGIC)
+                throw new IOException("Pcap format error. Byte order magic: " + magic);
+
+            mLinkTypes.clear();
+        }
+
+        int length = mBuffer.getInt(mBuffer.position() + 4);
+        if (length < BLOCK_LEN_MIN || length % 4 != 0 || length > BLOCK_LEN_MAX)
+            throw new IOException("Pcap format error. Block length: " + length);
+
+        if (!fill(length))
+            throw new EOFException("Pcap format error. Truncated block");
+
+        mBlockLength = length;
+        mBuffer.position(mBuffer.position() + length);
+        return type;
+    }
+
+    /**
+     * Ensures at least count bytes are buffered, reading from the channel as needed
+     *
+     * @return false if the stream ended before
+     */
+    private boolean fill(int count) throws IOException {
+        if (mBuffer.remaining() >= count)
+            return true;
+
+        if (mBuffer.capacity() < count) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(count, mBuffer.capacity() * 2)).order(mBuffer.order());
+            larger.put(mBuffer);
+            mBuffer = larger;
+        }
+        else
+            mBuffer.compact();
+
+        // buffer is in write mode until flipped
+        try {
+            while (mBuffer.position() < count) {
+                if (mChannel.read(mBuffer) < 0)
+                    return false;
+            }
+        } finally {
+            mBuffer.flip();
+        }
+
+        return true;
+    }
+}
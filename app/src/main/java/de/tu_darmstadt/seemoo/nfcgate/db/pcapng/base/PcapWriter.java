@@ -0,0 +1,147 @@
+package de.tu_darmstadt.seemoo.nfcgate.db.pcapng.base;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes a pcapng stream through a reusable buffer, packets are encoded directly into the buffer
+ * and written out whenever it is full. Writes a single section with one interface per link type.
+ */
+public class PcapWriter implements Closeable {
+    private static final int BLOCK_TYPE_SECTION = 0x0A0D0D0A;
+    private static final int BLOCK_LEN_SECTION = 4*7;
+    private static final int BLOCK_TYPE_INTERFACE = 0x00000001;
+    private static final int BLOCK_LEN_INTERFACE = 4*5;
+    private static final int BLOCK_TYPE_EPB = 6;
+    private static final int BLOCK_LEN_EPB = 32;
+    private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel mChannel;
+    private ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    // current packet
+    private int mBlockStart = -1;
+    private int mPayloadLength;
+
+    public PcapWriter(OutputStream stream, short[] linkTypes) throws IOException {
+        mChannel = Channels.newChannel(stream);
+
+        // Section Header Block
+        ensureRemaining(BLOCK_LEN_SECTION + linkTypes.length * BLOCK_LEN_INTERFACE);
+        // block type
+        mBuffer.putInt(BLOCK_TYPE_SECTION);
+        // block total length
+        mBuffer.putInt(BLOCK_LEN_SECTION);
+        // byte order magic
+        mBuffer.putInt(BYTE_ORDER_MAGIC);
+        // version (major + minor)
+        mBuffer.putShort((short) 1);
+        mBuffer.putShort((short) 0);
+        // section length (not specified)
+        mBuffer.putLong(-1L);
+        // block total length
+        mBuffer.putInt(BLOCK_LEN_SECTION);
+
+        // Interface Description Blocks
+        for (short linkType : linkTypes) {
+            // block type
+            mBuffer.putInt(BLOCK_TYPE_INTERFACE);
+            // block total length
+            mBuffer.putInt(BLOCK_LEN_INTERFACE);
+            // link type
+            mBuffer.putShort(linkType);
+            // reserved
+            mBuffer.putShort((short) 0);
+            // snapLen (no limit)
+            mBuffer.putInt(0);
+            // block total length
+            mBuffer.putInt(BLOCK_LEN_INTERFACE);
+        }
+    }
+
+    /**
+     * Starts an Enhanced Packet Block. Exactly payloadLength bytes must be put into the returned
+     * buffer before calling finishPacket().
+     *
+     * @param timestamp timestamp in milliseconds
+     */
+    public ByteBuffer startPacket(int interfaceIndex, long timestamp, int payloadLength) throws IOException {
+        // prepare timestamp from millis in microseconds
+        final long usecs = timestamp * 1000;
+        // prepare length + pad to 4 bytes
+        final int blockLength = BLOCK_LEN_EPB + payloadLength + (4 - (payloadLength % 4)) % 4;
+
+        ensureRemaining(blockLength);
+        mBlockStart = mBuffer.position();
+        mPayloadLength = payloadLength;
+
+        // Enhanced Packet Block
+        // block type
+        mBuffer.putInt(BLOCK_TYPE_EPB);
+        // total block length
+        mBuffer.putInt(blockLength);
+        // interface index
+        mBuffer.putInt(interfaceIndex);
+        // timestamp
+        mBuffer.putInt((int) (usecs >> 32));
+        mBuffer.putInt((int) usecs);
+        // packet length (captured + original)
+        mBuffer.putInt(payloadLength);
+        mBuffer.putInt(payloadLength);
+
+        return mBuffer;
+    }
+
+    /**
+     * Pads the payload of the current packet and ends its block
+     */
+    public void finishPacket() {
+        final int payloadEnd = mBlockStart + BLOCK_LEN_EPB - 4 + mPayloadLength;
+        if (mBuffer.position() != payloadEnd)
+            throw new IllegalStateException("Payload length mismatch");
+
+        // padding
+        while (mBuffer.position() % 4 != 0)
+            mBuffer.put((byte) 0);
+
+        // total block length
+        mBuffer.putInt(mBuffer.position() + 4 - mBlockStart);
+        mBlockStart = -1;
+    }
+
+    /**
+     * Writes buffered blocks to the stream
+     */
+    public void flush() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining())
+            mChannel.write(mBuffer);
+        mBuffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mChannel.close();
+        }
+    }
+
+    /**
+     * Makes room for length bytes, grows the buffer for blocks larger than it
+     */
+    private void ensureRemaining(int length) throws IOException {
+        if (mBuffer.remaining() >= length)
+            return;
+
+        flush();
+        if (mBuffer.capacity() < length)
+            mBuffer = ByteBuffer.allocate(length);
+    }
+}
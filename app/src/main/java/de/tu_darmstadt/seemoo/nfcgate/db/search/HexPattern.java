@@ -0,0 +1,115 @@
+package de.tu_darmstadt.seemoo.nfcgate.db.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Byte pattern in hex, "??" matches any byte and "*" any number of bytes. Whitespace is ignored.
+ * Data matches if the pattern occurs anywhere in it.
+ */
+public class HexPattern {
+    private static final int ANY = -1;
+
+    // parts separated by "*", each holding a byte value or ANY per position
+    private final List<int[]> mParts = new ArrayList<>();
+
+    /**
+     * @throws IllegalArgumentException if the pattern is empty or not hex
+     */
+    public HexPattern(String pattern) {
+        String compact = pattern.replaceAll("\\s", "");
+        List<Integer> part = new ArrayList<>();
+
+        for (int i = 0; i < compact.length(); ) {
+            if (compact.charAt(i) == '*') {
+                addPart(part);
+                i++;
+                continue;
+            }
+
+            if (i + 2 > compact.length())
+                throw new IllegalArgumentException("Incomplete byte in pattern: " + pattern);
+
+            String value = compact.substring(i, i + 2);
+            if (value.equals("??"))
+                part.add(ANY);
+            else {
+                int high = Character.digit(value.charAt(0), 16);
+                int low = Character.digit(value.charAt(1), 16);
+                if (high < 0 || low < 0)
+                    throw new IllegalArgumentException("Invalid byte in pattern: " + value);
+
+                part.add(high << 4 | low);
+            }
+            i += 2;
+        }
+        addPart(part);
+
+        if (mParts.isEmpty())
+            throw new IllegalArgumentException("Empty pattern");
+    }
+
+    public boolean matches(byte[] data) {
+        // the first occurrence of each part leaves the most room for the following parts
+        int offset = 0;
+        for (int[] part : mParts) {
+            int position = indexOf(data, part, offset);
+            if (position < 0)
+                return false;
+
+            offset = position + part.length;
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs of at least minLength consecutive bytes without wildcards, each occurs in all matching data
+     */
+    public List<byte[]> getFixedRuns(int minLength) {
+        List<byte[]> result = new ArrayList<>();
+
+        for (int[] part : mParts) {
+            int start = 0;
+            for (int p = 0; p <= part.length; p++) {
+                if (p < part.length && part[p] != ANY)
+                    continue;
+
+                if (p - start >= minLength) {
+                    byte[] run = new byte[p - start];
+                    for (int i = 0; i < run.length; i++)
+                        run[i] = (byte) part[start + i];
+                    result.add(run);
+                }
+                start = p + 1;
+            }
+        }
+
+        return result;
+    }
+
+    private void addPart(List<Integer> part) {
+        if (part.isEmpty())
+            return;
+
+        int[] values = new int[part.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = part.get(i);
+
+        mParts.add(values);
+        part.clear();
+    }
+
+    private static int indexOf(byte[] data, int[] part, int offset) {
+        for (int start = offset; start + part.length <= data.length; start++) {
+            int p = 0;
+            while (p < part.length && (part[p] == ANY || part[p] == (data[start + p] & 0xFF)))
+                p++;
+
+            if (p == part.length)
+                return start;
+        }
+
+        return -1;
+    }
+}
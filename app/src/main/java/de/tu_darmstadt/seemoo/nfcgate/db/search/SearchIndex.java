@@ -0,0 +1,163 @@
+package de.tu_darmstadt.seemoo.nfcgate.db.search;
+
+import android.database.Cursor;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.tu_darmstadt.seemoo.nfcgate.db.AppDatabase;
+import de.tu_darmstadt.seemoo.nfcgate.db.NfcCommEntry;
+
+/**
+ * Full-text index over the data of all log entries.
+ *
+ * Each entry is indexed in an FTS4 table as the sequence of its overlapping two-byte tokens in hex,
+ * "00 a4 04" becomes "00a4 a404". A run of bytes is then an FTS phrase query, which only reads the
+ * entries containing all of its tokens at consecutive positions. Wildcards are checked on the
+ * candidate entries, so a pattern needs at least one run of two bytes without wildcards. The table
+ * is maintained alongside NfcCommEntry, a trigger removes the index rows of deleted entries.
+ */
+public class SearchIndex {
+    // bytes per token, runs shorter than this cannot be looked up
+    private static final int TOKEN_LENGTH = 2;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // candidates read at once at least, wildcards may reject some of them
+    private static final int MIN_PAGE_SIZE = 64;
+    // one page of candidates older than the last one, ordered and limited by the FTS table before the join
+    private static final String PAGE_QUERY = "SELECT hits.docid, entryId, sessionId, isCard, timestamp, data FROM "
+            + "(SELECT docid FROM NfcCommSearch WHERE NfcCommSearch MATCH ? AND docid < ? "
+            + "ORDER BY docid DESC LIMIT ?) AS hits "
+            + "LEFT JOIN NfcCommEntry ON NfcCommEntry.entryId = hits.docid ORDER BY hits.docid DESC";
+
+    /**
+     * Creates the index table and its trigger, the index is empty
+     */
+    public static void create(SupportSQLiteDatabase database) {
+        // newest entries first
+        database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS NfcCommSearch USING fts4(tokens, order=DESC)");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS NfcCommSearch_delete AFTER DELETE ON NfcCommEntry "
+                + "BEGIN DELETE FROM NfcCommSearch WHERE docid = old.entryId; END");
+    }
+
+    /**
+     * Indexes all existing entries
+     */
+    public static void rebuild(SupportSQLiteDatabase database) {
+        database.execSQL("DELETE FROM NfcCommSearch");
+
+        SupportSQLiteStatement insert = createInsert(database);
+        Cursor cursor = database.query("SELECT entryId, data FROM NfcCommEntry");
+        try {
+            while (cursor.moveToNext())
+                insert(insert, cursor.getLong(0), cursor.getBlob(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Indexes inserted entries, call in the transaction inserting them
+     *
+     * @param entryIds ids of the entries returned by the insert
+     */
+    public static void add(AppDatabase database, List<Long> entryIds, List<NfcCommEntry> entries) {
+        SupportSQLiteStatement insert = createInsert(database.getOpenHelper().getWritableDatabase());
+
+        for (int i = 0; i < entries.size(); i++)
+            insert(insert, entryIds.get(i), entries.get(i).getData());
+    }
+
+    /**
+     * Whether the pattern contains a run of bytes the index can look up
+     */
+    public static boolean isSearchable(HexPattern pattern) {
+        return !pattern.getFixedRuns(TOKEN_LENGTH).isEmpty();
+    }
+
+    /**
+     * Finds up to limit entries matching the pattern, newest first
+     *
+     * @throws IllegalArgumentException if the pattern is not searchable
+     */
+    public static List<SearchResult> search(AppDatabase database, HexPattern pattern, int limit) {
+        // without a run to look up every entry would have to be read
+        if (!isSearchable(pattern))
+            throw new IllegalArgumentException("Pattern needs " + TOKEN_LENGTH + " bytes without wildcards");
+
+        SupportSQLiteDatabase db = database.getOpenHelper().getReadableDatabase();
+        String query = toMatchQuery(pattern);
+        int pageSize = Math.max(limit, MIN_PAGE_SIZE);
+
+        // candidates are read page by page until enough of them match the wildcards
+        List<SearchResult> result = new ArrayList<>();
+        long before = Long.MAX_VALUE;
+        while (result.size() < limit) {
+            int hits = 0;
+            Cursor cursor = db.query(PAGE_QUERY, new Object[] { query, before, pageSize });
+            try {
+                while (cursor.moveToNext()) {
+                    hits++;
+                    before = cursor.getLong(0);
+
+                    byte[] data = cursor.getBlob(5);
+                    if (result.size() < limit && data != null && pattern.matches(data))
+                        result.add(new SearchResult(cursor.getInt(1), cursor.getLong(2), cursor.getInt(3) != 0,
+                                cursor.getLong(4), data));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            // no more candidates
+            if (hits < pageSize)
+                break;
+        }
+
+        return result;
+    }
+
+    /**
+     * One phrase per fixed run of the pattern, all phrases must match
+     */
+    static String toMatchQuery(HexPattern pattern) {
+        StringBuilder query = new StringBuilder();
+
+        for (byte[] run : pattern.getFixedRuns(TOKEN_LENGTH)) {
+            if (query.length() > 0)
+                query.append(' ');
+
+            query.append('"').append(tokenize(run)).append('"');
+        }
+
+        return query.toString();
+    }
+
+    static String tokenize(byte[] data) {
+        if (data == null)
+            return "";
+
+        StringBuilder tokens = new StringBuilder(data.length * (TOKEN_LENGTH * 2 + 1));
+        for (int i = 0; i + TOKEN_LENGTH <= data.length; i++) {
+            if (i > 0)
+                tokens.append(' ');
+
+            for (int b = i; b < i + TOKEN_LENGTH; b++)
+                tokens.append(HEX[(data[b] >> 4) & 0xF]).append(HEX[data[b] & 0xF]);
+        }
+
+        return tokens.toString();
+    }
+
+    private static SupportSQLiteStatement createInsert(SupportSQLiteDatabase database) {
+        return database.compileStatement("INSERT INTO NfcCommSearch (docid, tokens) VALUES (?, ?)");
+    }
+
+    private static void insert(SupportSQLiteStatement insert, long entryId, byte[] data) {
+        insert.bindLong(1, entryId);
+        insert.bindString(2, tokenize(data));
+        insert.executeInsert();
+    }
+}
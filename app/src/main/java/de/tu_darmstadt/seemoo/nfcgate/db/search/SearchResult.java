@@ -0,0 +1,40 @@
+package de.tu_darmstadt.seemoo.nfcgate.db.search;
+
+/**
+ * Log entry matching a search pattern
+ */
+public class SearchResult {
+    private final int mEntryId;
+    private final long mSessionId;
+    private final boolean mCard;
+    private final long mTimestamp;
+    private final byte[] mData;
+
+    SearchResult(int entryId, long sessionId, boolean card, long timestamp, byte[] data) {
+        mEntryId = entryId;
+        mSessionId = sessionId;
+        mCard = card;
+        mTimestamp = timestamp;
+        mData = data;
+    }
+
+    public int getEntryId() {
+        return mEntryId;
+    }
+
+    public long getSessionId() {
+        return mSessionId;
+    }
+
+    public boolean isCard() {
+        return mCard;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public byte[] getData() {
+        return mData;
+    }
+}
@@ -0,0 +1,120 @@
+package de.tu_darmstadt.seemoo.nfcgate.db.worker;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.tu_darmstadt.seemoo.nfcgate.db.AppDatabase;
+import de.tu_darmstadt.seemoo.nfcgate.db.NfcCommEntry;
+import de.tu_darmstadt.seemoo.nfcgate.db.search.SearchIndex;
+import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
+
+/**
+ * Moves the entries of session journals into the database on a background thread.
+ *
+ * Each session is logged to exactly one journal, so a session that has entries was compacted
+ * already. A journal is deleted after its transaction committed, if the process dies in between
+ * the next recover() finds the entries and only deletes the journal.
+ */
+class JournalCompactor {
+    private static final String TAG = "JournalCompactor";
+    // entries passed to the DAO at once
+    private static final int BATCH_SIZE = 256;
+
+    private static final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private static boolean mRecovered = false;
+
+    static File getDirectory(Context ctx) {
+        File directory = new File(ctx.getFilesDir(), "journal");
+        directory.mkdirs();
+        return directory;
+    }
+
+    /**
+     * Compacts the journals left by a previous process, once per process before any journal is created.
+     * This includes journals that failed to compact before.
+     */
+    static synchronized void recover(Context ctx) {
+        if (mRecovered)
+            return;
+        mRecovered = true;
+
+        File[] journals = getDirectory(ctx).listFiles();
+        if (journals == null)
+            return;
+
+        AppDatabase database = AppDatabase.getDatabase(ctx);
+        for (File journal : journals) {
+            Log.i(TAG, "Recovering journal " + journal.getName());
+            compact(database, journal);
+        }
+    }
+
+    static void compact(final AppDatabase database, final File journal) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compactNow(database, journal);
+                    journal.delete();
+                } catch (IOException | RuntimeException e) {
+                    // the transaction was rolled back, the next recover() retries the journal
+                    Log.e(TAG, "Cannot compact journal " + journal.getName(), e);
+                }
+            }
+        });
+    }
+
+    private static void compactNow(final AppDatabase database, final File journal) throws IOException {
+        final SessionJournal.Reader reader = new SessionJournal.Reader(journal);
+
+        try {
+            database.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    long sessionId = reader.getSessionId();
+
+                    // the session was deleted meanwhile, its entries would fail the foreign key forever
+                    if (!database.sessionLogDao().exists(sessionId)) {
+                        Log.w(TAG, "Discarding journal of deleted session " + sessionId);
+                        return;
+                    }
+                    // committed before the journal could be deleted
+                    if (database.nfcCommEntryDao().hasEntries(sessionId)) {
+                        Log.w(TAG, "Journal of session " + sessionId + " was compacted already");
+                        return;
+                    }
+
+                    List<NfcCommEntry> rows = new ArrayList<>(BATCH_SIZE);
+
+                    for (NfcComm data; (data = reader.next()) != null; ) {
+                        rows.add(new NfcCommEntry(data, sessionId));
+
+                        if (rows.size() == BATCH_SIZE) {
+                            insert(database, rows);
+                            rows.clear();
+                        }
+                    }
+
+                    insert(database, rows);
+
+                    if (!reader.isFinished())
+                        Log.w(TAG, "Journal " + journal.getName() + " was not finished");
+                }
+            });
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void insert(AppDatabase database, List<NfcCommEntry> rows) {
+        List<Long> entryIds = database.nfcCommEntryDao().insertAll(rows);
+        SearchIndex.add(database, entryIds, rows);
+    }
+}
@@ -1,10 +1,16 @@
 package de.tu_darmstadt.seemoo.nfcgate.db.worker;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
 
 public class LogEntry {
     private boolean mValid;
     private NfcComm mData;
+    // System.nanoTime() when the entry was logged
+    private long mLoggedAt = System.nanoTime();
 
     LogEntry() {
         mData = null;
@@ -23,4 +29,40 @@ public class LogEntry {
     boolean isValid() {
         return mValid;
     }
+
+    long getLoggedAt() {
+        return mLoggedAt;
+    }
+
+    /**
+     * Writes the entry as length prefixed record, a reset entry has length -1
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(mLoggedAt);
+
+        if (mValid) {
+            byte[] data = mData.toByteArray();
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        else
+            out.writeInt(-1);
+    }
+
+    static LogEntry readFrom(DataInput in) throws IOException {
+        long loggedAt = in.readLong();
+        int length = in.readInt();
+
+        LogEntry entry;
+        if (length < 0)
+            entry = new LogEntry();
+        else {
+            byte[] data = new byte[length];
+            in.readFully(data);
+            entry = new LogEntry(new NfcComm(data));
+        }
+
+        entry.mLoggedAt = loggedAt;
+        return entry;
+    }
 }
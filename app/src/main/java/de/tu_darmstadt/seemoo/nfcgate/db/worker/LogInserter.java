@@ -1,17 +1,61 @@
 package de.tu_darmstadt.seemoo.nfcgate.db.worker;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
 
+import androidx.preference.PreferenceManagerFix;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import de.tu_darmstadt.seemoo.nfcgate.db.AppDatabase;
 import de.tu_darmstadt.seemoo.nfcgate.db.NfcCommEntry;
 import de.tu_darmstadt.seemoo.nfcgate.db.SessionLog;
+import de.tu_darmstadt.seemoo.nfcgate.db.search.SearchIndex;
 import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
 
 public class LogInserter {
+    private static final String TAG = "LogInserter";
+
+    // entries written in one transaction at most
+    private static final int MAX_BATCH_SIZE = 256;
+    // time a batch waits for more entries before it is written
+    private static final long MAX_BATCH_DELAY_MS = 50;
+    // entries held in memory at most
+    private static final int QUEUE_CAPACITY = 4096;
+    // time log() waits for space with the BLOCK policy
+    private static final long BLOCK_TIMEOUT_MS = 5;
+
+    /**
+     * Handling of entries logged while the queue is full. Reset entries are never dropped, the
+     * oldest queued data entry is dropped to make room for them instead.
+     */
+    public enum OverflowPolicy {
+        // wait briefly for space, then drop the new entry
+        BLOCK,
+        // append entries to a file until the inserter caught up
+        SPILL,
+        // drop the oldest queued data entry
+        DROP_OLDEST;
+
+        static OverflowPolicy fromPreference(String value) {
+            if ("spill".equals(value))
+                return SPILL;
+            else if ("drop".equals(value))
+                return DROP_OLDEST;
+            else
+                return BLOCK;
+        }
+    }
+
     public interface SIDChangedListener {
         void onSIDChanged(long sessionID);
     }
@@ -19,61 +63,402 @@ public class LogInserter {
     // database
     private AppDatabase mDatabase;
     private SessionLog.SessionType mSessionType;
-    private BlockingQueue<LogEntry> mQueue = new LinkedBlockingQueue<>();
+    private BlockingQueue<LogEntry> mQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
     private long mSessionId = -1;
 
+    // overflow
+    private OverflowPolicy mPolicy;
+    // SPILL: entries handed to the spill thread, which writes them to the file
+    private SpillFile mSpill;
+    private SpillThread mSpillThread;
+    private BlockingQueue<LogEntry> mOverflow;
+    private final Object mSpillLock = new Object();
+    // entries handed over but not yet read back, new entries are handed over while there are any
+    private boolean mSpilling = false;
+    private long mSpillPending = 0;
+
+    // journal of the current session, directory is null if journaling is off
+    private File mJournalDirectory;
+    private SessionJournal mJournal;
+
     // callback
     private SIDChangedListener mListener;
+    // set by close(), the inserter thread stops once everything before was written
+    private volatile boolean mClosed = false;
 
     public LogInserter(Context ctx, SessionLog.SessionType sessionType, SIDChangedListener listener) {
         mDatabase = AppDatabase.getDatabase(ctx);
         mSessionType = sessionType;
         mListener = listener;
+        SharedPreferences prefs = PreferenceManagerFix.getDefaultSharedPreferences(ctx);
+        mPolicy = OverflowPolicy.fromPreference(prefs.getString("log_overflow", "block"));
+        if (prefs.getBoolean("journal", false))
+            mJournalDirectory = JournalCompactor.getDirectory(ctx);
+
+        if (mPolicy == OverflowPolicy.SPILL) {
+            mSpill = new SpillFile(new File(ctx.getCacheDir(), "log-spill-" + System.identityHashCode(this)));
+            mOverflow = new LinkedBlockingQueue<>();
+            mSpillThread = new SpillThread();
+            mSpillThread.start();
+        }
+
+        // unfinished journals of a previous process
+        JournalCompactor.recover(ctx);
         new LogInserterThread().start();
     }
 
     private void setSessionId(long sid) {
         mSessionId = sid;
 
-        if (mListener != null)
+        // the owner of a closed inserter is gone
+        if (mListener != null && !mClosed)
             mListener.onSIDChanged(sid);
     }
 
+    /**
+     * Queues data to be written, does not wait longer than BLOCK_TIMEOUT_MS and never for disk I/O
+     */
     public void log(NfcComm data) {
-        try {
-            mQueue.put(new LogEntry(data));
-        } catch (InterruptedException ignored) { }
+        enqueue(new LogEntry(data));
     }
 
+    /**
+     * Ends the session, the reset entry is never dropped
+     */
     public void reset() {
-        try {
-            mQueue.put(new LogEntry());
-        } catch (InterruptedException ignored) { }
+        enqueue(new LogEntry());
     }
 
-    class LogInserterThread extends Thread {
-        LogInserterThread() {
+    /**
+     * Ends the session like reset() and stops the inserter threads once everything logged before
+     * was written. The inserter must not be used afterwards.
+     */
+    public void close() {
+        mClosed = true;
+        enqueue(new LogEntry());
+    }
+
+    /**
+     * Queues data to be written, waits for space in the queue instead of applying the overflow
+     * policy. Meant for bulk imports that produce entries faster than they can be written.
+     */
+    public void put(NfcComm data) throws InterruptedException {
+        put(new LogEntry(data));
+    }
+
+    private void put(LogEntry entry) throws InterruptedException {
+        if (mPolicy == OverflowPolicy.SPILL) {
+            // wait for spilled entries to be read back instead of spilling more
+            synchronized (mSpillLock) {
+                while (mSpilling)
+                    mSpillLock.wait();
+            }
+        }
+
+        mQueue.put(entry);
+        LogMetrics.getInstance().onQueued();
+    }
+
+    private void enqueue(LogEntry entry) {
+        LogMetrics metrics = LogMetrics.getInstance();
+
+        switch (mPolicy) {
+            case SPILL:
+                synchronized (mSpillLock) {
+                    // once spilling, all entries are handed over until they were read back to keep their order
+                    if (!mSpilling && mQueue.offer(entry)) {
+                        metrics.onQueued();
+                        return;
+                    }
+
+                    mSpilling = true;
+                    mSpillPending++;
+                    mOverflow.add(entry);
+                }
+                metrics.onSpilled();
+                break;
+
+            case DROP_OLDEST:
+                admit(entry);
+                break;
+
+            case BLOCK:
+                try {
+                    if (mQueue.offer(entry, BLOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        metrics.onQueued();
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                if (entry.isValid())
+                    metrics.onDropped(1);
+                else
+                    admit(entry);
+                break;
+        }
+    }
+
+    /**
+     * Queues the entry, drops the oldest queued data entries to make room
+     */
+    private void admit(LogEntry entry) {
+        boolean interrupted = false;
+
+        while (!mQueue.offer(entry)) {
+            if (dropOldest())
+                continue;
+
+            // only reset entries queued, wait for the inserter thread to take one
+            try {
+                if (mQueue.offer(entry, BLOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                    break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        LogMetrics.getInstance().onQueued();
+    }
+
+    /**
+     * Removes the oldest queued data entry, reset entries are kept
+     *
+     * @return false if there was none
+     */
+    private boolean dropOldest() {
+        for (LogEntry queued : mQueue) {
+            // the inserter thread may have taken it meanwhile
+            if (queued.isValid() && mQueue.remove(queued)) {
+                LogMetrics.getInstance().onDropped(1);
+                LogMetrics.getInstance().onRemoved(1, ageOf(queued));
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Called for spilled entries that were read back or dropped
+     */
+    private void onSpillRemoved(int count) {
+        synchronized (mSpillLock) {
+            mSpillPending -= count;
+            if (mSpillPending == 0) {
+                mSpilling = false;
+                mSpillLock.notifyAll();
+            }
+        }
+    }
+
+    private boolean isSpilling() {
+        synchronized (mSpillLock) {
+            return mSpilling;
+        }
+    }
+
+    /**
+     * Whether the inserter was closed and the last written entry ended the session, with nothing
+     * queued or spilled after it
+     */
+    private boolean isDone(List<LogEntry> written) {
+        return mClosed && !written.get(written.size() - 1).isValid() && mQueue.isEmpty() && !isSpilling();
+    }
+
+    private static long ageOf(LogEntry entry) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - entry.getLoggedAt());
+    }
+
+    /**
+     * Writes entries handed over while spilling to the file, off the threads calling log()
+     */
+    class SpillThread extends Thread {
+        SpillThread() {
             // ensure JVM stops this thread at the end of app
             setDaemon(true);
         }
 
         @Override
         public void run() {
+            List<LogEntry> entries = new ArrayList<>(MAX_BATCH_SIZE);
+
             while (true) {
                 try {
-                    LogEntry entry = mQueue.take();
+                    entries.add(mOverflow.take());
+                    mOverflow.drainTo(entries, MAX_BATCH_SIZE - 1);
+
+                    int dropped = mSpill.append(entries);
+                    if (dropped > 0) {
+                        LogMetrics.getInstance().onDropped(dropped);
+                        LogMetrics.getInstance().onRemoved(dropped, ageOf(entries.get(0)));
+                        onSpillRemoved(dropped);
+                    }
+
+                    entries.clear();
+                } catch (InterruptedException e) {
+                    // stopped by the inserter thread, nothing is pending
+                    return;
+                }
+            }
+        }
+    }
+
+    class LogInserterThread extends Thread {
+        LogInserterThread() {
+            // ensure JVM stops this thread at the end of app
+            setDaemon(true);
+        }
 
-                    // set session id if none is set or reset it on reset data
-                    if (!entry.isValid())
-                        setSessionId(-1);
-                    else if (mSessionId == -1)
-                        setSessionId(mDatabase.sessionLogDao().insert(new SessionLog(new Date(), mSessionType)));
+        @Override
+        public void run() {
+            List<LogEntry> batch = new ArrayList<>(MAX_BATCH_SIZE);
 
-                    if (entry.isValid())
-                        mDatabase.nfcCommEntryDao().insert(new NfcCommEntry(entry.getData(), mSessionId));
+            for (boolean done = false; !done; ) {
+                try {
+                    collect(batch);
+
+                    // entries before a reset belong to the old session
+                    int start = 0;
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (!batch.get(i).isValid()) {
+                            write(batch.subList(start, i));
+                            finishJournal();
+                            setSessionId(-1);
+                            start = i + 1;
+                        }
+                    }
+                    write(batch.subList(start, batch.size()));
 
+                    LogMetrics.getInstance().onRemoved(batch.size(), ageOf(batch.get(0)));
+                    done = isDone(batch);
+                    batch.clear();
                 } catch (InterruptedException ignored) { }
             }
+
+            if (mSpill != null) {
+                mSpillThread.interrupt();
+                mSpill.close();
+            }
+        }
+
+        /**
+         * Waits for an entry, then collects more until the batch is full or its delay elapsed
+         */
+        private void collect(List<LogEntry> batch) throws InterruptedException {
+            // spilled entries follow all queued ones, nothing is queued while spilling
+            while (mSpill != null && mQueue.isEmpty() && isSpilling()) {
+                if (readSpilled(batch))
+                    return;
+            }
+
+            batch.add(mQueue.take());
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_DELAY_MS);
+
+            while (batch.size() < MAX_BATCH_SIZE) {
+                mQueue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+
+                long remaining = deadline - System.nanoTime();
+                if (batch.size() >= MAX_BATCH_SIZE || remaining <= 0)
+                    break;
+
+                LogEntry entry = mQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (entry == null)
+                    break;
+
+                batch.add(entry);
+            }
+        }
+
+        /**
+         * Reads spilled entries, waits up to MAX_BATCH_DELAY_MS for the spill thread
+         *
+         * @return false if none were read
+         */
+        private boolean readSpilled(List<LogEntry> batch) throws InterruptedException {
+            int consumed = mSpill.read(batch, MAX_BATCH_SIZE, MAX_BATCH_DELAY_MS);
+            if (consumed > 0)
+                onSpillRemoved(consumed);
+            return !batch.isEmpty();
+        }
+
+        private void write(List<LogEntry> entries) {
+            if (entries.isEmpty())
+                return;
+
+            if (mJournalDirectory != null)
+                writeJournal(entries);
+            else
+                writeDatabase(entries);
+        }
+
+        /**
+         * Appends valid entries to the journal of the session, creates the session if needed
+         */
+        private void writeJournal(List<LogEntry> entries) {
+            try {
+                if (mJournal == null) {
+                    long sessionId = mSessionId;
+                    if (sessionId == -1)
+                        sessionId = mDatabase.sessionLogDao().insert(new SessionLog(new Date(), mSessionType));
+
+                    mJournal = SessionJournal.create(mJournalDirectory, sessionId);
+                    if (sessionId != mSessionId)
+                        setSessionId(sessionId);
+                }
+
+                mJournal.append(entries);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot write journal", e);
+                LogMetrics.getInstance().onDropped(entries.size());
+            }
+        }
+
+        /**
+         * Finishes the journal of the session and moves it into the database
+         */
+        private void finishJournal() {
+            if (mJournal == null)
+                return;
+
+            try {
+                mJournal.finish();
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot finish journal", e);
+            }
+
+            JournalCompactor.compact(mDatabase, mJournal.getFile());
+            mJournal = null;
+        }
+
+        /**
+         * Writes valid entries and creates their session if needed in one transaction
+         */
+        private void writeDatabase(final List<LogEntry> entries) {
+            final long previousId = mSessionId;
+            final long[] sessionId = { previousId };
+
+            mDatabase.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    if (sessionId[0] == -1)
+                        sessionId[0] = mDatabase.sessionLogDao().insert(new SessionLog(new Date(), mSessionType));
+
+                    List<NfcCommEntry> rows = new ArrayList<>(entries.size());
+                    for (LogEntry entry : entries)
+                        rows.add(new NfcCommEntry(entry.getData(), sessionId[0]));
+
+                    List<Long> entryIds = mDatabase.nfcCommEntryDao().insertAll(rows);
+                    SearchIndex.add(mDatabase, entryIds, rows);
+                }
+            });
+
+            // notify only after the session was committed
+            if (sessionId[0] != previousId)
+                setSessionId(sessionId[0]);
         }
     }
 }
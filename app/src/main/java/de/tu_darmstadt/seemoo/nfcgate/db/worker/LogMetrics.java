@@ -0,0 +1,74 @@
+package de.tu_darmstadt.seemoo.nfcgate.db.worker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue state of all LogInserters since app start
+ */
+public class LogMetrics {
+    private static final LogMetrics mInstance = new LogMetrics();
+    public static LogMetrics getInstance() {
+        return mInstance;
+    }
+
+    private final AtomicLong mPending = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mSpilled = new AtomicLong();
+    private final AtomicLong mLag = new AtomicLong();
+    private final AtomicLong mMaxLag = new AtomicLong();
+
+    void onQueued() {
+        mPending.incrementAndGet();
+    }
+
+    void onSpilled() {
+        mPending.incrementAndGet();
+        mSpilled.incrementAndGet();
+    }
+
+    /**
+     * Called for entries that were discarded instead of written
+     */
+    void onDropped(int count) {
+        mDropped.addAndGet(count);
+    }
+
+    /**
+     * Called for pending entries that were written or discarded
+     *
+     * @param lag time in ms the oldest of them waited
+     */
+    void onRemoved(int count, long lag) {
+        mPending.addAndGet(-count);
+        mLag.set(lag);
+
+        long max;
+        while (lag > (max = mMaxLag.get()) && !mMaxLag.compareAndSet(max, lag));
+    }
+
+    /**
+     * Entries waiting to be written, in memory or spilled
+     */
+    public long getPendingCount() {
+        return mPending.get();
+    }
+
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    public long getSpilledCount() {
+        return mSpilled.get();
+    }
+
+    /**
+     * Time in ms the oldest entry of the last written batch waited
+     */
+    public long getLag() {
+        return mLag.get();
+    }
+
+    public long getMaxLag() {
+        return mMaxLag.get();
+    }
+}
@@ -0,0 +1,156 @@
+package de.tu_darmstadt.seemoo.nfcgate.db.worker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
+
+/**
+ * Append-only file holding the log entries of one session until they are moved into the database.
+ *
+ * The file starts with a magic number and the session id, followed by records of a length and
+ * the serialized NfcComm. A finished journal ends with a record of length -1. A journal without
+ * it was not finished, its records up to the first incomplete one are valid.
+ */
+class SessionJournal {
+    private static final int MAGIC = 0x4E474A31;
+    private static final int END = -1;
+    private static final int HEADER_LENGTH = 12;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File mFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private SessionJournal(File file, long sessionId) throws IOException {
+        mFile = file;
+        mChannel = new FileOutputStream(file).getChannel();
+
+        mBuffer.putInt(MAGIC);
+        mBuffer.putLong(sessionId);
+    }
+
+    static SessionJournal create(File directory, long sessionId) throws IOException {
+        return new SessionJournal(new File(directory, "session-" + sessionId + ".journal"), sessionId);
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Appends the valid entries and writes them to the file
+     */
+    void append(List<LogEntry> entries) throws IOException {
+        for (LogEntry entry : entries) {
+            byte[] data = entry.getData().toByteArray();
+
+            if (mBuffer.remaining() < 4 + data.length)
+                flush();
+
+            if (mBuffer.remaining() < 4 + data.length) {
+                // larger than the buffer
+                mBuffer.putInt(data.length);
+                flush();
+                write(ByteBuffer.wrap(data));
+            }
+            else {
+                mBuffer.putInt(data.length);
+                mBuffer.put(data);
+            }
+        }
+
+        flush();
+    }
+
+    /**
+     * Marks the journal as finished and closes it
+     */
+    void finish() throws IOException {
+        try {
+            if (mBuffer.remaining() < 4)
+                flush();
+
+            mBuffer.putInt(END);
+            flush();
+        } finally {
+            mChannel.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        mBuffer.flip();
+        write(mBuffer);
+        mBuffer.clear();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            mChannel.write(buffer);
+    }
+
+    /**
+     * Reads the records of a journal through a memory mapping
+     */
+    static class Reader implements Closeable {
+        private final FileChannel mChannel;
+        private final MappedByteBuffer mBuffer;
+        private final long mSessionId;
+        private boolean mFinished = false;
+
+        Reader(File file) throws IOException {
+            mChannel = new FileInputStream(file).getChannel();
+            mBuffer = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, mChannel.size());
+
+            if (mBuffer.remaining() < HEADER_LENGTH || mBuffer.getInt() != MAGIC) {
+                mChannel.close();
+                throw new IOException("Not a session journal: " + file);
+            }
+
+            mSessionId = mBuffer.getLong();
+        }
+
+        long getSessionId() {
+            return mSessionId;
+        }
+
+        /**
+         * Indicates whether the end of a finished journal was read
+         */
+        boolean isFinished() {
+            return mFinished;
+        }
+
+        /**
+         * Returns the next record or null at the end of the journal or at an incomplete record
+         */
+        NfcComm next() {
+            if (mFinished || mBuffer.remaining() < 4)
+                return null;
+
+            int length = mBuffer.getInt();
+            if (length == END) {
+                mFinished = true;
+                return null;
+            }
+            if (length < 0 || length > mBuffer.remaining())
+                return null;
+
+            byte[] data = new byte[length];
+            mBuffer.get(data);
+            return new NfcComm(data);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mChannel.close();
+        }
+    }
+}
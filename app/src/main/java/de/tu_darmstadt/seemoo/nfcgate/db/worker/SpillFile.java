@@ -0,0 +1,165 @@
+package de.tu_darmstadt.seemoo.nfcgate.db.worker;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Append-only file holding log entries that did not fit into the queue of a LogInserter.
+ * Written by the spill thread and read back in order by the inserter thread, the file is deleted
+ * when all entries were read.
+ *
+ * If the file cannot be written, data entries are dropped until everything was read back. Reset
+ * entries are kept in memory instead, dropping them would merge two sessions.
+ */
+class SpillFile {
+    private static final String TAG = "SpillFile";
+
+    private final File mFile;
+    private DataOutputStream mOut;
+    private DataInputStream mIn;
+    private long mWritten = 0;
+    private long mRead = 0;
+    // reset entries written but not read
+    private int mResets = 0;
+
+    // reset entries following the file after a write failed
+    private boolean mFailed = false;
+    private final Queue<LogEntry> mKept = new ArrayDeque<>();
+
+    SpillFile(File file) {
+        mFile = file;
+    }
+
+    synchronized boolean isEmpty() {
+        return mRead == mWritten && mKept.isEmpty();
+    }
+
+    /**
+     * Appends entries and makes them visible to the reader
+     *
+     * @return number of data entries dropped because the file cannot be written
+     */
+    synchronized int append(List<LogEntry> entries) {
+        int dropped = 0;
+
+        for (LogEntry entry : entries) {
+            if (!mFailed) {
+                try {
+                    if (mOut == null)
+                        mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+
+                    entry.writeTo(mOut);
+                    mWritten++;
+                    if (!entry.isValid())
+                        mResets++;
+                    continue;
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot spill log entries", e);
+                    mFailed = true;
+                }
+            }
+
+            if (entry.isValid())
+                dropped++;
+            else
+                mKept.add(entry);
+        }
+
+        try {
+            if (mOut != null)
+                mOut.flush();
+        } catch (IOException e) {
+            // the reader finds the file truncated
+            Log.e(TAG, "Cannot spill log entries", e);
+            mFailed = true;
+        }
+
+        notifyAll();
+        return dropped;
+    }
+
+    /**
+     * Reads up to max entries into batch, waits up to timeout ms if there are none
+     *
+     * @return number of spilled entries consumed, entries of an unreadable file are consumed and
+     * counted as dropped here instead of being added to the batch
+     */
+    synchronized int read(List<LogEntry> batch, int max, long timeout) throws InterruptedException {
+        if (isEmpty())
+            wait(timeout);
+
+        int count = 0;
+        try {
+            if (mRead < mWritten && mIn == null)
+                mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+
+            for (; count < max && mRead < mWritten; count++, mRead++) {
+                LogEntry entry = LogEntry.readFrom(mIn);
+                if (!entry.isValid())
+                    mResets--;
+                batch.add(entry);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read spilled log entries", e);
+
+            // the rest of the file is unusable, its data entries are lost
+            int unread = (int) (mWritten - mRead);
+            LogMetrics metrics = LogMetrics.getInstance();
+            metrics.onDropped(unread - mResets);
+
+            // still end the session if it contained a reset, one reset added to the batch stands in for all of them
+            if (mResets > 0) {
+                batch.add(new LogEntry());
+                metrics.onRemoved(unread - 1, 0);
+            }
+            else
+                metrics.onRemoved(unread, 0);
+
+            count += unread;
+            mRead = mWritten;
+            mResets = 0;
+        }
+
+        for (; count < max && mRead == mWritten && !mKept.isEmpty(); count++)
+            batch.add(mKept.poll());
+
+        if (isEmpty())
+            clear();
+
+        return count;
+    }
+
+    /**
+     * Closes and deletes the file, entries not read are discarded
+     */
+    synchronized void close() {
+        clear();
+    }
+
+    private void clear() {
+        try {
+            if (mOut != null)
+                mOut.close();
+            if (mIn != null)
+                mIn.close();
+        } catch (IOException ignored) { }
+
+        mOut = null;
+        mIn = null;
+        mWritten = mRead = 0;
+        mResets = 0;
+        mFailed = false;
+        mFile.delete();
+    }
+}
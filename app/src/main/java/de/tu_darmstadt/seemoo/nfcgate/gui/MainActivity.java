@@ -25,7 +25,7 @@ import java.util.List;
 
 import de.tu_darmstadt.seemoo.nfcgate.R;
 import de.tu_darmstadt.seemoo.nfcgate.db.SessionLog;
-import de.tu_darmstadt.seemoo.nfcgate.db.pcapng.ISO14443Stream;
+import de.tu_darmstadt.seemoo.nfcgate.db.pcapng.ISO14443Reader;
 import de.tu_darmstadt.seemoo.nfcgate.db.worker.LogInserter;
 import de.tu_darmstadt.seemoo.nfcgate.gui.fragment.AboutFragment;
 import de.tu_darmstadt.seemoo.nfcgate.gui.fragment.CaptureFragment;
@@ -154,6 +154,12 @@ public class MainActivity extends AppCompatActivity {
         mNfc.onPause();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mNfc.onDestroy();
+    }
+
     /**
      * Returns a Fragment for every navbar action
      */
@@ -207,18 +213,40 @@ public class MainActivity extends AppCompatActivity {
         mDrawerLayout.closeDrawers();
     }
 
-    private void importPcap(Uri uri) {
-        try {
-            LogInserter inserter = new LogInserter(this, SessionLog.SessionType.RELAY, null);
+    private void importPcap(final Uri uri) {
+        final LogInserter inserter = new LogInserter(this, SessionLog.SessionType.RELAY, null);
 
-            for (NfcComm e : new ISO14443Stream().readAll(getContentResolver().openInputStream(uri)))
-                inserter.log(e);
-            Toast.makeText(this, getString(R.string.pcap_success), Toast.LENGTH_SHORT).show();
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-            Toast.makeText(this, getString(R.string.pcap_error), Toast.LENGTH_SHORT).show();
-        }
+        // files may be large, messages are read and queued one at a time
+        new Thread() {
+            @Override
+            public void run() {
+                boolean success = false;
+
+                try (ISO14443Reader reader = new ISO14443Reader(getContentResolver().openInputStream(uri))) {
+                    for (NfcComm comm = reader.next(); comm != null; comm = reader.next())
+                        inserter.put(comm);
+
+                    success = true;
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                // ends the session
+                inserter.close();
+
+                final int message = success ? R.string.pcap_success : R.string.pcap_error;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(MainActivity.this, getString(message), Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        }.start();
     }
 
     public void importCapture(List<Bundle> capture) {
@@ -226,6 +254,7 @@ public class MainActivity extends AppCompatActivity {
 
         for (Bundle b : capture)
             inserter.log(CaptureFragment.fromBundle(b));
+        inserter.close();
 
         Toast.makeText(this, getString(R.string.pcap_log), Toast.LENGTH_SHORT).show();
     }
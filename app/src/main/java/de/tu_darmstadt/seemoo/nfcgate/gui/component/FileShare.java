@@ -3,6 +3,8 @@ package de.tu_darmstadt.seemoo.nfcgate.gui.component;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.core.content.FileProvider;
 import android.widget.Toast;
 
@@ -50,27 +52,75 @@ public class FileShare {
     }
 
     public void share(IFileShareable share) {
+        File file;
+        try {
+            file = write(share);
+        }
+        catch (IOException e) {
+            onError(e);
+            return;
+        }
+
+        startChooser(file);
+    }
+
+    /**
+     * Writes the file on a background thread, then opens the chooser on the UI thread
+     */
+    public void shareInBackground(final IFileShareable share) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final File file = write(share);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            startChooser(file);
+                        }
+                    });
+                }
+                catch (final IOException e) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onError(e);
+                        }
+                    });
+                }
+            }
+        }.start();
+    }
+
+    private File write(IFileShareable share) throws IOException {
         // ensure share directory exists
         File shareDir = new File(mContext.getCacheDir() + "/share/");
         shareDir.mkdir();
 
-        File file;
-        try {
-            // create file with given prefix and extension
-            file = new File(shareDir, mPrefix + mExtension);
+        // create file with given prefix and extension
+        File file = new File(shareDir, mPrefix + mExtension);
 
-            // write to file (overwrites if already exists)
-            OutputStream stream = new FileOutputStream(file);
+        // write to file (overwrites if already exists)
+        OutputStream stream = new FileOutputStream(file);
+        try {
             share.write(stream);
-            stream.close();
         }
-        catch (IOException e) {
-            Toast.makeText(mContext, mContext.getString(R.string.share_error),
-                    Toast.LENGTH_LONG).show();
-            e.printStackTrace();
-            return;
+        finally {
+            stream.close();
         }
 
+        return file;
+    }
+
+    private void onError(IOException e) {
+        Toast.makeText(mContext, mContext.getString(R.string.share_error),
+                Toast.LENGTH_LONG).show();
+        e.printStackTrace();
+    }
+
+    private void startChooser(File file) {
         // generate file provider URI for the sharing app
         Uri uri = FileProvider.getUriForFile(mContext, BuildConfig.APPLICATION_ID, file);
 
@@ -63,6 +63,23 @@ public abstract class BaseNetworkFragment extends BaseFragment implements LogIns
         return v;
     }
 
+    @Override
+    public void onDestroy() {
+        final LogInserter logInserter = mLogInserter;
+        if (logInserter != null) {
+            // the mode logs to this fragment, stop it before the inserter
+            getNfc().stopMode();
+            getNfc().getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    logInserter.close();
+                }
+            });
+        }
+
+        super.onDestroy();
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.toolbar_relay, menu);
@@ -118,6 +135,9 @@ public abstract class BaseNetworkFragment extends BaseFragment implements LogIns
             case CONNECTED:
                 mStatusBanner.set(StatusBanner.State.YELLOW, getString(R.string.network_connected_wait));
                 break;
+            case RECONNECTING:
+                mStatusBanner.set(StatusBanner.State.RED, getString(R.string.network_reconnecting));
+                break;
             case PARTNER_CONNECT:
                 mStatusBanner.set(StatusBanner.State.GREEN, getString(R.string.network_connected));
                 break;
@@ -176,8 +196,16 @@ public abstract class BaseNetworkFragment extends BaseFragment implements LogIns
         getNfc().stopMode();
         mStatusBanner.set(StatusBanner.State.IDLE, getString(R.string.network_idle));
 
-        if (mLogInserter != null)
-            mLogInserter.reset();
+        final LogInserter logInserter = mLogInserter;
+        if (logInserter != null) {
+            // the mode logs on the relay executor, end the session after its last data
+            getNfc().getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    logInserter.reset();
+                }
+            });
+        }
     }
 
     /**
@@ -1,9 +1,9 @@
 package de.tu_darmstadt.seemoo.nfcgate.gui.fragment;
 
-import androidx.lifecycle.Observer;
-import androidx.lifecycle.ViewModelProviders;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.FragmentActivity;
@@ -14,31 +14,33 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import java.util.List;
-
 import de.tu_darmstadt.seemoo.nfcgate.R;
-import de.tu_darmstadt.seemoo.nfcgate.db.NfcCommEntry;
+import de.tu_darmstadt.seemoo.nfcgate.db.AppDatabase;
 import de.tu_darmstadt.seemoo.nfcgate.db.SessionLog;
-import de.tu_darmstadt.seemoo.nfcgate.db.SessionLogJoin;
-import de.tu_darmstadt.seemoo.nfcgate.db.model.SessionLogEntryViewModel;
-import de.tu_darmstadt.seemoo.nfcgate.db.model.SessionLogEntryViewModelFactory;
 import de.tu_darmstadt.seemoo.nfcgate.db.worker.LogInserter;
 import de.tu_darmstadt.seemoo.nfcgate.gui.log.LoggingFragment;
 import de.tu_darmstadt.seemoo.nfcgate.gui.log.SessionLogEntryFragment;
 import de.tu_darmstadt.seemoo.nfcgate.network.NetworkManager;
 import de.tu_darmstadt.seemoo.nfcgate.network.data.NetworkStatus;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.NfcLogReplayer;
+import de.tu_darmstadt.seemoo.nfcgate.nfc.ReplayLog;
+import de.tu_darmstadt.seemoo.nfcgate.nfc.ResponseTable;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.modes.RelayMode;
 import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
 
 public class ReplayFragment extends BaseNetworkFragment implements LoggingFragment.LogItemSelectedCallback, SessionLogEntryFragment.LogSelectedCallback {
+    // entries of other sessions the template mode learns from
+    private static final int MAX_TRAINING_ENTRIES = 10000;
+
     // session selection reference
     LoggingFragment mLoggingFragment = new LoggingFragment();
     SessionLogEntryFragment mDetailFragment = null;
 
     // replay data
-    List<NfcCommEntry> mSessionLog = null;
+    ReplayLog mSessionLog = null;
+    ReplayLog mTrainingLog = null;
     boolean mOfflineReplay = true;
+    boolean mFastPath = false;
     String mReplayMode;
     UIReplayer mReplayer;
 
@@ -79,6 +81,7 @@ public class ReplayFragment extends BaseNetworkFragment implements LoggingFragme
         SharedPreferences prefs = PreferenceManagerFix.getDefaultSharedPreferences(getActivity());
         mOfflineReplay = !prefs.getBoolean("network", false);
         mReplayMode = prefs.getString("mode", "index");
+        mFastPath = prefs.getBoolean("fastpath", false);
         mStatusBanner.setVisibility(!mOfflineReplay);
     }
 
@@ -92,7 +95,7 @@ public class ReplayFragment extends BaseNetworkFragment implements LoggingFragme
     }
 
     @Override
-    public void onLogSelected(long sessionId) {
+    public void onLogSelected(final long sessionId) {
         // set subtitle
         getMainActivity().getSupportActionBar().setSubtitle(getString(R.string.replay_session, sessionId));
 
@@ -100,27 +103,44 @@ public class ReplayFragment extends BaseNetworkFragment implements LoggingFragme
         setSessionChooserVisible(false, -1);
 
         // load session data
-        ViewModelProviders.of(this, new SessionLogEntryViewModelFactory(getActivity().getApplication(), sessionId))
-                .get(SessionLogEntryViewModel.class)
-                .getSession()
-                .observe(this, new Observer<SessionLogJoin>() {
-                    boolean mOnce = true;
+        loadSessionLog(sessionId);
+    }
+
+    /**
+     * Loads and decodes the selected session on the relay executor, replaying only reads the decoded log.
+     * The template mode also learns variable bytes from the other captured sessions.
+     */
+    void loadSessionLog(final long sessionId) {
+        // captured on the UI thread, the fragment may be detached while loading
+        final AppDatabase database = AppDatabase.getDatabase(getActivity().getApplicationContext());
+        final boolean training = "template".equals(mReplayMode);
+        final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+        getNfc().getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final ReplayLog sessionLog = new ReplayLog(database.nfcCommEntryDao().getSession(sessionId));
+                final ReplayLog trainingLog = training
+                        ? new ReplayLog(database.nfcCommEntryDao().getOtherSessions(sessionId, MAX_TRAINING_ENTRIES))
+                        : null;
 
+                uiHandler.post(new Runnable() {
                     @Override
-                    public void onChanged(@Nullable SessionLogJoin sessionLogJoin) {
-                        if (sessionLogJoin != null && mSessionLog == null && mOnce) {
-                            mOnce = false;
-                            mSessionLog = sessionLogJoin.getNfcCommEntries();
-                            getActivity().runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    // show reader/tag selector after session data is loaded
-                                    setSelectorVisible(true);
-                                }
-                            });
-                        }
+                    public void run() {
+                        if (isAdded())
+                            onSessionLoaded(sessionLog, trainingLog);
                     }
                 });
+            }
+        });
+    }
+
+    void onSessionLoaded(ReplayLog sessionLog, ReplayLog trainingLog) {
+        mSessionLog = sessionLog;
+        mTrainingLog = trainingLog;
+
+        // show reader/tag selector after session data is loaded
+        setSelectorVisible(true);
     }
 
     @Override
@@ -132,6 +152,7 @@ public class ReplayFragment extends BaseNetworkFragment implements LoggingFragme
 
         // clear saved session data
         mSessionLog = null;
+        mTrainingLog = null;
 
         // show session selector, hide selector and tag wait indicator
         setSessionSelectionVisible(true);
@@ -198,11 +219,40 @@ public class ReplayFragment extends BaseNetworkFragment implements LoggingFragme
      * Offline replay mode
      */
     class UIReplayMode extends RelayMode {
+        // deterministic responses of offline tag replay, answered without the replayer
+        ResponseTable mResponseTable = null;
+
         UIReplayMode(boolean reader) {
             super(reader);
 
             // prevent network connect in offline mode
             mOnline = !mOfflineReplay;
+
+            if (mFastPath && mOfflineReplay && !reader)
+                mResponseTable = new ResponseTable(mSessionLog);
+        }
+
+        @Override
+        public byte[] onFastPath(byte[] command) {
+            byte[] response = mResponseTable != null ? mResponseTable.get(command) : null;
+
+            if (response != null) {
+                // log to database and UI
+                final NfcComm request = new NfcComm(false, false, command);
+                mLogInserter.log(request);
+                mLogInserter.log(new NfcComm(true, false, response));
+
+                // hide wait indicator, move the replayer past the command before the reader sends the next one
+                runOnUI(new Runnable() {
+                    @Override
+                    public void run() {
+                        setTagWaitVisible(false, false);
+                        mReplayer.skip(request);
+                    }
+                });
+            }
+
+            return response;
         }
 
         void runOnUI(Runnable r) {
@@ -262,7 +312,7 @@ public class ReplayFragment extends BaseNetworkFragment implements LoggingFragme
         NetworkManager mReplayNetwork = null;
 
         UIReplayer(boolean reader) {
-            mReplayer = new NfcLogReplayer(reader, mReplayMode, mSessionLog);
+            mReplayer = new NfcLogReplayer(reader, mReplayMode, mSessionLog, mTrainingLog);
 
             if (!mOfflineReplay) {
                 mReplayNetwork = new NetworkManager(getMainActivity(), this);
@@ -275,6 +325,17 @@ public class ReplayFragment extends BaseNetworkFragment implements LoggingFragme
                 mReplayNetwork.disconnect();
         }
 
+        /**
+         * Keeps the replayer in step with a command answered by the fast path
+         */
+        void skip(NfcComm request) {
+            mReplayer.skip(request);
+
+            // like after a response, the log may continue with our side
+            if (!mReplayer.shouldWait())
+                tickleReplayer();
+        }
+
         @Override
         public void onReceive(NfcComm data) {
             // get response
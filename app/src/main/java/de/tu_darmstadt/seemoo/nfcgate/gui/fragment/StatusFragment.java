@@ -6,6 +6,7 @@ import android.os.Bundle;
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.StringRes;
 import androidx.appcompat.app.AlertDialog;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -25,11 +26,14 @@ import java.io.OutputStream;
 
 import de.tu_darmstadt.seemoo.nfcgate.BuildConfig;
 import de.tu_darmstadt.seemoo.nfcgate.R;
+import de.tu_darmstadt.seemoo.nfcgate.db.worker.LogMetrics;
 import de.tu_darmstadt.seemoo.nfcgate.gui.component.CustomArrayAdapter;
 import de.tu_darmstadt.seemoo.nfcgate.gui.component.FileShare;
 import de.tu_darmstadt.seemoo.nfcgate.gui.component.StatusItem;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.NfcManager;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.chip.NfcChip;
+import de.tu_darmstadt.seemoo.nfcgate.util.LatencyHistogram;
+import de.tu_darmstadt.seemoo.nfcgate.util.RelayStats;
 
 public class StatusFragment extends BaseFragment {
     // ui references
@@ -136,6 +140,14 @@ public class StatusFragment extends BaseFragment {
         mStatusAdapter.add(detectModuleEnabled());
         mStatusAdapter.add(detectNativeHookEnabled());
         mStatusAdapter.add(detectNfcModel());
+        mStatusAdapter.add(detectReconnects());
+        mStatusAdapter.add(detectDowntime());
+        mStatusAdapter.add(detectDroppedMessages());
+        for (RelayStats.Hop hop : RelayStats.Hop.values())
+            mStatusAdapter.add(detectLatency(hop));
+        mStatusAdapter.add(detectPrefetch());
+        mStatusAdapter.add(detectLogQueue());
+        mStatusAdapter.add(detectDroppedLogEntries());
 
         mStatusAdapter.notifyDataSetChanged();
     }
@@ -232,6 +244,93 @@ public class StatusFragment extends BaseFragment {
         return result;
     }
 
+    StatusItem detectReconnects() {
+        // number of re-established connections since app start
+        long reconnects = getNfc().getNetwork().getMetrics().getReconnectCount();
+
+        return new StatusItem(getContext(), getString(R.string.status_reconnects)).setValue(String.valueOf(reconnects));
+    }
+
+    StatusItem detectDowntime() {
+        // accumulated time without server connection during reconnects
+        long downtime = getNfc().getNetwork().getMetrics().getDowntime();
+
+        return new StatusItem(getContext(), getString(R.string.status_downtime))
+                .setValue(getString(R.string.status_downtime_value, downtime));
+    }
+
+    StatusItem detectDroppedMessages() {
+        // messages that were never sent
+        long dropped = getNfc().getNetwork().getMetrics().getDroppedCount();
+        StatusItem result = new StatusItem(getContext(), getString(R.string.status_dropped)).setValue(String.valueOf(dropped));
+
+        if (dropped > 0)
+            result.setWarn(getString(R.string.warn_DROPPED));
+
+        return result;
+    }
+
+    StatusItem detectLatency(RelayStats.Hop hop) {
+        // latency percentiles of one hop of the relay path on this device
+        LatencyHistogram histogram = RelayStats.getInstance().get(hop);
+        long count = histogram.getCount();
+        StatusItem result = new StatusItem(getContext(), getString(byHop(hop)));
+
+        if (count == 0)
+            result.setValue(getString(R.string.status_latency_none));
+        else
+            result.setValue(getString(R.string.status_latency_value,
+                    histogram.getPercentile(0.5) / 1e6, histogram.getPercentile(0.99) / 1e6, count));
+
+        return result;
+    }
+
+    StatusItem detectPrefetch() {
+        // tag commands of the remote reader answered without waiting for the tag
+        long hits = RelayStats.getInstance().getPrefetchHits();
+        long total = hits + RelayStats.getInstance().getPrefetchMisses();
+
+        return new StatusItem(getContext(), getString(R.string.status_prefetch))
+                .setValue(getString(R.string.status_prefetch_value, hits, total));
+    }
+
+    StatusItem detectLogQueue() {
+        // log entries waiting for the database and how long the last written ones waited
+        LogMetrics metrics = LogMetrics.getInstance();
+
+        return new StatusItem(getContext(), getString(R.string.status_log_queue))
+                .setValue(getString(R.string.status_log_queue_value, metrics.getPendingCount(),
+                        metrics.getLag(), metrics.getMaxLag()));
+    }
+
+    StatusItem detectDroppedLogEntries() {
+        // log entries that were never written
+        long dropped = LogMetrics.getInstance().getDroppedCount();
+        StatusItem result = new StatusItem(getContext(), getString(R.string.status_log_dropped)).setValue(String.valueOf(dropped));
+
+        if (dropped > 0)
+            result.setWarn(getString(R.string.warn_LOG_DROPPED));
+
+        return result;
+    }
+
+    @StringRes
+    private static int byHop(RelayStats.Hop hop) {
+        switch (hop) {
+            case HCE_ROUND_TRIP:
+                return R.string.status_latency_hce;
+            case RECEIVE_DISPATCH:
+                return R.string.status_latency_dispatch;
+            case TAG_TRANSCEIVE:
+                return R.string.status_latency_transceive;
+            case TAG_IO:
+                return R.string.status_latency_tag_io;
+            case SEND_QUEUE:
+            default:
+                return R.string.status_latency_send;
+        }
+    }
+
     private class StatusListAdapter extends CustomArrayAdapter<StatusItem> {
         StatusListAdapter(@NonNull Context context, int resource) {
             super(context, resource);
@@ -1,27 +1,21 @@
 package de.tu_darmstadt.seemoo.nfcgate.gui.log;
 
-import androidx.lifecycle.Observer;
-import androidx.lifecycle.ViewModelProviders;
-import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import de.tu_darmstadt.seemoo.nfcgate.db.AppDatabase;
-import de.tu_darmstadt.seemoo.nfcgate.db.NfcCommEntry;
+import de.tu_darmstadt.seemoo.nfcgate.db.LazyNfcCommEntry;
 import de.tu_darmstadt.seemoo.nfcgate.db.SessionLog;
-import de.tu_darmstadt.seemoo.nfcgate.db.SessionLogJoin;
-import de.tu_darmstadt.seemoo.nfcgate.db.model.SessionLogEntryViewModel;
-import de.tu_darmstadt.seemoo.nfcgate.db.model.SessionLogEntryViewModelFactory;
-import de.tu_darmstadt.seemoo.nfcgate.db.pcapng.ISO14443Stream;
+import de.tu_darmstadt.seemoo.nfcgate.db.pcapng.ISO14443Writer;
 import de.tu_darmstadt.seemoo.nfcgate.gui.component.FileShare;
-import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
 
 public class LogAction {
+    private static final int EXPORT_PAGE_SIZE = 256;
+
     private Fragment mFragment;
-    private SessionLogEntryViewModel mLogEntryModel;
-    private List<NfcComm> mLogItems = new ArrayList<>();
 
     public LogAction(Fragment fragment) {
         mFragment = fragment;
@@ -37,33 +31,31 @@ public class LogAction {
     }
 
     public void share(final SessionLog session) {
-        // clear previous items
-        mLogItems.clear();
-
-        // setup db model
-        mLogEntryModel = ViewModelProviders.of(mFragment, new SessionLogEntryViewModelFactory(
-                mFragment.getActivity().getApplication(), session.getId()))
-                .get(SessionLogEntryViewModel.class);
-
-        mLogEntryModel.getSession().observe(mFragment, new Observer<SessionLogJoin>() {
-            @Override
-            public void onChanged(@Nullable SessionLogJoin sessionLogJoin) {
-                if (sessionLogJoin != null && mLogItems.isEmpty()) {
-                    for (NfcCommEntry nfcCommEntry : sessionLogJoin.getNfcCommEntries())
-                        mLogItems.add(nfcCommEntry.getNfcComm());
-
-                    share(session, mLogItems);
-                }
-            }
-        });
-    }
+        final AppDatabase database = AppDatabase.getDatabase(mFragment.getActivity());
 
-    public void share(SessionLog sessionLog, List<NfcComm> logItems) {
-        // share pcap
+        // share pcap, entries are written page by page as they are read
         new FileShare(mFragment.getActivity())
-                .setPrefix(sessionLog.toString())
+                .setPrefix(session.toString())
                 .setExtension(".pcapng")
                 .setMimeType("application/*")
-                .share(new ISO14443Stream().append(logItems));
+                .shareInBackground(new FileShare.IFileShareable() {
+                    @Override
+                    public void write(OutputStream stream) throws IOException {
+                        try (ISO14443Writer writer = new ISO14443Writer(stream)) {
+                            int lastEntryId = 0;
+                            while (true) {
+                                List<LazyNfcCommEntry> page = database.nfcCommEntryDao()
+                                        .getPage(session.getId(), lastEntryId, EXPORT_PAGE_SIZE);
+
+                                for (LazyNfcCommEntry entry : page)
+                                    writer.write(entry.isCard(), entry.isInitial(), entry.getTimestamp(), entry.getData());
+
+                                if (page.size() < EXPORT_PAGE_SIZE)
+                                    break;
+                                lastEntryId = page.get(page.size() - 1).getEntryId();
+                            }
+                        }
+                    }
+                });
     }
 }
@@ -0,0 +1,176 @@
+package de.tu_darmstadt.seemoo.nfcgate.gui.log;
+
+import android.content.Context;
+import android.os.Bundle;
+import androidx.annotation.DrawableRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.ActionBar;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentActivity;
+import android.view.LayoutInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.ImageView;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.Date;
+import java.util.List;
+
+import de.tu_darmstadt.seemoo.nfcgate.R;
+import de.tu_darmstadt.seemoo.nfcgate.db.AppDatabase;
+import de.tu_darmstadt.seemoo.nfcgate.db.SessionLog;
+import de.tu_darmstadt.seemoo.nfcgate.db.search.HexPattern;
+import de.tu_darmstadt.seemoo.nfcgate.db.search.SearchIndex;
+import de.tu_darmstadt.seemoo.nfcgate.db.search.SearchResult;
+import de.tu_darmstadt.seemoo.nfcgate.gui.component.CustomArrayAdapter;
+
+import static de.tu_darmstadt.seemoo.nfcgate.util.Utils.bytesToHexDump;
+
+/**
+ * Messages of all sessions matching a hex pattern, selecting one opens its session at the message
+ */
+public class LogSearchFragment extends Fragment {
+    // results shown at most
+    private static final int MAX_RESULTS = 500;
+
+    // UI references
+    ListView mResults;
+    TextView mEmptyText;
+
+    private SearchResultListAdapter mResultsAdapter;
+    private String mQuery;
+
+    public static LogSearchFragment newInstance(String query) {
+        LogSearchFragment fragment = new LogSearchFragment();
+        fragment.mQuery = query;
+        return fragment;
+    }
+
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
+        View v = inflater.inflate(R.layout.fragment_logging, container, false);
+
+        // setup
+        mResults = v.findViewById(R.id.session_log);
+        mEmptyText = v.findViewById(R.id.txt_empty);
+        mEmptyText.setVisibility(View.GONE);
+
+        // handlers
+        mResults.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                SearchResult result = mResultsAdapter.getItem(position);
+
+                // open the session at the matching message
+                getFragmentManager().beginTransaction()
+                        .replace(R.id.main_content, SessionLogEntryFragment.newInstance(result.getSessionId(),
+                                SessionLogEntryFragment.Type.VIEW, null).setJumpTo(result.getEntryId()), "log_entry")
+                        .addToBackStack(null)
+                        .commit();
+            }
+        });
+
+        // enable back button
+        setHasOptionsMenu(true);
+
+        return v;
+    }
+
+    @Override
+    public void onActivityCreated(@Nullable Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+
+        // view requires a back button
+        ActionBar actionBar = ((AppCompatActivity) getActivity()).getSupportActionBar();
+        actionBar.setDisplayHomeAsUpEnabled(true);
+        actionBar.setDisplayShowHomeEnabled(true);
+        actionBar.setSubtitle(getString(R.string.log_search_title, mQuery));
+
+        mResultsAdapter = new SearchResultListAdapter(getActivity(), R.layout.list_log_entry);
+        mResults.setAdapter(mResultsAdapter);
+
+        search();
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            getActivity().onBackPressed();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void search() {
+        final HexPattern pattern;
+        try {
+            pattern = new HexPattern(mQuery);
+        } catch (IllegalArgumentException e) {
+            showEmpty(getString(R.string.log_search_invalid, mQuery));
+            return;
+        }
+        if (!SearchIndex.isSearchable(pattern)) {
+            showEmpty(getString(R.string.log_search_short, mQuery));
+            return;
+        }
+
+        final AppDatabase database = AppDatabase.getDatabase(getActivity());
+        new Thread() {
+            @Override
+            public void run() {
+                final List<SearchResult> results = SearchIndex.search(database, pattern, MAX_RESULTS);
+
+                FragmentActivity activity = getActivity();
+                if (activity == null)
+                    return;
+
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mResultsAdapter.addAll(results);
+
+                        if (results.isEmpty())
+                            showEmpty(getString(R.string.log_search_none));
+                    }
+                });
+            }
+        }.start();
+    }
+
+    private void showEmpty(String text) {
+        mEmptyText.setText(text);
+        mEmptyText.setVisibility(View.VISIBLE);
+    }
+
+    private class SearchResultListAdapter extends CustomArrayAdapter<SearchResult> {
+        SearchResultListAdapter(@NonNull Context context, int resource) {
+            super(context, resource);
+        }
+
+        @DrawableRes
+        private int byCard(boolean card) {
+            return card ? R.drawable.ic_tag_grey_60dp : R.drawable.ic_reader_grey_60dp;
+        }
+
+        @NonNull
+        @Override
+        public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
+            View v = super.getView(position, convertView, parent);
+            final SearchResult result = getItem(position);
+
+            // set image indicating card or reader
+            v.<ImageView>findViewById(R.id.type).setImageResource(byCard(result.isCard()));
+            // set content to binary content
+            v.<TextView>findViewById(R.id.data).setText(bytesToHexDump(result.getData()));
+            // set timestamp
+            v.<TextView>findViewById(R.id.timestamp).setText(SessionLog.ISO_DATE.format(new Date(result.getTimestamp())));
+
+            return v;
+        }
+    }
+}
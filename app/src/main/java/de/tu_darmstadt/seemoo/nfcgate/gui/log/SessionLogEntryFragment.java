@@ -16,18 +16,18 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
 
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 import de.tu_darmstadt.seemoo.nfcgate.R;
-import de.tu_darmstadt.seemoo.nfcgate.db.NfcCommEntry;
+import de.tu_darmstadt.seemoo.nfcgate.db.LazyNfcCommEntry;
 import de.tu_darmstadt.seemoo.nfcgate.db.SessionLog;
-import de.tu_darmstadt.seemoo.nfcgate.db.SessionLogJoin;
+import de.tu_darmstadt.seemoo.nfcgate.db.SessionSummary;
 import de.tu_darmstadt.seemoo.nfcgate.db.model.SessionLogEntryViewModel;
 import de.tu_darmstadt.seemoo.nfcgate.db.model.SessionLogEntryViewModelFactory;
 import de.tu_darmstadt.seemoo.nfcgate.gui.component.CustomArrayAdapter;
@@ -54,11 +54,13 @@ public class SessionLogEntryFragment extends Fragment {
     private SessionLogEntryListAdapter mLogEntriesAdapter;
     private long mSessionId;
     private Type mType;
+    // entry to scroll to once loaded, 0 if none
+    private int mJumpEntryId = 0;
 
     // current data
     private LogAction mLogAction;
-    private List<NfcComm> mLogData = new ArrayList<>();
     private SessionLog mSessionLog;
+    private SessionSummary mSummary;
 
     // callback
     public interface LogSelectedCallback {
@@ -71,6 +73,14 @@ public class SessionLogEntryFragment extends Fragment {
                 .setup(sessionId, type, cb);
     }
 
+    /**
+     * Scrolls to the entry once its page is loaded
+     */
+    public SessionLogEntryFragment setJumpTo(int entryId) {
+        mJumpEntryId = entryId;
+        return this;
+    }
+
     SessionLogEntryFragment setup(long sessionId, Type type, LogSelectedCallback cb) {
         mSessionId = sessionId;
         mType = type;
@@ -107,34 +117,100 @@ public class SessionLogEntryFragment extends Fragment {
         mLogEntryModel = ViewModelProviders.of(this, new SessionLogEntryViewModelFactory(getActivity().getApplication(), mSessionId))
                 .get(SessionLogEntryViewModel.class);
 
-        mLogEntryModel.getSession().observe(this, new Observer<SessionLogJoin>() {
+        mLogEntryModel.getSessionLog().observe(this, new Observer<SessionLog>() {
+            @Override
+            public void onChanged(@Nullable SessionLog sessionLog) {
+                mSessionLog = sessionLog;
+                updateSubtitle(actionBar);
+            }
+        });
+
+        mLogEntryModel.getSummary().observe(this, new Observer<SessionSummary>() {
+            @Override
+            public void onChanged(@Nullable SessionSummary summary) {
+                mSummary = summary;
+                updateSubtitle(actionBar);
+            }
+        });
+
+        mLogEntryModel.getLastEntryId().observe(this, new Observer<Integer>() {
             @Override
-            public void onChanged(@Nullable SessionLogJoin sessionLogJoin) {
-                mLogEntriesAdapter.clear();
-                mLogData.clear();
-
-                if (sessionLogJoin != null) {
-                    // save current log data
-                    mSessionLog = sessionLogJoin.getSessionLog();
-                    for (NfcCommEntry nfcCommEntry : sessionLogJoin.getNfcCommEntries())
-                        mLogData.add(nfcCommEntry.getNfcComm());
-
-                    // add log data to list adapter
-                    mLogEntriesAdapter.addAll(mLogData);
-                    mLogEntriesAdapter.notifyDataSetChanged();
-
-                    // live requires autoscroll, view and select require subtitle
-                    if (mType == Type.LIVE)
-                        mLogEntries.setSelection(mLogEntriesAdapter.getCount() - 1);
-                    else
-                        actionBar.setSubtitle(mSessionLog.toString());
-                }
+            public void onChanged(@Nullable Integer lastEntryId) {
+                loadVisible();
+            }
+        });
+
+        mLogEntryModel.getEntries().observe(this, new Observer<List<LazyNfcCommEntry>>() {
+            @Override
+            public void onChanged(@Nullable List<LazyNfcCommEntry> entries) {
+                if (entries == null)
+                    return;
+
+                // add entries loaded since the last change
+                boolean atEnd = mLogEntries.getLastVisiblePosition() >= mLogEntriesAdapter.getCount() - 1;
+                mLogEntriesAdapter.addAll(entries.subList(mLogEntriesAdapter.getCount(), entries.size()));
+
+                // live requires autoscroll unless the user scrolled up
+                if (mType == Type.LIVE && atEnd)
+                    mLogEntries.setSelection(mLogEntriesAdapter.getCount() - 1);
+
+                if (mJumpEntryId > 0)
+                    jumpTo(entries);
+
+                loadVisible();
             }
         });
 
         // setup db data and view adapter
         mLogEntriesAdapter = new SessionLogEntryListAdapter(getActivity(), R.layout.list_log_entry);
         mLogEntries.setAdapter(mLogEntriesAdapter);
+        mLogEntries.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) { }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                loadVisible();
+            }
+        });
+    }
+
+    private void updateSubtitle(ActionBar actionBar) {
+        // view and select require subtitle
+        if (mSessionLog == null || mType == Type.LIVE)
+            return;
+
+        if (mSummary == null)
+            actionBar.setSubtitle(mSessionLog.toString());
+        else
+            actionBar.setSubtitle(getString(R.string.log_summary, mSessionLog.toString(), mSummary.getCount(),
+                    (mSummary.getLastTimestamp() - mSummary.getFirstTimestamp()) / 1000.0));
+    }
+
+    /**
+     * Scrolls to the jump entry if it was loaded
+     */
+    private void jumpTo(List<LazyNfcCommEntry> entries) {
+        int last = entries.size() - 1;
+        if (last < 0 || entries.get(last).getEntryId() < mJumpEntryId)
+            return;
+
+        // entries are ordered by id
+        int position = last;
+        while (position > 0 && entries.get(position).getEntryId() > mJumpEntryId)
+            position--;
+
+        mLogEntries.setSelection(position);
+        mJumpEntryId = 0;
+    }
+
+    /**
+     * Loads the next page when the list is scrolled close to the last loaded entry or the jump
+     * entry was not loaded yet
+     */
+    private void loadVisible() {
+        if (mJumpEntryId > 0 || mLogEntries.getLastVisiblePosition() >= mLogEntriesAdapter.getCount() - SessionLogEntryViewModel.PAGE_SIZE / 2)
+            mLogEntryModel.loadMore();
     }
 
     @Override
@@ -158,7 +234,7 @@ public class SessionLogEntryFragment extends Fragment {
                 mCallback.onLogSelected(mSessionId);
                 return true;
             case R.id.action_share:
-                mLogAction.share(mSessionLog, mLogData);
+                mLogAction.share(mSessionLog);
                 return true;
             case R.id.action_delete:
                 mLogAction.delete(mSessionLog);
@@ -168,7 +244,7 @@ public class SessionLogEntryFragment extends Fragment {
         return super.onOptionsItemSelected(item);
     }
 
-    private class SessionLogEntryListAdapter extends CustomArrayAdapter<NfcComm> {
+    private class SessionLogEntryListAdapter extends CustomArrayAdapter<LazyNfcCommEntry> {
         SessionLogEntryListAdapter(@NonNull Context context, int resource) {
             super(context, resource);
         }
@@ -186,7 +262,8 @@ public class SessionLogEntryFragment extends Fragment {
         @Override
         public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
             View v = super.getView(position, convertView, parent);
-            final NfcComm comm = getItem(position);
+            // decoded only while shown
+            final NfcComm comm = getItem(position).getNfcComm();
 
             // set image indicating card or reader
             v.<ImageView>findViewById(R.id.type).setImageResource(byCard(comm.isCard()));
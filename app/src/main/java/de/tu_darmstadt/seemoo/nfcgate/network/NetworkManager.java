@@ -5,17 +5,26 @@ import androidx.preference.PreferenceManagerFix;
 import android.util.Log;
 
 import com.google.protobuf.ByteString;
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.CodedInputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import de.tu_darmstadt.seemoo.nfcgate.gui.MainActivity;
 import de.tu_darmstadt.seemoo.nfcgate.network.c2s.C2S;
+import de.tu_darmstadt.seemoo.nfcgate.network.data.ConnectionMetrics;
 import de.tu_darmstadt.seemoo.nfcgate.network.data.NetworkStatus;
+import de.tu_darmstadt.seemoo.nfcgate.network.transport.DatagramTransport;
+import de.tu_darmstadt.seemoo.nfcgate.network.transport.SelectorTransport;
+import de.tu_darmstadt.seemoo.nfcgate.network.transport.ThreadedTransport;
+import de.tu_darmstadt.seemoo.nfcgate.network.transport.Transport;
 import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
 
 import static de.tu_darmstadt.seemoo.nfcgate.network.c2s.C2S.ServerData.Opcode;
 
 public class NetworkManager implements ServerConnection.Callback {
     private static final String TAG = "NetworkManager";
+    private static final long FLUSH_TIMEOUT = 1000;
 
     public interface Callback {
         void onReceive(NfcComm data);
@@ -28,8 +37,9 @@ public class NetworkManager implements ServerConnection.Callback {
     private Callback mCallback;
 
     // preference data
-    private String mHostname;
-    private int mPort, mSessionNumber;
+    private String mHostname, mTransport;
+    private int mPort, mSessionNumber, mBatchRecords, mBatchBytes, mMaxMessageSize;
+    private boolean mReconnect;
 
     public NetworkManager(MainActivity activity, Callback cb) {
         mActivity = activity;
@@ -47,31 +57,48 @@ public class NetworkManager implements ServerConnection.Callback {
         // establish connection
         mConnection = new ServerConnection(mHostname, mPort)
                 .setCallback(this)
+                .setTransport(createTransport())
+                .setBatchLimits(mBatchRecords, mBatchBytes)
+                .setMaxFrameLength(mMaxMessageSize * 1024)
+                .setReconnectPolicy(createReconnectPolicy())
                 .connect();
 
+        // a reconnect has to join the session again before any other message
+        mConnection.setHandshake(mSessionNumber, buildMessage(Opcode.OP_SYN, null));
+
         // queue initial handshake message
         sendServer(Opcode.OP_SYN, null);
     }
 
     public void disconnect() {
-        if (mConnection != null) {
+        ServerConnection connection = mConnection;
+        if (connection != null) {
+            // wait until FIN was actually written, but not forever on a stalled connection
             sendServer(Opcode.OP_FIN, null);
-            mConnection.sync();
-            mConnection.disconnect();
+            connection.flush(mSessionNumber, FLUSH_TIMEOUT);
+            closeConnection();
         }
     }
 
+    /**
+     * Reconnects, downtime and dropped messages of all connections
+     */
+    public ConnectionMetrics getMetrics() {
+        return ConnectionMetrics.getInstance();
+    }
+
     public void send(NfcComm data) {
         // queue data message
         sendServer(Opcode.OP_PSH, data.toByteArray());
     }
 
     @Override
-    public void onReceive(byte[] data) {
+    public void onReceive(ByteBuffer data) {
         C2S.ServerData serverData = null;
         try {
-            serverData = C2S.ServerData.parseFrom(data);
-        } catch (InvalidProtocolBufferException e) {
+            // parse directly from the receive buffer without an intermediate array
+            serverData = C2S.ServerData.parseFrom(CodedInputStream.newInstance(data));
+        } catch (IOException e) {
             Log.e(TAG, "Message parsing failed", e);
             return;
         }
@@ -93,12 +120,14 @@ public class NetworkManager implements ServerConnection.Callback {
             case OP_FIN:
                 // our peer has disconnected
                 onNetworkStatus(NetworkStatus.PARTNER_LEFT);
-                mConnection.disconnect();
+                closeConnection();
 
                 break;
             case OP_PSH:
-                // pass data to callback
-                mCallback.onReceive(new NfcComm(serverData.getData().toByteArray()));
+                // pass data to callback, the dispatch latency is measured from here
+                NfcComm nfcData = new NfcComm(serverData.getData());
+                nfcData.setReceivedAt(System.nanoTime());
+                mCallback.onReceive(nfcData);
 
                 break;
         }
@@ -115,14 +144,55 @@ public class NetworkManager implements ServerConnection.Callback {
         mHostname = prefs.getString("host", null);
         mPort = Integer.parseInt(prefs.getString("port", "0"));
         mSessionNumber = Integer.parseInt(prefs.getString("session", "0"));
+        mTransport = prefs.getString("transport", "thread");
+        mBatchRecords = Integer.parseInt(prefs.getString("batch_records", "64"));
+        mBatchBytes = Integer.parseInt(prefs.getString("batch_bytes", "16384"));
+        mMaxMessageSize = Integer.parseInt(prefs.getString("max_message", "1024"));
+        mReconnect = prefs.getBoolean("reconnect", false);
+    }
+
+    private ReconnectPolicy createReconnectPolicy() {
+        return mReconnect ? ReconnectPolicy.createDefault() : null;
+    }
+
+    private void closeConnection() {
+        // peer FIN and local disconnect may race
+        ServerConnection connection = mConnection;
+        if (connection == null)
+            return;
+
+        mConnection = null;
+        connection.setHandshake(mSessionNumber, null);
+        connection.disconnect();
+    }
+
+    private Transport createTransport() {
+        switch (mTransport) {
+            case "selector":
+                return new SelectorTransport();
+
+            case "datagram":
+                return new DatagramTransport();
+
+            case "thread":
+            default:
+                return new ThreadedTransport();
+        }
     }
 
     private void sendServer(Opcode opcode, byte[] data) {
-        mConnection.send(mSessionNumber,
-                C2S.ServerData.newBuilder()
-                    .setOpcode(opcode)
-                    .setData(data == null ? ByteString.EMPTY : ByteString.copyFrom(data))
-                    .build()
-                    .toByteArray());
+        ServerConnection connection = mConnection;
+        if (connection == null)
+            return;
+
+        connection.send(mSessionNumber, buildMessage(opcode, data));
+    }
+
+    private static byte[] buildMessage(Opcode opcode, byte[] data) {
+        return C2S.ServerData.newBuilder()
+                .setOpcode(opcode)
+                .setData(data == null ? ByteString.EMPTY : ByteString.copyFrom(data))
+                .build()
+                .toByteArray();
     }
 }
@@ -0,0 +1,47 @@
+package de.tu_darmstadt.seemoo.nfcgate.network;
+
+import java.util.Random;
+
+/**
+ * Decides how often and after which delay a lost connection is re-established.
+ * Delays grow exponentially and are jittered, so peers losing the connection at the same time
+ * do not reconnect in lockstep.
+ */
+public class ReconnectPolicy {
+    private static final long DEFAULT_BASE_DELAY = 250;
+    private static final long DEFAULT_MAX_DELAY = 10000;
+    private static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final int mMaxAttempts;
+    private final Random mRandom = new Random();
+
+    /**
+     * @param baseDelay delay in ms before the first attempt
+     * @param maxDelay upper bound of the delay in ms
+     * @param maxAttempts number of failed attempts after which the connection is given up
+     */
+    public ReconnectPolicy(long baseDelay, long maxDelay, int maxAttempts) {
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+        mMaxAttempts = maxAttempts;
+    }
+
+    public static ReconnectPolicy createDefault() {
+        return new ReconnectPolicy(DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * Delay in ms before the given attempt, starting at 0.
+     * Chosen randomly from the upper half of the exponential delay.
+     */
+    public long getDelay(int attempt) {
+        long delay = Math.min(mMaxDelay, mBaseDelay << Math.min(attempt, 16));
+        return delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+    }
+}
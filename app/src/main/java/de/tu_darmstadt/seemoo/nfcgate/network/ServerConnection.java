@@ -5,20 +5,56 @@ import android.util.Log;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import de.tu_darmstadt.seemoo.nfcgate.network.data.ConnectionMetrics;
+import de.tu_darmstadt.seemoo.nfcgate.network.data.FlushBarrier;
 import de.tu_darmstadt.seemoo.nfcgate.network.data.NetworkStatus;
 import de.tu_darmstadt.seemoo.nfcgate.network.data.SendRecord;
-import de.tu_darmstadt.seemoo.nfcgate.network.threading.ReceiveThread;
-import de.tu_darmstadt.seemoo.nfcgate.network.threading.SendThread;
+import de.tu_darmstadt.seemoo.nfcgate.network.frame.FrameDecoder;
+import de.tu_darmstadt.seemoo.nfcgate.network.transport.ThreadedTransport;
+import de.tu_darmstadt.seemoo.nfcgate.network.transport.Transport;
 
 public class ServerConnection {
     private static final String TAG = "ServerConnection";
+    private static final int DEFAULT_BATCH_MAX_RECORDS = 64;
+    private static final int DEFAULT_BATCH_MAX_BYTES = 16 * 1024;
+
+    // waits for reconnect delays of all connections
+    private static final ScheduledExecutorService mReconnectExecutor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Reconnect");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
 
     public interface Callback {
-        void onReceive(byte[] data);
+        /**
+         * Delivers the payload of one frame. The buffer is reused, it is only valid during this call
+         */
+        void onReceive(ByteBuffer data);
         void onNetworkStatus(NetworkStatus status);
     }
 
@@ -26,10 +62,32 @@ public class ServerConnection {
     private Socket mSocket;
     private final Object mSocketLock = new Object();
 
-    // threading
-    private SendThread mSendThread;
-    private ReceiveThread mReceiveThread;
+    // I/O
+    private Transport mTransport = new ThreadedTransport();
     private BlockingQueue<SendRecord> mSendQueue = new LinkedBlockingQueue<>();
+    private int mBatchMaxRecords = DEFAULT_BATCH_MAX_RECORDS;
+    private int mBatchMaxBytes = DEFAULT_BATCH_MAX_BYTES;
+    private int mMaxFrameLength = FrameDecoder.DEFAULT_MAX_FRAME_LENGTH;
+    private volatile FrameDecoder mFrameDecoder;
+
+    // reconnect
+    private ReconnectPolicy mReconnectPolicy;
+    private final Object mReconnectLock = new Object();
+    private ScheduledFuture<?> mReconnectTask;
+    private boolean mClosing = false, mReconnectScheduled = false, mWasConnected = false;
+    private int mAttempt = 0;
+    private long mDownSince;
+    // records taken from the sendQueue but not written by a failed transport
+    private final Queue<SendRecord> mUnsent = new ArrayDeque<>();
+    // handshake per session, sent first after every reconnect
+    private final Map<Integer, byte[]> mHandshakes = new LinkedHashMap<>();
+    private boolean mReplayHandshakes = false;
+    private final Runnable mReconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            reconnect();
+        }
+    };
 
     // metadata
     private Callback mCallback;
@@ -46,15 +104,70 @@ public class ServerConnection {
         return this;
     }
 
+    /**
+     * Replaces the default transport using one send and one receive thread
+     */
+    ServerConnection setTransport(Transport transport) {
+        mTransport = transport;
+        return this;
+    }
+
+    /**
+     * Replaces the default unbounded send queue, e.g. with a {@link de.tu_darmstadt.seemoo.nfcgate.network.data.FairSendQueue}
+     */
+    ServerConnection setSendQueue(BlockingQueue<SendRecord> sendQueue) {
+        mSendQueue = sendQueue;
+        return this;
+    }
+
+    /**
+     * Limits how many pending records are coalesced into a single write.
+     * A single record is always sent immediately, regardless of these limits.
+     */
+    ServerConnection setBatchLimits(int maxRecords, int maxBytes) {
+        mBatchMaxRecords = Math.max(1, maxRecords);
+        mBatchMaxBytes = Math.max(1, maxBytes);
+        return this;
+    }
+
+    /**
+     * Limits the length of received frames, a larger length prefix is treated as an error
+     */
+    ServerConnection setMaxFrameLength(int maxFrameLength) {
+        mMaxFrameLength = maxFrameLength;
+        return this;
+    }
+
+    /**
+     * Re-establishes a lost connection according to the policy instead of reporting an error.
+     * Records not written by the failed transport are sent first on the new connection.
+     * Records written before the connection failed are not sent again, they are lost if the server
+     * did not receive them anymore.
+     */
+    ServerConnection setReconnectPolicy(ReconnectPolicy policy) {
+        mReconnectPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets the handshake message of a session that is replayed after every reconnect,
+     * null removes it
+     */
+    void setHandshake(int session, byte[] data) {
+        synchronized (mUnsent) {
+            if (data != null)
+                mHandshakes.put(session, data);
+            else
+                mHandshakes.remove(session);
+        }
+    }
+
     /**
      * Connects to the socket, enables async I/O
      */
     ServerConnection connect() {
-        // I/O threads
-        mSendThread = new SendThread(this);
-        mReceiveThread = new ReceiveThread(this);
-        mSendThread.start();
-        mReceiveThread.start();
+        mFrameDecoder = new FrameDecoder(mMaxFrameLength);
+        mTransport.open(this);
         return this;
     }
 
@@ -62,22 +175,45 @@ public class ServerConnection {
      * Closes the connection and releases all resources
      */
     void disconnect() {
-        if (mSendThread != null)
-            mSendThread.interrupt();
+        synchronized (mReconnectLock) {
+            mClosing = true;
+            if (mReconnectTask != null)
+                mReconnectTask.cancel(false);
+        }
 
-        if (mReceiveThread != null)
-            mReceiveThread.interrupt();
+        mTransport.close();
     }
 
     /**
-     * Wait some time to allow sendQueue to be processed
+     * Queues a barrier that completes once every record of this session queued before it was written
      */
-    void sync() {
-        if (mSendQueue.peek() != null) {
-            try {
-                Thread.sleep(20);
-            } catch (InterruptedException ignored) { }
+    Future<Void> flush(int session) {
+        FlushBarrier barrier = new FlushBarrier(session);
+
+        if (mSendQueue.offer(barrier))
+            mTransport.onSendQueued();
+        else
+            barrier.cancel();
+
+        return barrier.getFuture();
+    }
+
+    /**
+     * Waits until every record of this session queued so far was written or the timeout expires
+     *
+     * @return true if everything was written in time
+     */
+    boolean flush(int session, long timeout) {
+        try {
+            flush(session).get(timeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | CancellationException | TimeoutException e) {
+            Log.w(TAG, "Flush did not complete", e);
         }
+
+        return false;
     }
 
     /**
@@ -85,17 +221,23 @@ public class ServerConnection {
      */
     public void send(int session, byte[] data) {
         Log.v(TAG, "Enqueuing message of " + data.length + " bytes");
-        mSendQueue.add(new SendRecord(session, data));
+        if (!mSendQueue.offer(new SendRecord(session, data))) {
+            Log.w(TAG, "Send queue of session " + session + " is full, dropping message");
+            ConnectionMetrics.getInstance().onDropped(1);
+            return;
+        }
+        mTransport.onSendQueued();
     }
 
     /**
-     * Called by threads to open socket
+     * Called by threads of the ThreadedTransport to open socket
      */
     public Socket openSocket() {
         synchronized (mSocketLock) {
             if (mSocket == null) {
                 try {
-                    mSocket = new Socket();
+                    // channel-backed socket allows SendThread to write frames without stream copies
+                    mSocket = SocketChannel.open().socket();
                     mSocket.connect(new InetSocketAddress(mHostname, mPort), 10000);
                     mSocket.setTcpNoDelay(true);
 
@@ -111,40 +253,211 @@ public class ServerConnection {
     }
 
     /**
-     * Called by threads to close socket
+     * Called by threads of the ThreadedTransport to close their socket.
+     * Has no effect if the socket was already replaced by a reconnect.
      */
-    public void closeSocket() {
+    public void closeSocket(Socket socket) {
         synchronized (mSocketLock) {
-            if (mSocket != null) {
+            if (mSocket != null && mSocket == socket) {
                 try {
                     mSocket.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
+
+                mSocket = null;
             }
+        }
+    }
+
+    /**
+     * Transport hands back records it has taken from the sendQueue but not written,
+     * in the order they were taken
+     */
+    public void returnUnsent(Collection<SendRecord> records) {
+        synchronized (mUnsent) {
+            mUnsent.addAll(records);
+        }
+    }
 
-            mSocket = null;
+    /**
+     * Transport requests the handshakes to be sent again with the next drainUnsent()
+     */
+    public void replayHandshakes() {
+        synchronized (mUnsent) {
+            mReplayHandshakes = true;
         }
     }
 
     /**
-     * ReceiveThread delivers data
+     * Transport takes the records that have to be sent before the sendQueue after connecting
      */
-    public void onReceive(byte[] data) {
+    public void drainUnsent(Queue<SendRecord> target) {
+        synchronized (mUnsent) {
+            if (mReplayHandshakes) {
+                for (Map.Entry<Integer, byte[]> handshake : mHandshakes.entrySet())
+                    target.add(new SendRecord(handshake.getKey(), handshake.getValue()));
+                mReplayHandshakes = false;
+            }
+
+            target.addAll(mUnsent);
+            mUnsent.clear();
+        }
+    }
+
+    public String getHostname() {
+        return mHostname;
+    }
+
+    public int getPort() {
+        return mPort;
+    }
+
+    /**
+     * Transport delivers data
+     */
+    public void onReceive(ByteBuffer data) {
         mCallback.onReceive(data);
     }
 
     /**
-     * SendThread accesses sendQueue
+     * Transport decodes frames, also provides receive statistics
+     */
+    public FrameDecoder getFrameDecoder() {
+        return mFrameDecoder;
+    }
+
+    /**
+     * Transport accesses sendQueue
      */
     public BlockingQueue<SendRecord> getSendQueue() {
         return mSendQueue;
     }
 
     /**
-     * Reports a status to the callback if set
+     * Transport reads batch limits
+     */
+    public int getBatchMaxRecords() {
+        return mBatchMaxRecords;
+    }
+
+    public int getBatchMaxBytes() {
+        return mBatchMaxBytes;
+    }
+
+    /**
+     * Reports a status to the callback if set.
+     * With a reconnect policy, errors schedule a reconnect and are reported as RECONNECTING.
      */
     public void reportStatus(NetworkStatus status) {
+        if (status == NetworkStatus.ERROR && (isClosing() || scheduleReconnect()))
+            return;
+        if (status == NetworkStatus.CONNECTED)
+            onConnected();
+
         mCallback.onNetworkStatus(status);
     }
+
+    /**
+     * Errors of a transport stopped by disconnect() are expected
+     */
+    private boolean isClosing() {
+        synchronized (mReconnectLock) {
+            return mClosing;
+        }
+    }
+
+    private void onConnected() {
+        synchronized (mReconnectLock) {
+            if (mAttempt > 0 && mWasConnected)
+                ConnectionMetrics.getInstance().onReconnected(
+                        (System.nanoTime() - mDownSince) / 1000000);
+
+            mAttempt = 0;
+            mWasConnected = true;
+        }
+    }
+
+    /**
+     * Closes the failed transport and schedules the next connection attempt
+     *
+     * @return false if the connection is given up and the error has to be reported
+     */
+    private boolean scheduleReconnect() {
+        long delay;
+        synchronized (mReconnectLock) {
+            if (mReconnectPolicy == null)
+                return false;
+            // further errors of the failed transport belong to the same outage
+            if (mReconnectScheduled)
+                return true;
+
+            if (mAttempt >= mReconnectPolicy.getMaxAttempts()) {
+                Log.e(TAG, "Giving up after " + mAttempt + " reconnect attempts");
+                discardUnsent();
+                return false;
+            }
+
+            if (mAttempt == 0)
+                mDownSince = System.nanoTime();
+
+            delay = mReconnectPolicy.getDelay(mAttempt++);
+            mReconnectScheduled = true;
+        }
+
+        // closed before the next open() is scheduled, a transport may be reopened after close()
+        mTransport.close();
+
+        synchronized (mReconnectLock) {
+            if (!mClosing)
+                mReconnectTask = mReconnectExecutor.schedule(mReconnectRunnable, delay, TimeUnit.MILLISECONDS);
+        }
+
+        Log.w(TAG, "Connection lost, reconnecting in " + delay + " ms");
+        mCallback.onNetworkStatus(NetworkStatus.RECONNECTING);
+        return true;
+    }
+
+    private void reconnect() {
+        // records of the failed transport go before records the new one takes from the sendQueue.
+        // Not under the lock, the stopping transport may still report its error.
+        mTransport.awaitClosed();
+
+        synchronized (mReconnectLock) {
+            if (mClosing)
+                return;
+
+            mReconnectScheduled = false;
+            synchronized (mUnsent) {
+                mReplayHandshakes = mWasConnected;
+            }
+
+            // the new transport must not continue on the socket or a partial frame of the lost connection
+            synchronized (mSocketLock) {
+                closeSocket(mSocket);
+            }
+            mFrameDecoder = new FrameDecoder(mMaxFrameLength);
+            mTransport.open(this);
+        }
+    }
+
+    private void discardUnsent() {
+        List<SendRecord> records = new ArrayList<>();
+        synchronized (mUnsent) {
+            records.addAll(mUnsent);
+            mUnsent.clear();
+        }
+        mSendQueue.drainTo(records);
+
+        int dropped = 0;
+        for (SendRecord record : records) {
+            // waiters of a barrier must not wait for the timeout
+            if (record.isBarrier())
+                ((FlushBarrier) record).cancel();
+            else
+                dropped++;
+        }
+
+        ConnectionMetrics.getInstance().onDropped(dropped);
+    }
 }
@@ -0,0 +1,146 @@
+package de.tu_darmstadt.seemoo.nfcgate.network;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.tu_darmstadt.seemoo.nfcgate.network.data.FairSendQueue;
+import de.tu_darmstadt.seemoo.nfcgate.network.data.NetworkStatus;
+import de.tu_darmstadt.seemoo.nfcgate.network.transport.Transport;
+
+/**
+ * Carries several logical sessions over one shared ServerConnection per server.
+ * Each session has its own callback and its own bounded send queue, records are sent round-robin
+ * across sessions. Received frames must be prefixed with the session number by the server,
+ * see the --tag-sessions option of the relay server.
+ *
+ * The app itself relays a single session and uses a plain ServerConnection. This is meant for
+ * hosts driving many card/reader pairs at once: get() the multiplexer of the server, attach() each
+ * pair's session with its callback and send() through the returned connection with the session
+ * number. The callback receives the payload after the session number. detach() each session when
+ * its pair is done, the shared connection is closed with the last one.
+ */
+public class SessionMultiplexer implements ServerConnection.Callback {
+    private static final String TAG = "SessionMultiplexer";
+    private static final int DEFAULT_SESSION_CAPACITY = 256;
+
+    // one multiplexer per server
+    private static final Map<String, SessionMultiplexer> mInstances = new HashMap<>();
+
+    // connection objects
+    private final String mKey;
+    private final ServerConnection mConnection;
+    private boolean mConnected = false;
+
+    // sessions
+    private final Map<Integer, ServerConnection.Callback> mSessions = new HashMap<>();
+    private NetworkStatus mLastStatus;
+
+    private SessionMultiplexer(String key, String hostname, int port, Transport transport, ReconnectPolicy policy) {
+        mKey = key;
+        mConnection = new ServerConnection(hostname, port)
+                .setCallback(this)
+                .setTransport(transport)
+                .setReconnectPolicy(policy)
+                .setSendQueue(new FairSendQueue(DEFAULT_SESSION_CAPACITY));
+    }
+
+    /**
+     * Returns the multiplexer of this server, creates one using the given transport and
+     * reconnect policy (may be null) if none exists
+     */
+    public static SessionMultiplexer get(String hostname, int port, Transport transport, ReconnectPolicy policy) {
+        synchronized (mInstances) {
+            String key = hostname + ":" + port;
+            SessionMultiplexer instance = mInstances.get(key);
+
+            if (instance == null) {
+                instance = new SessionMultiplexer(key, hostname, port, transport, policy);
+                mInstances.put(key, instance);
+            }
+
+            return instance;
+        }
+    }
+
+    /**
+     * Attaches a session, connects the shared connection if this is the first session.
+     * Returns null if the session number is already in use.
+     */
+    public synchronized ServerConnection attach(int session, ServerConnection.Callback cb) {
+        if (mSessions.containsKey(session))
+            return null;
+
+        mSessions.put(session, cb);
+        if (!mConnected) {
+            mConnected = true;
+            mLastStatus = null;
+            mConnection.connect();
+        }
+        else if (mLastStatus != null)
+            // late session missed the connection status
+            cb.onNetworkStatus(mLastStatus);
+
+        return mConnection;
+    }
+
+    /**
+     * Detaches a session, disconnects the shared connection if this was the last session
+     */
+    public void detach(int session) {
+        synchronized (mInstances) {
+            synchronized (this) {
+                if (mSessions.remove(session) == null || !mSessions.isEmpty())
+                    return;
+
+                mConnected = false;
+                mInstances.remove(mKey);
+            }
+        }
+
+        mConnection.disconnect();
+    }
+
+    /**
+     * Waits until every record of this session queued so far was written or the timeout expires
+     *
+     * @return true if everything was written in time
+     */
+    public boolean flush(int session, long timeout) {
+        return mConnection.flush(session, timeout);
+    }
+
+    @Override
+    public void onReceive(ByteBuffer data) {
+        if (!data.hasRemaining()) {
+            Log.w(TAG, "Dropping frame without session number");
+            return;
+        }
+
+        int session = data.get() & 0xFF;
+        ServerConnection.Callback cb;
+        synchronized (this) {
+            cb = mSessions.get(session);
+        }
+
+        if (cb != null)
+            cb.onReceive(data);
+        else
+            Log.w(TAG, "Dropping frame for unknown session " + session);
+    }
+
+    @Override
+    public void onNetworkStatus(NetworkStatus status) {
+        ServerConnection.Callback[] sessions;
+        synchronized (this) {
+            mLastStatus = status;
+            sessions = mSessions.values().toArray(new ServerConnection.Callback[0]);
+        }
+
+        // connection status applies to all sessions
+        for (ServerConnection.Callback cb : sessions)
+            cb.onNetworkStatus(status);
+    }
+}
@@ -0,0 +1,49 @@
+package de.tu_darmstadt.seemoo.nfcgate.network.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts connection losses of all server connections since app start
+ */
+public class ConnectionMetrics {
+    private static final ConnectionMetrics mInstance = new ConnectionMetrics();
+    public static ConnectionMetrics getInstance() {
+        return mInstance;
+    }
+
+    private final AtomicLong mReconnects = new AtomicLong();
+    private final AtomicLong mDowntime = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    /**
+     * Called after a lost connection was re-established
+     *
+     * @param downtime time in ms the connection was unavailable
+     */
+    public void onReconnected(long downtime) {
+        mReconnects.incrementAndGet();
+        mDowntime.addAndGet(downtime);
+    }
+
+    /**
+     * Called if messages could not be sent and were discarded
+     */
+    public void onDropped(int count) {
+        mDropped.addAndGet(count);
+    }
+
+    public long getReconnectCount() {
+        return mReconnects.get();
+    }
+
+    /**
+     * Accumulated downtime in ms of all re-established connections
+     */
+    public long getDowntime() {
+        return mDowntime.get();
+    }
+
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+}
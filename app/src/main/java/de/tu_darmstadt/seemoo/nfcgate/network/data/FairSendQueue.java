@@ -0,0 +1,223 @@
+package de.tu_darmstadt.seemoo.nfcgate.network.data;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Send queue with a bounded FIFO queue per session number.
+ * Records are dequeued round-robin across all sessions with pending records,
+ * so a session sending many records cannot starve the other sessions.
+ */
+public class FairSendQueue extends AbstractQueue<SendRecord> implements BlockingQueue<SendRecord> {
+    // the session number is transmitted as a single byte
+    private static final int SESSIONS = 256;
+
+    private final int mSessionCapacity;
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final Condition mNotFull = mLock.newCondition();
+
+    // per-session queues, created on first use
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<SendRecord>[] mQueues = new ArrayDeque[SESSIONS];
+
+    // ring of sessions with pending records in round-robin order
+    private final int[] mRing = new int[SESSIONS];
+    private final boolean[] mInRing = new boolean[SESSIONS];
+    private int mRingHead = 0, mRingSize = 0;
+    private int mCount = 0;
+
+    public FairSendQueue(int sessionCapacity) {
+        mSessionCapacity = sessionCapacity;
+    }
+
+    @Override
+    public boolean offer(SendRecord record) {
+        mLock.lock();
+        try {
+            return enqueueLocked(record);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(SendRecord record, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        mLock.lockInterruptibly();
+        try {
+            while (!enqueueLocked(record)) {
+                if (nanos <= 0)
+                    return false;
+                nanos = mNotFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void put(SendRecord record) throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (!enqueueLocked(record))
+                mNotFull.await();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public SendRecord poll() {
+        mLock.lock();
+        try {
+            return mCount == 0 ? null : dequeueLocked();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public SendRecord poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        mLock.lockInterruptibly();
+        try {
+            while (mCount == 0) {
+                if (nanos <= 0)
+                    return null;
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+            return dequeueLocked();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public SendRecord take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mCount == 0)
+                mNotEmpty.await();
+            return dequeueLocked();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public SendRecord peek() {
+        mLock.lock();
+        try {
+            return mCount == 0 ? null : mQueues[mRing[mRingHead]].peek();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        mLock.lock();
+        try {
+            return mCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Capacity is bounded per session, a single value cannot describe it
+     */
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super SendRecord> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super SendRecord> c, int maxElements) {
+        mLock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && mCount > 0) {
+                c.add(dequeueLocked());
+                n++;
+            }
+            return n;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of all pending records grouped by session
+     */
+    @Override
+    public Iterator<SendRecord> iterator() {
+        List<SendRecord> snapshot = new ArrayList<>();
+
+        mLock.lock();
+        try {
+            for (int i = 0; i < mRingSize; i++)
+                snapshot.addAll(mQueues[mRing[(mRingHead + i) % SESSIONS]]);
+        } finally {
+            mLock.unlock();
+        }
+
+        return snapshot.iterator();
+    }
+
+    private boolean enqueueLocked(SendRecord record) {
+        int session = record.getSession() & 0xFF;
+
+        if (mQueues[session] == null)
+            mQueues[session] = new ArrayDeque<>();
+        if (mQueues[session].size() >= mSessionCapacity)
+            return false;
+
+        mQueues[session].add(record);
+        if (!mInRing[session])
+            pushRing(session);
+
+        mCount++;
+        mNotEmpty.signal();
+        return true;
+    }
+
+    private SendRecord dequeueLocked() {
+        // take the next record of the session at the head, then move that session to the tail
+        int session = mRing[mRingHead];
+        mRingHead = (mRingHead + 1) % SESSIONS;
+        mRingSize--;
+        mInRing[session] = false;
+
+        SendRecord record = mQueues[session].poll();
+        if (!mQueues[session].isEmpty())
+            pushRing(session);
+
+        mCount--;
+        mNotFull.signalAll();
+        return record;
+    }
+
+    private void pushRing(int session) {
+        mRing[(mRingHead + mRingSize) % SESSIONS] = session;
+        mRingSize++;
+        mInRing[session] = true;
+    }
+}
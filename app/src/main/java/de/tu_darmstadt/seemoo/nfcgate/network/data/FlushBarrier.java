@@ -0,0 +1,42 @@
+package de.tu_darmstadt.seemoo.nfcgate.network.data;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Send queue entry without data. Completes once every record queued before it was written to the socket.
+ * With a FairSendQueue, only records of the same session are ordered before it.
+ */
+public class FlushBarrier extends SendRecord {
+    private final FutureTask<Void> mFuture = new FutureTask<>(new Runnable() {
+        @Override
+        public void run() {
+            // completion only
+        }
+    }, null);
+
+    public FlushBarrier(int session) {
+        super(session, new byte[0]);
+    }
+
+    @Override
+    public boolean isBarrier() {
+        return true;
+    }
+
+    @Override
+    public void onWritten() {
+        mFuture.run();
+    }
+
+    /**
+     * Wakes up waiters if the barrier will never be reached
+     */
+    public void cancel() {
+        mFuture.cancel(false);
+    }
+
+    public Future<Void> getFuture() {
+        return mFuture;
+    }
+}
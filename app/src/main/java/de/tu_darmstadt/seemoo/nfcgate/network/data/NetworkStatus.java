@@ -5,6 +5,7 @@ public enum NetworkStatus {
 
     CONNECTING,
     CONNECTED,
+    RECONNECTING,
     PARTNER_CONNECT,
     PARTNER_LEFT,
 }
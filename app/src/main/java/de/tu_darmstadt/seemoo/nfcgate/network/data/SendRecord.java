@@ -1,8 +1,11 @@
 package de.tu_darmstadt.seemoo.nfcgate.network.data;
 
+import de.tu_darmstadt.seemoo.nfcgate.util.RelayStats;
+
 public class SendRecord {
     private int mSession;
     private byte[] mData;
+    private long mQueuedAt = System.nanoTime();
 
     public SendRecord(int session, byte[] data) {
         mSession = session;
@@ -16,4 +19,18 @@ public class SendRecord {
     public byte[] getData() {
         return mData;
     }
-}
\ No newline at end of file
+
+    /**
+     * Barriers are not sent, see {@link FlushBarrier}
+     */
+    public boolean isBarrier() {
+        return false;
+    }
+
+    /**
+     * Called by the transport after the record was written to the socket
+     */
+    public void onWritten() {
+        RelayStats.getInstance().record(RelayStats.Hop.SEND_QUEUE, System.nanoTime() - mQueuedAt);
+    }
+}
@@ -0,0 +1,122 @@
+package de.tu_darmstadt.seemoo.nfcgate.network.frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Incrementally decodes length-prefixed frames from a reusable buffer.
+ * Each frame consists of a 4 byte length followed by the payload.
+ */
+public class FrameDecoder {
+    public static final int LENGTH_PREFIX = 4;
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 1024 * 1024;
+    private static final int INITIAL_CAPACITY = 4096;
+
+    // received bytes are between mReadPosition and the buffer position
+    private ByteBuffer mBuffer;
+    private ByteBuffer mView;
+    private int mReadPosition = 0;
+    private final int mMaxFrameLength;
+
+    // statistics
+    private volatile long mFrameCount = 0;
+    private volatile long mAllocationCount = 0;
+
+    public FrameDecoder(int maxFrameLength) {
+        mMaxFrameLength = maxFrameLength;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Reads available bytes from the channel into the buffer.
+     * Invalidates the frame returned by the previous poll().
+     *
+     * @return number of bytes read or -1 on end of stream
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        // move unconsumed bytes to the front
+        compact();
+
+        // grow if the pending frame does not fit
+        int required = requiredCapacity();
+        if (required > mBuffer.capacity()) {
+            ByteBuffer old = mBuffer;
+            allocate(required);
+            old.flip();
+            mBuffer.put(old);
+        }
+
+        return channel.read(mBuffer);
+    }
+
+    /**
+     * Returns a view on the payload of the next complete frame or null if more data is required.
+     * The view is only valid until the next call to poll() or fill().
+     */
+    public ByteBuffer poll() throws IOException {
+        int available = mBuffer.position() - mReadPosition;
+        if (available < LENGTH_PREFIX)
+            return null;
+
+        int length = frameLength();
+        if (available < LENGTH_PREFIX + length)
+            return null;
+
+        // point reusable view at payload
+        int start = mReadPosition + LENGTH_PREFIX;
+        mView.clear();
+        mView.position(start).limit(start + length);
+
+        mReadPosition = start + length;
+        mFrameCount++;
+        return mView;
+    }
+
+    /**
+     * Number of frames decoded so far
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Number of buffer allocations so far, including the initial one
+     */
+    public long getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    /**
+     * Validates and returns the length of the frame at the current read position
+     */
+    private int frameLength() throws IOException {
+        int length = mBuffer.getInt(mReadPosition);
+        if (length < 0 || length > mMaxFrameLength)
+            throw new IOException("Invalid frame length " + length + ", maximum is " + mMaxFrameLength);
+
+        return length;
+    }
+
+    private int requiredCapacity() throws IOException {
+        int available = mBuffer.position() - mReadPosition;
+        return available < LENGTH_PREFIX ? LENGTH_PREFIX : LENGTH_PREFIX + frameLength();
+    }
+
+    private void compact() {
+        if (mReadPosition == 0)
+            return;
+
+        int position = mBuffer.position();
+        mBuffer.position(mReadPosition).limit(position);
+        mBuffer.compact();
+        mReadPosition = 0;
+    }
+
+    private void allocate(int capacity) {
+        // heap buffer allows protobuf to parse directly from the backing array
+        mBuffer = ByteBuffer.allocate(Math.max(capacity, INITIAL_CAPACITY));
+        mView = mBuffer.duplicate();
+        mAllocationCount++;
+    }
+}
@@ -0,0 +1,144 @@
+package de.tu_darmstadt.seemoo.nfcgate.network.frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+
+import de.tu_darmstadt.seemoo.nfcgate.network.data.SendRecord;
+
+/**
+ * Assembles outgoing frames in a single reusable direct buffer.
+ * Each frame consists of a 4 byte length, the 1 byte session number and the payload.
+ */
+public class FrameEncoder {
+    public static final int HEADER_LENGTH = 5;
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private ByteBuffer mBuffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+
+    /**
+     * Discards all previously assembled frames
+     */
+    public void clear() {
+        mBuffer.clear();
+    }
+
+    /**
+     * Appends the frame of the given record to the buffer
+     */
+    public void put(SendRecord record) {
+        final byte[] data = record.getData();
+        ensureCapacity(HEADER_LENGTH + data.length);
+
+        // 4 byte data length
+        mBuffer.putInt(data.length);
+        // 1 byte session number
+        mBuffer.put((byte) record.getSession());
+        // actual data
+        mBuffer.put(data);
+    }
+
+    /**
+     * Appends frames of the pending records in order until one of the limits is reached.
+     * The first record is always appended, regardless of the limits.
+     * Appended records and flush barriers are moved from pending to batch.
+     *
+     * @return number of records appended
+     */
+    public int putBatch(Queue<SendRecord> pending, Collection<SendRecord> batch, int maxRecords, int maxBytes) {
+        int records = 0;
+        while (!pending.isEmpty() && records < maxRecords) {
+            // barriers have no frame but complete with this batch
+            if (pending.peek().isBarrier()) {
+                batch.add(pending.poll());
+                continue;
+            }
+
+            int frameLength = HEADER_LENGTH + pending.peek().getData().length;
+            if (records > 0 && size() + frameLength > maxBytes)
+                break;
+
+            SendRecord record = pending.poll();
+            put(record);
+            batch.add(record);
+            records++;
+        }
+
+        return records;
+    }
+
+    /**
+     * Writes all assembled frames to the channel and blocks until everything was written
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        flip();
+        while (mBuffer.hasRemaining())
+            channel.write(mBuffer);
+    }
+
+    /**
+     * Finishes assembling, afterwards the frames can be written using writeSome()
+     */
+    public void flip() {
+        mBuffer.flip();
+    }
+
+    /**
+     * Writes as much as a non-blocking channel accepts
+     *
+     * @return true if all assembled frames were written
+     */
+    public boolean writeSome(WritableByteChannel channel) throws IOException {
+        channel.write(mBuffer);
+        return !mBuffer.hasRemaining();
+    }
+
+    /**
+     * Completes the records at the start of the batch whose frames were written and removes them.
+     * Call after writing failed, the server discards a partly written frame with the connection,
+     * so the remaining records have to be sent again.
+     */
+    public void removeWritten(List<SendRecord> batch) {
+        int written = mBuffer.position();
+        int end = 0, count = 0;
+        for (SendRecord record : batch) {
+            // barriers have no frame and complete with the frames before them
+            if (!record.isBarrier()) {
+                end += HEADER_LENGTH + record.getData().length;
+                if (end > written)
+                    break;
+            }
+
+            record.onWritten();
+            count++;
+        }
+
+        batch.subList(0, count).clear();
+    }
+
+    /**
+     * Number of bytes currently assembled
+     */
+    public int size() {
+        return mBuffer.position();
+    }
+
+    /**
+     * Grows the buffer if the additional bytes do not fit. The buffer is kept afterwards,
+     * so a steady state of similar sized messages does not allocate anymore.
+     */
+    private void ensureCapacity(int additional) {
+        if (mBuffer.remaining() >= additional)
+            return;
+
+        int capacity = Math.max(mBuffer.capacity() * 2, mBuffer.position() + additional);
+        ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+
+        mBuffer.flip();
+        grown.put(mBuffer);
+        mBuffer = grown;
+    }
+}
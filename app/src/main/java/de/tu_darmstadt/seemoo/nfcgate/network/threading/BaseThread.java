@@ -2,6 +2,7 @@ package de.tu_darmstadt.seemoo.nfcgate.network.threading;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.channels.ClosedByInterruptException;
 
 import de.tu_darmstadt.seemoo.nfcgate.network.ServerConnection;
 
@@ -41,7 +42,12 @@ public abstract class BaseThread extends Thread {
                 runInternal();
             }
             catch (InterruptedException e) {
-                // loop
+                // interrupt() while waiting clears the interrupted flag, this is a regular exit
+                mExit = true;
+            }
+            catch (ClosedByInterruptException e) {
+                // interrupt() during channel I/O closes the channel, this is a regular exit
+                mExit = true;
             }
             catch (IOException e) {
                 mExit = true;
@@ -49,10 +55,17 @@ public abstract class BaseThread extends Thread {
             }
         }
 
+        onExit();
+
         // close socket
-        mConnection.closeSocket();
+        mConnection.closeSocket(mSocket);
     }
 
+    /**
+     * Called once when the thread stops for any reason
+     */
+    void onExit() { }
+
     abstract void initThread() throws IOException;
     abstract void runInternal() throws IOException, InterruptedException;
     abstract void onError(Exception e);
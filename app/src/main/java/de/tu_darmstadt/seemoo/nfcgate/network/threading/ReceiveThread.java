@@ -2,17 +2,21 @@ package de.tu_darmstadt.seemoo.nfcgate.network.threading;
 
 import android.util.Log;
 
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
 import de.tu_darmstadt.seemoo.nfcgate.network.data.NetworkStatus;
 import de.tu_darmstadt.seemoo.nfcgate.network.ServerConnection;
+import de.tu_darmstadt.seemoo.nfcgate.network.frame.FrameDecoder;
 
 public class ReceiveThread extends BaseThread {
     private static final String TAG = "ReceiveThread";
 
     // references
-    private DataInputStream mReadStream;
+    private SocketChannel mChannel;
+    private FrameDecoder mDecoder;
 
     /**
      * Waits on sendQueue and sends the data over the specified stream
@@ -23,25 +27,29 @@ public class ReceiveThread extends BaseThread {
 
     @Override
     void initThread() throws IOException {
-        mReadStream = new DataInputStream(mSocket.getInputStream());
+        mChannel = mSocket.getChannel();
+        if (mChannel == null)
+            throw new IOException("Socket has no channel");
+
+        mDecoder = mConnection.getFrameDecoder();
     }
 
     /**
-     * Tries to send one item from the sendQueue.
+     * Tries to receive one frame from the socket.
      */
     @Override
     void runInternal() throws IOException {
-        // block and wait for the 4 byte length prefix
-        int length = mReadStream.readInt();
-
-        // block and wait for actual data
-        byte[] data = new byte[length];
-        mReadStream.readFully(data);
+        // block until one complete frame is buffered
+        ByteBuffer frame;
+        while ((frame = mDecoder.poll()) == null) {
+            if (mDecoder.fill(mChannel) < 0)
+                throw new EOFException("Connection closed by server");
+        }
 
-        Log.v(TAG, "Got message of " + length + " bytes");
+        Log.v(TAG, "Got message of " + frame.remaining() + " bytes");
 
-        // deliver data
-        mConnection.onReceive(data);
+        // deliver data, view is only valid during this call
+        mConnection.onReceive(frame);
     }
 
     @Override
@@ -2,18 +2,29 @@ package de.tu_darmstadt.seemoo.nfcgate.network.threading;
 
 import android.util.Log;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
 
 import de.tu_darmstadt.seemoo.nfcgate.network.data.NetworkStatus;
 import de.tu_darmstadt.seemoo.nfcgate.network.data.SendRecord;
 import de.tu_darmstadt.seemoo.nfcgate.network.ServerConnection;
+import de.tu_darmstadt.seemoo.nfcgate.network.frame.FrameEncoder;
 
 public class SendThread extends BaseThread {
     private static final String TAG = "SendThread";
 
     // references
-    private DataOutputStream mWriteStream;
+    private SocketChannel mChannel;
+    private final FrameEncoder mEncoder = new FrameEncoder();
+    // records taken from the sendQueue that did not fit into the previous batch
+    private final Queue<SendRecord> mPending = new ArrayDeque<>();
+    // records of the batch currently being written
+    private final List<SendRecord> mInFlight = new ArrayList<>();
 
     /**
      * Waits on sendQueue and sends the data over the specified stream
@@ -24,25 +35,51 @@ public class SendThread extends BaseThread {
 
     @Override
     void initThread() throws IOException {
-        mWriteStream = new DataOutputStream(mSocket.getOutputStream());
+        mChannel = mSocket.getChannel();
+        if (mChannel == null)
+            throw new IOException("Socket has no channel");
+
+        // records left over by a failed connection go first
+        mConnection.drainUnsent(mPending);
     }
 
     /**
-     * Tries to send one item from the sendQueue.
+     * Waits for at least one item and sends it together with all other pending items
+     * of the sendQueue, bounded by the batch limits of the connection.
      */
     @Override
     void runInternal() throws IOException, InterruptedException {
-        SendRecord record = mConnection.getSendQueue().take();
-        Log.v(TAG, "Sending message of " + record.getData().length + " bytes");
-
-        // 4 byte data length
-        mWriteStream.writeInt(record.getData().length);
-        // 1 byte session number
-        mWriteStream.writeByte(record.getSession());
-        // send actual data
-        mWriteStream.write(record.getData());
-        // flush for good measure
-        mWriteStream.flush();
+        final BlockingQueue<SendRecord> queue = mConnection.getSendQueue();
+        final int maxRecords = mConnection.getBatchMaxRecords();
+        final int maxBytes = mConnection.getBatchMaxBytes();
+
+        // block only if nothing is left over, never wait for more items to arrive
+        if (mPending.isEmpty())
+            mPending.add(queue.take());
+        if (mPending.size() < maxRecords)
+            queue.drainTo(mPending, maxRecords - mPending.size());
+
+        // assemble all frames in one buffer, the first record is always sent
+        mEncoder.clear();
+        int records = mEncoder.putBatch(mPending, mInFlight, maxRecords, maxBytes);
+
+        Log.v(TAG, "Sending " + records + " message(s) of " + mEncoder.size() + " bytes");
+
+        // single write and flush for the whole batch
+        mEncoder.writeTo(mChannel);
+        for (SendRecord record : mInFlight)
+            record.onWritten();
+        mInFlight.clear();
+    }
+
+    @Override
+    void onExit() {
+        // hand back everything not completely written for a possible reconnect
+        mEncoder.removeWritten(mInFlight);
+        mInFlight.addAll(mPending);
+        mConnection.returnUnsent(mInFlight);
+        mInFlight.clear();
+        mPending.clear();
     }
 
     @Override
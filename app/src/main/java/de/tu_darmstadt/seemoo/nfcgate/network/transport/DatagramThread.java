@@ -0,0 +1,443 @@
+package de.tu_darmstadt.seemoo.nfcgate.network.transport;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+
+import de.tu_darmstadt.seemoo.nfcgate.network.ServerConnection;
+import de.tu_darmstadt.seemoo.nfcgate.network.data.NetworkStatus;
+import de.tu_darmstadt.seemoo.nfcgate.network.data.SendRecord;
+
+/**
+ * Runs the datagram protocol of one DatagramTransport.
+ *
+ * Packets start with a 1 byte type:
+ * HELLO [0] is sent until the server echoes it.
+ * DATA  [1][seq:4][frame] carries one frame without length prefix, in the same format as over TCP.
+ * ACK   [2][next:4][bitmap:4] acknowledges all sequence numbers below next, bit i of the bitmap
+ *       acknowledges next + 1 + i.
+ *
+ * Every DATA packet is acknowledged immediately. Lost packets are retransmitted individually after
+ * the retransmission timeout or as soon as later packets were acknowledged. Received frames are
+ * delivered in order without duplicates.
+ */
+class DatagramThread extends Thread {
+    private static final String TAG = "DatagramThread";
+
+    static final byte TYPE_HELLO = 0;
+    static final byte TYPE_DATA = 1;
+    static final byte TYPE_ACK = 2;
+
+    static final int DATA_HEADER_LENGTH = 5;
+    static final int MAX_DATAGRAM_LENGTH = 65507;
+
+    private static final int WINDOW = 32;
+    private static final int HELLO_ATTEMPTS = 5;
+    private static final int MAX_RETRANSMITS = 8;
+    // number of later acknowledged packets that trigger a retransmit before the timeout
+    private static final int REORDER_THRESHOLD = 3;
+    // retransmission timeout bounds in ms
+    private static final long INITIAL_RTO = 200, MIN_RTO = 20, MAX_RTO = 1000;
+
+    interface Listener {
+        /**
+         * Called on this thread if the datagram path failed, unsent contains all records not yet
+         * acknowledged in order
+         */
+        void onFailed(List<SendRecord> unsent, boolean wasConnected);
+    }
+
+    /**
+     * Sent but not yet acknowledged packet
+     */
+    private static class Outgoing {
+        final int seq;
+        final SendRecord record;
+        final ByteBuffer packet;
+        long sentAt;
+        int retransmits = 0;
+        int laterAcked = 0;
+        boolean acked = false;
+
+        Outgoing(int seq, SendRecord record, ByteBuffer packet) {
+            this.seq = seq;
+            this.record = record;
+            this.packet = packet;
+        }
+    }
+
+    // references
+    private final ServerConnection mConnection;
+    private final Listener mListener;
+    private final Random mRandom = new Random();
+    private final double mLossRate;
+
+    // I/O
+    private Selector mSelector;
+    private DatagramChannel mChannel;
+    private final ByteBuffer mReceiveBuffer = ByteBuffer.allocate(MAX_DATAGRAM_LENGTH);
+    private final ByteBuffer mControlBuffer = ByteBuffer.allocate(9);
+    private volatile boolean mClosed = false;
+
+    // handshake
+    private boolean mConnected = false;
+    private int mHelloAttempts = 0;
+    private long mHelloSentAt = 0;
+
+    // sender state
+    private int mSendNext = 0;
+    private final ArrayDeque<Outgoing> mUnacked = new ArrayDeque<>();
+    private final Queue<SendRecord> mPending = new ArrayDeque<>();
+    private long mSmoothedRtt = -1, mRttVariance = 0, mRto = INITIAL_RTO;
+
+    // receiver state
+    private int mReceiveNext = 0;
+    private final Map<Integer, byte[]> mReordered = new HashMap<>();
+
+    DatagramThread(ServerConnection connection, Listener listener, double lossRate) {
+        super(TAG);
+        mConnection = connection;
+        mListener = listener;
+        mLossRate = lossRate;
+
+        // ensure JVM stops this thread at the end of app
+        setDaemon(true);
+    }
+
+    /**
+     * Wakes up the thread to send newly queued records
+     */
+    void wakeup() {
+        Selector selector = mSelector;
+        if (selector != null)
+            selector.wakeup();
+    }
+
+    void close() {
+        mClosed = true;
+        wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            mSelector = Selector.open();
+            mChannel = DatagramChannel.open();
+            mChannel.configureBlocking(false);
+            // connected channel only receives packets of the server
+            mChannel.connect(new InetSocketAddress(mConnection.getHostname(), mConnection.getPort()));
+            mChannel.register(mSelector, SelectionKey.OP_READ);
+
+            mConnection.drainUnsent(mPending);
+            sendHello();
+
+            while (!mClosed) {
+                mSelector.select(nextTimeout());
+                mSelector.selectedKeys().clear();
+                if (mClosed)
+                    break;
+
+                receiveAll();
+                long now = System.nanoTime();
+                checkHello(now);
+                checkRetransmits(now);
+                sendPending();
+            }
+        } catch (IOException e) {
+            if (!mClosed) {
+                Log.e(TAG, "Datagram path failed", e);
+                fail();
+            }
+        } finally {
+            closeChannel();
+        }
+    }
+
+    private void receiveAll() throws IOException {
+        while (true) {
+            mReceiveBuffer.clear();
+            if (mChannel.receive(mReceiveBuffer) == null)
+                return;
+
+            mReceiveBuffer.flip();
+            if (!mReceiveBuffer.hasRemaining() || isLost())
+                continue;
+
+            switch (mReceiveBuffer.get()) {
+                case TYPE_HELLO:
+                    onHello();
+                    break;
+                case TYPE_DATA:
+                    if (mReceiveBuffer.remaining() >= 4)
+                        onData(mReceiveBuffer.getInt());
+                    break;
+                case TYPE_ACK:
+                    if (mReceiveBuffer.remaining() >= 8)
+                        onAck(mReceiveBuffer.getInt(), mReceiveBuffer.getInt());
+                    break;
+            }
+
+            if (mClosed)
+                return;
+        }
+    }
+
+    private void onHello() {
+        if (mConnected)
+            return;
+
+        mConnected = true;
+        mConnection.reportStatus(NetworkStatus.CONNECTED);
+    }
+
+    private void onData(int seq) throws IOException {
+        if (seq - mReceiveNext >= WINDOW)
+            // too far ahead, the sender retransmits it later
+            return;
+
+        if (seq == mReceiveNext) {
+            // in order, deliver directly from the receive buffer
+            mReceiveNext++;
+            mConnection.onReceive(mReceiveBuffer);
+
+            // deliver reordered packets that are now in order
+            byte[] next;
+            while (!mClosed && (next = mReordered.remove(mReceiveNext)) != null) {
+                mReceiveNext++;
+                mConnection.onReceive(ByteBuffer.wrap(next));
+            }
+        }
+        else if (seq - mReceiveNext > 0 && !mReordered.containsKey(seq)) {
+            byte[] data = new byte[mReceiveBuffer.remaining()];
+            mReceiveBuffer.get(data);
+            mReordered.put(seq, data);
+        }
+        // else duplicate, acknowledge again since the previous ACK might have been lost
+
+        sendAck();
+    }
+
+    private void onAck(int next, int bitmap) {
+        long now = System.nanoTime();
+        int highestAcked = next - 1;
+
+        for (Outgoing out : mUnacked) {
+            if (out.acked)
+                continue;
+
+            int offset = out.seq - next;
+            if (offset < 0 || (offset > 0 && offset <= 32 && (bitmap & (1 << (offset - 1))) != 0)) {
+                out.acked = true;
+                if (out.seq - highestAcked > 0)
+                    highestAcked = out.seq;
+
+                // Karn: only unambiguous samples
+                if (out.retransmits == 0)
+                    updateRtt((now - out.sentAt) / 1000000);
+            }
+        }
+
+        // packets before the highest acknowledged one are likely lost
+        for (Outgoing out : mUnacked) {
+            if (!out.acked && out.seq - highestAcked < 0)
+                out.laterAcked++;
+        }
+
+        while (!mUnacked.isEmpty() && mUnacked.peekFirst().acked)
+            mUnacked.pollFirst().record.onWritten();
+    }
+
+    private void updateRtt(long sample) {
+        if (mSmoothedRtt < 0) {
+            mSmoothedRtt = sample;
+            mRttVariance = sample / 2;
+        }
+        else {
+            mRttVariance = (3 * mRttVariance + Math.abs(mSmoothedRtt - sample)) / 4;
+            mSmoothedRtt = (7 * mSmoothedRtt + sample) / 8;
+        }
+
+        mRto = Math.max(MIN_RTO, Math.min(MAX_RTO, mSmoothedRtt + 4 * mRttVariance));
+    }
+
+    private void sendPending() throws IOException {
+        if (!mConnected)
+            return;
+
+        final BlockingQueue<SendRecord> queue = mConnection.getSendQueue();
+        while (mUnacked.size() < WINDOW && !mClosed) {
+            if (mPending.isEmpty() && queue.drainTo(mPending, WINDOW - mUnacked.size()) == 0)
+                return;
+
+            SendRecord record = mPending.poll();
+            if (record.isBarrier()) {
+                // barriers have no packet and complete once all previous packets were acknowledged
+                if (mUnacked.isEmpty())
+                    record.onWritten();
+                else {
+                    Outgoing barrier = new Outgoing(mSendNext - 1, record, null);
+                    barrier.acked = true;
+                    mUnacked.add(barrier);
+                }
+                continue;
+            }
+
+            // session byte and payload as in a TCP frame
+            int length = DATA_HEADER_LENGTH + 1 + record.getData().length;
+            if (length > MAX_DATAGRAM_LENGTH)
+                throw new IOException("Frame exceeds datagram size");
+
+            ByteBuffer packet = ByteBuffer.allocate(length);
+            packet.put(TYPE_DATA);
+            packet.putInt(mSendNext);
+            packet.put((byte) record.getSession());
+            packet.put(record.getData());
+            packet.flip();
+
+            Outgoing out = new Outgoing(mSendNext++, record, packet);
+            mUnacked.add(out);
+            transmit(out, System.nanoTime());
+        }
+    }
+
+    private void checkRetransmits(long now) throws IOException {
+        for (Outgoing out : mUnacked) {
+            if (out.acked || out.packet == null)
+                continue;
+
+            // fast retransmit only once, acknowledgements in flight would trigger it again
+            boolean timedOut = now - out.sentAt >= rto(out) * 1000000;
+            boolean reordered = out.retransmits == 0 && out.laterAcked >= REORDER_THRESHOLD;
+            if (!timedOut && !reordered)
+                continue;
+
+            if (out.retransmits >= MAX_RETRANSMITS)
+                throw new IOException("Packet " + out.seq + " was not acknowledged");
+
+            out.retransmits++;
+            transmit(out, now);
+        }
+    }
+
+    private void checkHello(long now) throws IOException {
+        if (mConnected || now - mHelloSentAt < INITIAL_RTO * 1000000)
+            return;
+
+        if (mHelloAttempts >= HELLO_ATTEMPTS)
+            throw new IOException("Server does not answer datagrams");
+
+        sendHello();
+    }
+
+    private void sendHello() throws IOException {
+        mHelloAttempts++;
+        mHelloSentAt = System.nanoTime();
+
+        mControlBuffer.clear();
+        mControlBuffer.put(TYPE_HELLO);
+        mControlBuffer.flip();
+        write(mControlBuffer);
+    }
+
+    private void sendAck() throws IOException {
+        // bit i acknowledges mReceiveNext + 1 + i
+        int bitmap = 0;
+        for (int i = 0; i < 32; i++) {
+            if (mReordered.containsKey(mReceiveNext + 1 + i))
+                bitmap |= 1 << i;
+        }
+
+        mControlBuffer.clear();
+        mControlBuffer.put(TYPE_ACK);
+        mControlBuffer.putInt(mReceiveNext);
+        mControlBuffer.putInt(bitmap);
+        mControlBuffer.flip();
+        write(mControlBuffer);
+    }
+
+    private void transmit(Outgoing out, long now) throws IOException {
+        out.sentAt = now;
+        out.packet.rewind();
+        write(out.packet);
+    }
+
+    private void write(ByteBuffer packet) throws IOException {
+        // loss injection drops the packet as if the network had lost it
+        if (!isLost())
+            mChannel.write(packet);
+    }
+
+    private boolean isLost() {
+        return mLossRate > 0 && mRandom.nextDouble() < mLossRate;
+    }
+
+    private long rto(Outgoing out) {
+        return Math.min(MAX_RTO, mRto << out.retransmits);
+    }
+
+    /**
+     * Time in ms until the next retransmit or hello is due, 0 waits indefinitely
+     */
+    private long nextTimeout() {
+        long now = System.nanoTime();
+        long timeout = Long.MAX_VALUE;
+
+        if (!mConnected)
+            timeout = INITIAL_RTO - (now - mHelloSentAt) / 1000000;
+
+        for (Outgoing out : mUnacked) {
+            if (!out.acked && out.packet != null)
+                timeout = Math.min(timeout, rto(out) - (now - out.sentAt) / 1000000);
+        }
+
+        return timeout == Long.MAX_VALUE ? 0 : Math.max(1, timeout);
+    }
+
+    private void fail() {
+        mListener.onFailed(takeUnsent(), mConnected);
+    }
+
+    /**
+     * Removes unacknowledged records and barriers in order, followed by those not sent yet
+     */
+    private List<SendRecord> takeUnsent() {
+        List<SendRecord> unsent = new ArrayList<>();
+        for (Outgoing out : mUnacked) {
+            if (!out.acked || out.packet == null)
+                unsent.add(out.record);
+        }
+        unsent.addAll(mPending);
+
+        mUnacked.clear();
+        mPending.clear();
+        return unsent;
+    }
+
+    private void closeChannel() {
+        try {
+            if (mChannel != null)
+                mChannel.close();
+            if (mSelector != null)
+                mSelector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // hand back everything not acknowledged after close()
+        if (!mUnacked.isEmpty() || !mPending.isEmpty())
+            mConnection.returnUnsent(takeUnsent());
+    }
+}
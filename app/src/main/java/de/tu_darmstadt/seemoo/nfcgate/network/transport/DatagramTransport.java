@@ -0,0 +1,108 @@
+package de.tu_darmstadt.seemoo.nfcgate.network.transport;
+
+import android.util.Log;
+
+import java.util.List;
+
+import de.tu_darmstadt.seemoo.nfcgate.network.ServerConnection;
+import de.tu_darmstadt.seemoo.nfcgate.network.data.SendRecord;
+
+/**
+ * Sends frames as UDP datagrams to the same host and port instead of a TCP stream.
+ * A lost packet only delays frames after it until it is retransmitted individually, instead of
+ * stalling the stream for a TCP retransmission timeout.
+ * If the server does not answer datagrams or a packet cannot be delivered, all unacknowledged
+ * records are sent over a ThreadedTransport instead.
+ */
+public class DatagramTransport implements Transport, DatagramThread.Listener {
+    private static final String TAG = "DatagramTransport";
+
+    // references
+    private ServerConnection mConnection;
+    private double mLossRate = 0;
+
+    // either the datagram thread or the fallback is active
+    private DatagramThread mThread;
+    private Transport mFallback;
+    private final Object mLock = new Object();
+    private boolean mClosed = false;
+
+    /**
+     * Drops the given fraction of sent and received packets, for testing retransmits only
+     */
+    public DatagramTransport setLossRate(double lossRate) {
+        mLossRate = lossRate;
+        return this;
+    }
+
+    @Override
+    public void open(ServerConnection connection) {
+        synchronized (mLock) {
+            mConnection = connection;
+            mClosed = false;
+            mFallback = null;
+
+            mThread = new DatagramThread(connection, this, mLossRate);
+            mThread.start();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (mLock) {
+            mClosed = true;
+
+            if (mThread != null)
+                mThread.close();
+            if (mFallback != null)
+                mFallback.close();
+        }
+    }
+
+    @Override
+    public void awaitClosed() {
+        DatagramThread thread;
+        synchronized (mLock) {
+            thread = mThread;
+        }
+
+        // not under the lock, a failing thread takes it to fall back
+        ThreadedTransport.join(thread);
+
+        Transport fallback;
+        synchronized (mLock) {
+            fallback = mFallback;
+        }
+        if (fallback != null)
+            fallback.awaitClosed();
+    }
+
+    @Override
+    public void onSendQueued() {
+        synchronized (mLock) {
+            if (mFallback != null)
+                mFallback.onSendQueued();
+            else if (mThread != null)
+                mThread.wakeup();
+        }
+    }
+
+    @Override
+    public void onFailed(List<SendRecord> unsent, boolean wasConnected) {
+        Log.w(TAG, "Falling back to TCP with " + unsent.size() + " unsent message(s)");
+
+        synchronized (mLock) {
+            mConnection.returnUnsent(unsent);
+            if (mClosed)
+                return;
+
+            // the server only knows the session of the datagram path, join again over TCP
+            if (wasConnected)
+                mConnection.replayHandshakes();
+
+            mThread = null;
+            mFallback = new ThreadedTransport();
+            mFallback.open(mConnection);
+        }
+    }
+}
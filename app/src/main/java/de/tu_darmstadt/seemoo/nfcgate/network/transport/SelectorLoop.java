@@ -0,0 +1,116 @@
+package de.tu_darmstadt.seemoo.nfcgate.network.transport;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Single thread multiplexing the I/O of all SelectorTransports.
+ * All channel operations of these transports happen on this thread.
+ */
+class SelectorLoop extends Thread {
+    private static final String TAG = "SelectorLoop";
+
+    private final Selector mSelector;
+    private final Queue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+
+    SelectorLoop() throws IOException {
+        super(TAG);
+        mSelector = Selector.open();
+
+        // ensure JVM stops this thread at the end of app
+        setDaemon(true);
+    }
+
+    Selector getSelector() {
+        return mSelector;
+    }
+
+    /**
+     * Runs the task on the loop thread as soon as possible
+     */
+    void post(Runnable task) {
+        mTasks.add(task);
+        mSelector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                mSelector.select(nextTimeout());
+            } catch (IOException e) {
+                Log.e(TAG, "Select failed", e);
+                continue;
+            }
+
+            // tasks posted by other threads, transports fail themselves on errors in their tasks
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Task failed", e);
+                }
+            }
+
+            // ready channels
+            Iterator<SelectionKey> it = mSelector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+
+                try {
+                    ((SelectorTransport) key.attachment()).onReady();
+                } catch (RuntimeException e) {
+                    fail(key, e);
+                }
+            }
+
+            // pending connects that took too long
+            long now = System.nanoTime();
+            for (SelectionKey key : mSelector.keys()) {
+                try {
+                    ((SelectorTransport) key.attachment()).checkTimeout(now);
+                } catch (RuntimeException e) {
+                    fail(key, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails the transport of the key, an error in one transport must not stop the loop
+     */
+    private void fail(SelectionKey key, RuntimeException e) {
+        try {
+            ((SelectorTransport) key.attachment()).onError(e);
+        } catch (RuntimeException e2) {
+            Log.e(TAG, "Transport cannot be failed", e2);
+            key.cancel();
+        }
+    }
+
+    /**
+     * Returns the select timeout in millis until the earliest connect deadline, 0 blocks indefinitely
+     */
+    private long nextTimeout() {
+        long now = System.nanoTime();
+        long timeout = 0;
+
+        for (SelectionKey key : mSelector.keys()) {
+            long deadline = ((SelectorTransport) key.attachment()).getConnectDeadline();
+            if (deadline != 0) {
+                long remaining = Math.max(1, (deadline - now) / 1000000);
+                timeout = timeout == 0 ? remaining : Math.min(timeout, remaining);
+            }
+        }
+
+        return timeout;
+    }
+}
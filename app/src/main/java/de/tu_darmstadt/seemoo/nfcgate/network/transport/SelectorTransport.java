@@ -0,0 +1,304 @@
+package de.tu_darmstadt.seemoo.nfcgate.network.transport;
+
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.tu_darmstadt.seemoo.nfcgate.network.ServerConnection;
+import de.tu_darmstadt.seemoo.nfcgate.network.data.NetworkStatus;
+import de.tu_darmstadt.seemoo.nfcgate.network.data.SendRecord;
+import de.tu_darmstadt.seemoo.nfcgate.network.frame.FrameDecoder;
+import de.tu_darmstadt.seemoo.nfcgate.network.frame.FrameEncoder;
+
+/**
+ * Non-blocking socket I/O. All connections using this transport share one selector thread
+ * instead of two blocking threads per connection.
+ */
+public class SelectorTransport implements Transport {
+    private static final String TAG = "SelectorTransport";
+    private static final long CONNECT_TIMEOUT = 10000;
+    // bounds the reads per ready event so one busy connection cannot stall the others
+    private static final int MAX_READS_PER_EVENT = 16;
+
+    // shared loop
+    private static SelectorLoop mSharedLoop;
+
+    private static synchronized SelectorLoop getSharedLoop() throws IOException {
+        if (mSharedLoop == null) {
+            mSharedLoop = new SelectorLoop();
+            mSharedLoop.start();
+        }
+
+        return mSharedLoop;
+    }
+
+    // references
+    private ServerConnection mConnection;
+    private SelectorLoop mLoop;
+
+    // channel state, only accessed on the loop thread
+    private SocketChannel mChannel;
+    private SelectionKey mKey;
+    private long mConnectDeadline = 0;
+    private final FrameEncoder mEncoder = new FrameEncoder();
+    private final Queue<SendRecord> mPending = new ArrayDeque<>();
+    private final List<SendRecord> mInFlight = new ArrayList<>();
+    private boolean mEncoderPending = false;
+
+    // cross-thread state
+    private volatile boolean mClosed = false;
+    private final AtomicBoolean mWritePosted = new AtomicBoolean(false);
+    private final Runnable mWriteTask = guard(new Runnable() {
+        @Override
+        public void run() {
+            mWritePosted.set(false);
+            onWriteRequested();
+        }
+    });
+
+    @Override
+    public void open(final ServerConnection connection) {
+        mConnection = connection;
+
+        try {
+            mLoop = getSharedLoop();
+        } catch (IOException e) {
+            Log.e(TAG, "Selector cannot be opened", e);
+            connection.reportStatus(NetworkStatus.ERROR);
+            return;
+        }
+
+        mLoop.post(guard(new Runnable() {
+            @Override
+            public void run() {
+                // runs after any close task posted before, the transport can be reopened
+                mClosed = false;
+                register();
+            }
+        }));
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+
+        if (mLoop != null) {
+            mLoop.post(guard(new Runnable() {
+                @Override
+                public void run() {
+                    closeChannel();
+                }
+            }));
+        }
+    }
+
+    @Override
+    public void awaitClosed() {
+        // no-op: the loop runs closeChannel() before the register() of the next open()
+    }
+
+    @Override
+    public void onSendQueued() {
+        // at most one write task is in flight at any time
+        if (mLoop != null && mWritePosted.compareAndSet(false, true))
+            mLoop.post(mWriteTask);
+    }
+
+    /**
+     * Called by the loop if the channel is ready for any registered operation
+     */
+    void onReady() {
+        try {
+            if (mKey.isValid() && mKey.isConnectable() && mChannel.finishConnect())
+                onConnected();
+            if (mKey.isValid() && mKey.isReadable())
+                onReadable();
+            if (mKey.isValid() && mKey.isWritable())
+                onWritable();
+        } catch (IOException | CancelledKeyException e) {
+            onError(e);
+        }
+    }
+
+    /**
+     * Called by the loop to fail connects exceeding the timeout
+     */
+    void checkTimeout(long now) {
+        if (mConnectDeadline != 0 && now - mConnectDeadline > 0)
+            onError(new SocketTimeoutException("Connect timed out"));
+    }
+
+    /**
+     * Deadline of a pending connect in System.nanoTime() or 0 if there is none
+     */
+    long getConnectDeadline() {
+        return mConnectDeadline;
+    }
+
+    /**
+     * Wraps a task for the loop so that a failing task only fails this transport
+     */
+    private Runnable guard(final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    onError(e);
+                }
+            }
+        };
+    }
+
+    private void register() {
+        if (mClosed)
+            return;
+
+        try {
+            mChannel = SocketChannel.open();
+            mChannel.configureBlocking(false);
+            mChannel.socket().setTcpNoDelay(true);
+
+            mConnectDeadline = System.nanoTime() + CONNECT_TIMEOUT * 1000000;
+            boolean connected = mChannel.connect(
+                    new InetSocketAddress(mConnection.getHostname(), mConnection.getPort()));
+            mKey = mChannel.register(mLoop.getSelector(), SelectionKey.OP_CONNECT, this);
+
+            if (connected)
+                onConnected();
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    private void onConnected() {
+        mConnectDeadline = 0;
+        mKey.interestOps(SelectionKey.OP_READ);
+        mConnection.reportStatus(NetworkStatus.CONNECTED);
+
+        // records left over by a failed connection go first, then everything queued while connecting
+        mConnection.drainUnsent(mPending);
+        onWriteRequested();
+    }
+
+    private void onReadable() throws IOException {
+        FrameDecoder decoder = mConnection.getFrameDecoder();
+
+        for (int i = 0; i < MAX_READS_PER_EVENT && !mClosed; i++) {
+            // deliver all complete frames, each view is only valid until the next poll
+            ByteBuffer frame;
+            while (!mClosed && (frame = decoder.poll()) != null)
+                mConnection.onReceive(frame);
+
+            int read = decoder.fill(mChannel);
+            if (read < 0)
+                throw new EOFException("Connection closed by server");
+            else if (read == 0)
+                break;
+        }
+    }
+
+    private void onWritable() throws IOException {
+        final BlockingQueue<SendRecord> queue = mConnection.getSendQueue();
+        final int maxRecords = mConnection.getBatchMaxRecords();
+        final int maxBytes = mConnection.getBatchMaxBytes();
+
+        while (!mClosed) {
+            // assemble next batch if the previous one was written completely
+            if (!mEncoderPending) {
+                if (mPending.size() < maxRecords)
+                    queue.drainTo(mPending, maxRecords - mPending.size());
+
+                if (mPending.isEmpty()) {
+                    // nothing left to write
+                    mKey.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+
+                mEncoder.clear();
+                mEncoder.putBatch(mPending, mInFlight, maxRecords, maxBytes);
+                mEncoder.flip();
+                mEncoderPending = true;
+            }
+
+            if (!mEncoder.writeSome(mChannel)) {
+                // socket buffer is full, continue when writable again
+                mKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+
+            mEncoderPending = false;
+            for (SendRecord record : mInFlight)
+                record.onWritten();
+            mInFlight.clear();
+        }
+    }
+
+    /**
+     * Writes immediately instead of waiting for the next select round
+     */
+    private void onWriteRequested() {
+        // before connect completes, onConnected() takes care of queued records
+        if (mClosed || mKey == null || !mKey.isValid() || mConnectDeadline != 0)
+            return;
+
+        try {
+            onWritable();
+        } catch (IOException e) {
+            onError(e);
+        }
+    }
+
+    /**
+     * Closes the channel and reports the error unless the transport was closed
+     */
+    void onError(Exception e) {
+        boolean wasClosed = mClosed;
+        closeChannel();
+
+        // errors after close() are expected
+        if (!wasClosed) {
+            Log.e(TAG, "Connection onError", e);
+            mConnection.reportStatus(NetworkStatus.ERROR);
+        }
+    }
+
+    private void closeChannel() {
+        mClosed = true;
+        mConnectDeadline = 0;
+
+        if (mKey != null)
+            mKey.cancel();
+
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // hand back everything not completely written for a possible reconnect
+        if (mEncoderPending)
+            mEncoder.removeWritten(mInFlight);
+        mEncoderPending = false;
+        mInFlight.addAll(mPending);
+        mConnection.returnUnsent(mInFlight);
+        mInFlight.clear();
+        mPending.clear();
+    }
+}
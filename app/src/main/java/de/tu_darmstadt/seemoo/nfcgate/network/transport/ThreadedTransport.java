@@ -0,0 +1,62 @@
+package de.tu_darmstadt.seemoo.nfcgate.network.transport;
+
+import android.util.Log;
+
+import de.tu_darmstadt.seemoo.nfcgate.network.ServerConnection;
+import de.tu_darmstadt.seemoo.nfcgate.network.threading.ReceiveThread;
+import de.tu_darmstadt.seemoo.nfcgate.network.threading.SendThread;
+
+/**
+ * Blocking socket I/O using a dedicated send and receive thread per connection
+ */
+public class ThreadedTransport implements Transport {
+    private static final String TAG = "ThreadedTransport";
+    // longer than the connect timeout, the only blocking call that may not see the interrupt right away
+    private static final long JOIN_TIMEOUT = 15000;
+
+    // threading
+    private SendThread mSendThread;
+    private ReceiveThread mReceiveThread;
+
+    @Override
+    public void open(ServerConnection connection) {
+        mSendThread = new SendThread(connection);
+        mReceiveThread = new ReceiveThread(connection);
+        mSendThread.start();
+        mReceiveThread.start();
+    }
+
+    @Override
+    public void close() {
+        if (mSendThread != null)
+            mSendThread.interrupt();
+
+        if (mReceiveThread != null)
+            mReceiveThread.interrupt();
+    }
+
+    @Override
+    public void awaitClosed() {
+        // the send thread hands back its unsent records when it exits
+        join(mSendThread);
+        join(mReceiveThread);
+    }
+
+    @Override
+    public void onSendQueued() {
+        // no-op: SendThread blocks on the send queue
+    }
+
+    static void join(Thread thread) {
+        if (thread == null)
+            return;
+
+        try {
+            thread.join(JOIN_TIMEOUT);
+            if (thread.isAlive())
+                Log.w(TAG, thread.getName() + " did not stop in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package de.tu_darmstadt.seemoo.nfcgate.network.transport;
+
+import de.tu_darmstadt.seemoo.nfcgate.network.ServerConnection;
+
+/**
+ * Moves frames between the send queue of a ServerConnection and the server.
+ * Received frames and status changes are reported through the connection.
+ */
+public interface Transport {
+    /**
+     * Connects to the server and starts I/O for the given connection
+     */
+    void open(ServerConnection connection);
+
+    /**
+     * Stops I/O and releases all resources
+     */
+    void close();
+
+    /**
+     * Waits until a closed transport stopped its I/O and handed back its unsent records
+     */
+    void awaitClosed();
+
+    /**
+     * Called after a record was added to the send queue of the connection
+     */
+    void onSendQueued();
+}
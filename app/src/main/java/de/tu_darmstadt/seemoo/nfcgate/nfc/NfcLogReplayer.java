@@ -1,32 +1,37 @@
 package de.tu_darmstadt.seemoo.nfcgate.nfc;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-import de.tu_darmstadt.seemoo.nfcgate.db.NfcCommEntry;
 import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
 
 public class NfcLogReplayer {
     private boolean mReader;
     private String mMode;
-    private List<NfcCommEntry> mReplayLog;
+    private ReplayLog mReplayLog;
     private int mReplayIndex = 0;
+    // messages of the other side, for pattern and template mode
+    private ReplayIndex mIndex;
+    private ReplayTemplates mTemplates;
+
+    public NfcLogReplayer(boolean reader, String mode, ReplayLog replayLog) {
+        this(reader, mode, replayLog, null);
+    }
 
-    public NfcLogReplayer(boolean reader, String mode, List<NfcCommEntry> replayLog) {
+    /**
+     * @param trainingLog other captured messages the template mode learns variable bytes from
+     */
+    public NfcLogReplayer(boolean reader, String mode, ReplayLog replayLog, ReplayLog trainingLog) {
         mReader = reader;
         mMode = mode;
         mReplayLog = replayLog;
+
+        if ("pattern".equals(mode) || "template".equals(mode))
+            mIndex = new ReplayIndex(replayLog, reader);
+        if ("template".equals(mode))
+            mTemplates = new ReplayTemplates(replayLog, trainingLog, reader);
     }
 
-    private NfcComm getNext() {
+    private boolean hasNext() {
         // next log entry does not exist -> do nothing
-        if (mReplayIndex >= mReplayLog.size())
-            return null;
-
-        // get next entry
-        return mReplayLog.get(mReplayIndex).getNfcComm();
+        return mReplayIndex < mReplayLog.size();
     }
 
     public NfcComm getResponse(NfcComm request) {
@@ -37,17 +42,25 @@ public class NfcLogReplayer {
             case "pattern":
                 return getPatternBasedResponse(request);
 
+            case "template":
+                return getTemplateBasedResponse(request);
+
             default:
                 throw new IllegalArgumentException("Unknown replay mode " + mMode);
         }
     }
 
-    public boolean shouldWait() {
-        // get next entry
-        NfcComm next = getNext();
+    /**
+     * Moves past a request that was answered without the replayer, e.g. from a ResponseTable,
+     * so the following requests are answered from the right position in the log
+     */
+    public void skip(NfcComm request) {
+        getResponse(request);
+    }
 
+    public boolean shouldWait() {
         // wait if no next entry exists or next entry is not our type
-        return next == null || next.isCard() == mReader;
+        return !hasNext() || mReplayLog.isCard(mReplayIndex) == mReader;
     }
 
     /**
@@ -55,19 +68,15 @@ public class NfcLogReplayer {
      * or null if we need to wait or no matching communication was found
      */
     private NfcComm getIndexBasedResponse(NfcComm request) {
-        // get next entry
-        NfcComm next = getNext();
-
-        if (request != null && next != null && next.isCard() == request.isCard()) {
+        if (request != null && hasNext() && mReplayLog.isCard(mReplayIndex) == request.isCard()) {
             // request matches the log entry we were expecting
             mReplayIndex++;
             return getIndexBasedResponse(null);
         }
-        else if (request == null && next != null && next.isCard() != mReader) {
+        else if (request == null && hasNext() && mReplayLog.isCard(mReplayIndex) != mReader) {
             // next entry matches our type
-            mReplayIndex++;
-            // update date by creating new NfcComm from old one
-            return new NfcComm(next.isCard(), next.isInitial(), next.getData());
+            // update date by creating new NfcComm from the log entry
+            return mReplayLog.toNfcComm(mReplayIndex++);
         }
 
         // either wrong request or next log entry does not match our type: wait
@@ -80,21 +89,20 @@ public class NfcLogReplayer {
      * or no matching communication was found
      */
     private NfcComm getPatternBasedResponse(NfcComm request) {
-        // get next entry
-        NfcComm next = getNext();
+        // if we just need our next communication, use index-based resp
+        if (request == null)
+            return getIndexBasedResponse(null);
+
+        byte[] data = request.getData();
 
         // if the other side sent a request exactly matching our expectations, use index-based resp
-        if (request != null && next != null && next.isCard() == request.isCard()
-                && Arrays.equals(next.getData(), request.getData())) {
+        if (hasNext() && mReplayLog.isCard(mReplayIndex) == request.isCard()
+                && mReplayLog.dataEquals(mReplayIndex, data)) {
             return getIndexBasedResponse(request);
         }
-        // if we just need our next communication, use index-based resp
-        else if (request == null) {
-            return getIndexBasedResponse(null);
-        }
         // if we have a request but it does not exactly match the expected data, use pattern-based
         else {
-            int predictedIndex = getPredictedIndex(request);
+            int predictedIndex = mIndex.find(data, mReplayIndex);
 
             // jump to best prediction and continue index-based resp from there
             if (predictedIndex >= 0)
@@ -105,67 +113,27 @@ public class NfcLogReplayer {
     }
 
     /**
-     * Predict the current log index for given request based on the best score in the scoreMap
+     * Returns the next communication to be sent by "our" side based on request
+     * templates with wildcard bytes, patching echoed request bytes into the response.
+     * Requests matching no template are handled by pattern
      */
-    private int getPredictedIndex(NfcComm request) {
-        Map<Integer, Integer> scoreMap = makeScoreMap(request);
-        int cIndex = -1, cScore = -1;
-
-        for (Map.Entry<Integer, Integer> entry : scoreMap.entrySet()) {
-            int index = entry.getKey(), score = entry.getValue();
-
-            // index has better score or better ranking at equal score
-            if (score > cScore || (score == cScore && rankIndex(index) < rankIndex(cIndex))) {
-                cIndex = index;
-                cScore = score;
-            }
-        }
-
-        return cIndex;
-    }
-
-    /**
-     * Build a (index, score) map with a score for each suitable log entry index
-     */
-    private Map<Integer, Integer> makeScoreMap(NfcComm request) {
-        Map<Integer, Integer> result = new HashMap<>();
-
-        for (int i = 0; i < mReplayLog.size(); i++) {
-            NfcComm entry = mReplayLog.get(i).getNfcComm();
-
-            // calc only for other side
-            if (entry.isCard() == mReader)
-                result.put(i, calcScore(entry, request));
-        }
-
-        return result;
-    }
-
-    /**
-     * Ranks given index against mReplayIndex using forward distance. Lower is better
-     */
-    private int rankIndex(int index) {
-        if (index == -1) return Integer.MAX_VALUE;
-        else if (index > mReplayIndex) return index - mReplayIndex;
-        else return Math.max(0, mReplayLog.size() - mReplayIndex) + index;
-    }
-
-    /**
-     * Matches length and content of given data. Higher score is better
-     */
-    private int calcScore(NfcComm entry, NfcComm request) {
-        byte[] bEntry = entry.getData(), bRequest = request.getData();
+    private NfcComm getTemplateBasedResponse(NfcComm request) {
+        // if we just need our next communication, use index-based resp
+        if (request == null)
+            return getIndexBasedResponse(null);
 
-        // length based score: 10 for perfect match, one less for each absolute difference
-        int lScore = Math.max(0, 10 - (Math.abs(bEntry.length - bRequest.length)));
+        byte[] data = request.getData();
+        int matchedIndex = mTemplates.find(data, mReplayIndex);
+        if (matchedIndex < 0)
+            return getPatternBasedResponse(request);
 
-        // prefix based score
-        int pScore;
-        for (pScore = 0; pScore < Math.min(bEntry.length, bRequest.length); pScore++)
-            if (bEntry[pScore] != bRequest[pScore])
-                break;
+        // continue index-based resp from the matched request
+        mReplayIndex = matchedIndex;
+        NfcComm response = getIndexBasedResponse(request);
+        if (response == null)
+            return null;
 
-        // combine
-        return pScore + lScore;
+        byte[] patched = mTemplates.patch(matchedIndex, data, mReplayIndex - 1);
+        return patched == null ? response : new NfcComm(response.isCard(), response.isInitial(), patched);
     }
 }
@@ -10,14 +10,19 @@ import android.nfc.NfcAdapter;
 import android.nfc.Tag;
 import android.util.Log;
 
+import androidx.preference.PreferenceManagerFix;
+
 import de.tu_darmstadt.seemoo.nfcgate.gui.MainActivity;
 import de.tu_darmstadt.seemoo.nfcgate.network.NetworkManager;
 import de.tu_darmstadt.seemoo.nfcgate.network.data.NetworkStatus;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.hce.ApduService;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.hce.DaemonManager;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.modes.BaseMode;
+import de.tu_darmstadt.seemoo.nfcgate.nfc.reader.EmvPredictor;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.reader.NFCTagReader;
+import de.tu_darmstadt.seemoo.nfcgate.nfc.reader.TransceivePipeline;
 import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
+import de.tu_darmstadt.seemoo.nfcgate.util.RelayStats;
 
 public class NfcManager implements NfcAdapter.ReaderCallback, NetworkManager.Callback {
     private static final String TAG = "NfcManager";
@@ -49,12 +54,15 @@ public class NfcManager implements NfcAdapter.ReaderCallback, NetworkManager.Cal
     private DaemonManager mDaemon;
     private NetworkManager mNetwork;
     private StatusChangedListener mStatusChanged;
+    private final RelayExecutor mExecutor = new RelayExecutor();
 
-    // state
-    private boolean mReaderMode = false;
-    private boolean mPollingEnabled = true;
-    private NFCTagReader mReader;
-    private BaseMode mMode = null;
+    // state, mode and reader are only changed on the relay executor
+    private volatile boolean mReaderMode = false;
+    private volatile boolean mPollingEnabled = true;
+    private volatile NFCTagReader mReader;
+    // null if tag commands are sent strictly one after another
+    private TransceivePipeline mPipeline;
+    private volatile BaseMode mMode = null;
 
     public NfcManager(MainActivity activity) {
         mActivity = activity;
@@ -132,19 +140,30 @@ public class NfcManager implements NfcAdapter.ReaderCallback, NetworkManager.Cal
             enableDisableReaderMode();
     }
 
-    public void startMode(BaseMode mode) {
-        mMode = mode;
+    public void startMode(final BaseMode mode) {
+        // ordered with data of the previous mode
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mMode = mode;
 
-        // enable
-        mode.setManager(this);
-        mode.onEnable();
+                // enable
+                mode.setManager(NfcManager.this);
+                mode.onEnable();
+            }
+        });
     }
 
     public void stopMode() {
-        if (mMode != null)
-            mMode.onDisable();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mMode != null)
+                    mMode.onDisable();
 
-        mMode = null;
+                mMode = null;
+            }
+        });
     }
 
     /**
@@ -161,6 +180,13 @@ public class NfcManager implements NfcAdapter.ReaderCallback, NetworkManager.Cal
         return mNetwork;
     }
 
+    /**
+     * Get the executor running modes and relay data
+     */
+    public RelayExecutor getExecutor() {
+        return mExecutor;
+    }
+
     /**
      * Allows the ApduService to set its reference in the manager
      */
@@ -191,35 +217,63 @@ public class NfcManager implements NfcAdapter.ReaderCallback, NetworkManager.Cal
         }
     }
 
+    /**
+     * Stop the relay executor after the current mode was stopped
+     */
+    public void onDestroy() {
+        stopMode();
+        mExecutor.quit();
+    }
+
     /**
      * Called for every discovered tag
      */
     @Override
-    public void onTagDiscovered(Tag tag) {
-        // Select technology by tag
-        mReader = NFCTagReader.create(tag);
+    public void onTagDiscovered(final Tag tag) {
+        // connecting blocks, the reader is owned by the relay executor
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Select technology by tag
+                mReader = NFCTagReader.create(tag);
 
-        if (mReader != null) {
-            Log.i(TAG, "Discovered new Tag: " + mReader.getClass().getName());
+                if (mReader != null) {
+                    Log.i(TAG, "Discovered new Tag: " + mReader.getClass().getName());
 
-            // connect to tag
-            mReader.connect();
+                    // connect to tag
+                    mReader.connect();
+                    createPipeline();
 
-            // handle initial card data according to mode
-            handleData(false, new NfcComm(true, true, mReader.getConfig().build()));
-        }
+                    // handle initial card data according to mode
+                    handleData(false, new NfcComm(true, true, mReader.getConfig().build()));
+                }
+            }
+        });
     }
 
     /**
-     * Handles card data by mode
+     * Handles card data by mode on the relay executor, may be called from any thread
      */
-    public void handleData(boolean isForeign, NfcComm data) {
-        Log.v(TAG, "handleData foreign: " + isForeign + ", " + data.getData().length + " bytes");
+    public void handleData(final boolean isForeign, final NfcComm data) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Log.v(TAG, "handleData foreign: " + isForeign + ", " + data.getData().length + " bytes");
 
-        if (mMode != null)
-            mMode.onData(isForeign, data);
-        else
-            mReader.close();
+                if (mMode != null)
+                    mMode.onData(isForeign, data);
+                else if (mReader != null)
+                    closeReader();
+            }
+        });
+    }
+
+    /**
+     * Returns the response of the current mode to a reader command if it can answer immediately
+     */
+    public byte[] getFastPathResponse(byte[] command) {
+        BaseMode mode = mMode;
+        return mode != null ? mode.onFastPath(command) : null;
     }
 
     /**
@@ -240,10 +294,12 @@ public class NfcManager implements NfcAdapter.ReaderCallback, NetworkManager.Cal
     }
 
     /**
-     * Applies own or foreign data
+     * Applies own or foreign data, called by modes on the relay executor
      */
     public void applyData(NfcComm data) {
         Log.v(TAG, "applyData of " + data.getData().length + " bytes");
+        if (data.getReceivedAt() != 0)
+            RelayStats.getInstance().record(RelayStats.Hop.RECEIVE_DISPATCH, System.nanoTime() - data.getReceivedAt());
 
         if (data.isInitial()) {
             // send configuration to service, also disables polling
@@ -252,7 +308,9 @@ public class NfcManager implements NfcAdapter.ReaderCallback, NetworkManager.Cal
         }
         else if (mReaderMode) {
             // send data to tag and get reply
-            byte[] reply = mReader.transceive(data.getData());
+            long start = System.nanoTime();
+            byte[] reply = mPipeline != null ? mPipeline.transceive(data.getData()) : mReader.transceive(data.getData());
+            RelayStats.getInstance().record(RelayStats.Hop.TAG_TRANSCEIVE, System.nanoTime() - start);
 
             // send reply
             if (reply == null)
@@ -273,23 +331,44 @@ public class NfcManager implements NfcAdapter.ReaderCallback, NetworkManager.Cal
      * Forward status to current mode
      */
     @Override
-    public void onNetworkStatus(NetworkStatus status) {
-        if (mMode != null)
-            mMode.onNetworkStatus(status);
+    public void onNetworkStatus(final NetworkStatus status) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mMode != null)
+                    mMode.onNetworkStatus(status);
+            }
+        });
     }
 
     // PRIVATE
 
     @Override
-    public void onReceive(final NfcComm data) {
-        mActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                // handle data on UI thread
-                // use our timestamp instead of the remote
-                handleData(true, new NfcComm(data.isCard(), data.isInitial(), data.getData()));
-            }
-        });
+    public void onReceive(NfcComm data) {
+        // handled on the relay executor, UI updates are posted by the modes
+        // use our timestamp instead of the remote
+        NfcComm local = new NfcComm(data.isCard(), data.isInitial(), data.getData());
+        local.setReceivedAt(data.getReceivedAt());
+        handleData(true, local);
+    }
+
+    /**
+     * Replaces the pipeline of the previous tag if prefetching is enabled
+     */
+    private void createPipeline() {
+        if (mPipeline != null)
+            mPipeline.close();
+
+        boolean prefetch = PreferenceManagerFix.getDefaultSharedPreferences(mActivity).getBoolean("prefetch", false);
+        mPipeline = prefetch ? new TransceivePipeline(mReader, new EmvPredictor()) : null;
+    }
+
+    private void closeReader() {
+        if (mPipeline != null)
+            mPipeline.close();
+
+        mPipeline = null;
+        mReader.close();
     }
 
     /**
@@ -0,0 +1,52 @@
+package de.tu_darmstadt.seemoo.nfcgate.nfc;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Single high priority thread owning the mode state machine and all relay data handling.
+ * Keeps blocking tag I/O off the UI thread and UI work out of the relay path.
+ */
+public class RelayExecutor {
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    public RelayExecutor() {
+        mThread = new HandlerThread("RelayExecutor", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Indicates whether the caller runs on the relay thread
+     */
+    public boolean isCurrentThread() {
+        return Looper.myLooper() == mThread.getLooper();
+    }
+
+    /**
+     * Runs the task in order after all previously posted tasks
+     */
+    public void post(Runnable task) {
+        mHandler.post(task);
+    }
+
+    /**
+     * Runs the task directly if called on the relay thread, otherwise posts it
+     */
+    public void execute(Runnable task) {
+        if (isCurrentThread())
+            task.run();
+        else
+            post(task);
+    }
+
+    /**
+     * Finishes all posted tasks and stops the thread
+     */
+    public void quit() {
+        mThread.quitSafely();
+    }
+}
@@ -0,0 +1,221 @@
+package de.tu_darmstadt.seemoo.nfcgate.nfc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Byte trie over the logged messages of one side, built once per replay session.
+ *
+ * Finds the message scoring best against a request like {@link NfcLogReplayer}'s pattern mode:
+ * common prefix length plus up to 10 points for a similar length, ties are broken by the forward
+ * distance from the current log index. Each node keeps the sorted log indices of all messages
+ * below it, grouped by message length, so a lookup only visits the request's path and does not
+ * allocate.
+ */
+class ReplayIndex {
+    // a message of exactly the request length scores this much on top of the common prefix
+    private static final int LENGTH_SCORE = 10;
+
+    private static class Node {
+        // children sorted by key byte
+        byte[] keys;
+        Node[] children;
+
+        // sorted distinct lengths of messages below, with their sorted log indices
+        int[] lengths;
+        int[][] indicesByLength;
+        int[] indices;
+    }
+
+    private final Node mRoot;
+    private final int mLogSize;
+    // nodes on the path of the current request, reused for each lookup
+    private final Node[] mPath;
+
+    /**
+     * @param card index messages of the card if true, of the reader otherwise
+     */
+    ReplayIndex(ReplayLog log, boolean card) {
+        BuildNode root = new BuildNode();
+        int maxLength = 0;
+
+        for (int i = 0; i < log.size(); i++) {
+            if (log.isCard(i) != card)
+                continue;
+
+            int length = log.getLength(i);
+            maxLength = Math.max(maxLength, length);
+
+            BuildNode node = root;
+            node.add(length, i);
+            for (int position = 0; position < length; position++) {
+                node = node.child(log.getByte(i, position));
+                node.add(length, i);
+            }
+        }
+
+        mRoot = root.freeze();
+        mLogSize = log.size();
+        mPath = new Node[maxLength + 1];
+    }
+
+    /**
+     * Returns the log index of the best scoring message or -1 if no message is indexed
+     */
+    int find(byte[] request, int currentIndex) {
+        if (mRoot.indices.length == 0)
+            return -1;
+
+        // follow the request as deep as logged messages share its prefix
+        int depth = 0;
+        mPath[0] = mRoot;
+        while (depth < request.length && depth + 1 < mPath.length) {
+            Node child = childOf(mPath[depth], request[depth]);
+            if (child == null)
+                break;
+
+            mPath[++depth] = child;
+        }
+
+        int bestIndex = -1, bestScore = -1, bestRank = Integer.MAX_VALUE;
+
+        // a message below depth d shares at least d bytes, its true score is found at its own depth
+        for (int d = depth; d >= 0 && d + LENGTH_SCORE >= bestScore; d--) {
+            Node node = mPath[d];
+
+            // messages of similar length
+            int from = lowerBound(node.lengths, request.length - LENGTH_SCORE + 1);
+            for (int i = from; i < node.lengths.length && node.lengths[i] < request.length + LENGTH_SCORE; i++) {
+                int score = d + LENGTH_SCORE - Math.abs(node.lengths[i] - request.length);
+                if (score < bestScore)
+                    continue;
+
+                int index = nextIndex(node.indicesByLength[i], currentIndex);
+                int rank = rank(index, currentIndex);
+                if (score > bestScore || rank < bestRank) {
+                    bestIndex = index;
+                    bestScore = score;
+                    bestRank = rank;
+                }
+            }
+
+            // any other message scores the prefix only
+            if (d >= bestScore) {
+                int index = nextIndex(node.indices, currentIndex);
+                int rank = rank(index, currentIndex);
+                if (d > bestScore || rank < bestRank) {
+                    bestIndex = index;
+                    bestScore = d;
+                    bestRank = rank;
+                }
+            }
+        }
+
+        return bestIndex;
+    }
+
+    /**
+     * Forward distance from the current index, wrapping around at the end of the log
+     */
+    private int rank(int index, int currentIndex) {
+        if (index > currentIndex)
+            return index - currentIndex;
+        else
+            return Math.max(0, mLogSize - currentIndex) + index;
+    }
+
+    /**
+     * Returns the first index after the current one or the lowest index
+     */
+    private static int nextIndex(int[] sorted, int currentIndex) {
+        int i = lowerBound(sorted, currentIndex + 1);
+        return i < sorted.length ? sorted[i] : sorted[0];
+    }
+
+    /**
+     * Returns the position of the first value not less than key
+     */
+    private static int lowerBound(int[] sorted, int key) {
+        int low = 0, high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static Node childOf(Node node, byte key) {
+        int i = Arrays.binarySearch(node.keys, key);
+        return i >= 0 ? node.children[i] : null;
+    }
+
+    /**
+     * Mutable node used while building the trie
+     */
+    private static class BuildNode {
+        final TreeMap<Byte, BuildNode> children = new TreeMap<>();
+        final TreeMap<Integer, List<Integer>> indicesByLength = new TreeMap<>();
+        int count = 0;
+
+        BuildNode child(byte key) {
+            BuildNode child = children.get(key);
+            if (child == null) {
+                child = new BuildNode();
+                children.put(key, child);
+            }
+            return child;
+        }
+
+        void add(int length, int index) {
+            List<Integer> indices = indicesByLength.get(length);
+            if (indices == null) {
+                indices = new ArrayList<>();
+                indicesByLength.put(length, indices);
+            }
+
+            // indices are added in ascending order
+            indices.add(index);
+            count++;
+        }
+
+        Node freeze() {
+            Node node = new Node();
+
+            node.keys = new byte[children.size()];
+            node.children = new Node[children.size()];
+            int c = 0;
+            for (Map.Entry<Byte, BuildNode> entry : children.entrySet()) {
+                node.keys[c] = entry.getKey();
+                node.children[c++] = entry.getValue().freeze();
+            }
+
+            node.lengths = new int[indicesByLength.size()];
+            node.indicesByLength = new int[indicesByLength.size()][];
+            node.indices = new int[count];
+            int l = 0, n = 0;
+            for (Map.Entry<Integer, List<Integer>> entry : indicesByLength.entrySet()) {
+                node.lengths[l] = entry.getKey();
+                node.indicesByLength[l] = toArray(entry.getValue());
+                for (int index : node.indicesByLength[l])
+                    node.indices[n++] = index;
+                l++;
+            }
+            Arrays.sort(node.indices);
+
+            return node;
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            int[] result = new int[list.size()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = list.get(i);
+            return result;
+        }
+    }
+}
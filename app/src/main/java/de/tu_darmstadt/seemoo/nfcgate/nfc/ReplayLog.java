@@ -0,0 +1,88 @@
+package de.tu_darmstadt.seemoo.nfcgate.nfc;
+
+import java.util.List;
+
+import de.tu_darmstadt.seemoo.nfcgate.db.NfcCommEntry;
+import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
+
+/**
+ * Immutable, decoded session log for replay. The data of all messages is stored in one
+ * contiguous arena, messages are addressed by their index in the log.
+ */
+public class ReplayLog {
+    private static final byte FLAG_CARD = 1;
+    private static final byte FLAG_INITIAL = 2;
+
+    private final byte[] mArena;
+    private final int[] mOffsets;
+    private final int[] mLengths;
+    private final byte[] mFlags;
+
+    /**
+     * Decodes all entries once
+     */
+    public ReplayLog(List<NfcCommEntry> entries) {
+        int size = entries.size(), total = 0;
+        mOffsets = new int[size];
+        mLengths = new int[size];
+        mFlags = new byte[size];
+
+        for (int i = 0; i < size; i++) {
+            NfcComm comm = entries.get(i).getNfcComm();
+
+            mOffsets[i] = total;
+            mLengths[i] = comm.getDataLength();
+            mFlags[i] = (byte) ((comm.isCard() ? FLAG_CARD : 0) | (comm.isInitial() ? FLAG_INITIAL : 0));
+            total += mLengths[i];
+        }
+
+        mArena = new byte[total];
+        for (int i = 0; i < size; i++)
+            entries.get(i).getNfcComm().copyData(mArena, mOffsets[i]);
+    }
+
+    public int size() {
+        return mOffsets.length;
+    }
+
+    public boolean isCard(int index) {
+        return (mFlags[index] & FLAG_CARD) != 0;
+    }
+
+    public boolean isInitial(int index) {
+        return (mFlags[index] & FLAG_INITIAL) != 0;
+    }
+
+    public int getLength(int index) {
+        return mLengths[index];
+    }
+
+    /**
+     * Returns a byte of the message at index
+     */
+    public byte getByte(int index, int position) {
+        return mArena[mOffsets[index] + position];
+    }
+
+    /**
+     * Indicates whether the message at index has exactly the given data
+     */
+    public boolean dataEquals(int index, byte[] data) {
+        if (mLengths[index] != data.length)
+            return false;
+
+        int offset = mOffsets[index];
+        for (int i = 0; i < data.length; i++)
+            if (mArena[offset + i] != data[i])
+                return false;
+
+        return true;
+    }
+
+    /**
+     * Creates a new communication with the current time from the message at index
+     */
+    public NfcComm toNfcComm(int index) {
+        return new NfcComm(isCard(index), isInitial(index), mArena, mOffsets[index], mLengths[index]);
+    }
+}
@@ -0,0 +1,331 @@
+package de.tu_darmstadt.seemoo.nfcgate.nfc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request templates with wildcard bytes for the template replay mode.
+ *
+ * Requests are grouped by shape: length and the four header bytes. Positions whose bytes differ
+ * between requests of the same shape, in the replayed log or in other captured sessions, are
+ * wildcards. For reader commands the data field of GET PROCESSING OPTIONS, GENERATE AC and
+ * INTERNAL AUTHENTICATE is always a wildcard, it carries unpredictable numbers, amounts and dates.
+ *
+ * A request is matched by hashing its non-wildcard bytes, which takes one pass over the request
+ * and two table lookups. Captured responses that echo wildcard bytes of their request are patched
+ * with the bytes of the live request.
+ */
+class ReplayTemplates {
+    private static final int HEADER_LENGTH = 4;
+    private static final int APDU_DATA_OFFSET = 5;
+    // shorter wildcard runs are likely to occur in a response by chance
+    private static final int MIN_ECHO_LENGTH = 4;
+
+    private static final byte INS_SELECT = (byte) 0xA4;
+    private static final byte INS_GPO = (byte) 0xA8;
+    private static final byte INS_GENERATE_AC = (byte) 0xAE;
+    private static final byte INS_INTERNAL_AUTHENTICATE = (byte) 0x88;
+
+    private final ReplayLog mLog;
+    private final boolean mCard;
+
+    // shape key -> wildcard mask, true marks a wildcard
+    private final LongTable<boolean[]> mMasks = new LongTable<>();
+    // shape and masked hash -> sorted log indices of matching requests
+    private final LongTable<int[]> mRequests = new LongTable<>();
+    // per log index: triples of response offset, request offset and length to copy from the request
+    private final int[][] mEchoes;
+
+    /**
+     * @param log log being replayed
+     * @param training other captured messages to learn variable positions from, may be null
+     * @param card templates for messages of the card if true, of the reader otherwise
+     */
+    ReplayTemplates(ReplayLog log, ReplayLog training, boolean card) {
+        mLog = log;
+        mCard = card;
+        mEchoes = new int[log.size()][];
+
+        // first request of each shape, compared against all others
+        Map<Long, byte[]> references = new HashMap<>();
+        learn(log, references);
+        if (training != null)
+            learn(training, references);
+
+        index();
+    }
+
+    /**
+     * Returns the log index of the first request at or after the current index matching the
+     * template of the request, the lowest matching index, or -1 if none matches
+     */
+    int find(byte[] request, int currentIndex) {
+        long shape = shapeOf(request);
+        boolean[] mask = mMasks.get(shape);
+        if (mask == null)
+            return -1;
+
+        int[] indices = mRequests.get(mix(shape, maskedHash(request, mask)));
+        if (indices == null)
+            return -1;
+
+        int i = Arrays.binarySearch(indices, currentIndex);
+        int index = indices[i >= 0 ? i : (-i - 1 < indices.length ? -i - 1 : 0)];
+
+        // hash collision
+        for (int p = 0; p < request.length; p++)
+            if (!mask[p] && mLog.getByte(index, p) != request[p])
+                return -1;
+
+        return index;
+    }
+
+    /**
+     * Returns the data of the response at responseIndex with echoed wildcard bytes taken from the
+     * live request, or null if the response needs no patching
+     */
+    byte[] patch(int requestIndex, byte[] request, int responseIndex) {
+        int[] echoes = mEchoes[requestIndex];
+        if (echoes == null || responseIndex != requestIndex + 1)
+            return null;
+
+        byte[] result = copyOf(mLog, responseIndex);
+        for (int e = 0; e < echoes.length; e += 3)
+            System.arraycopy(request, echoes[e + 1], result, echoes[e], echoes[e + 2]);
+
+        return result;
+    }
+
+    /**
+     * Marks positions differing between requests of the same shape as wildcards
+     */
+    private void learn(ReplayLog log, Map<Long, byte[]> references) {
+        for (int i = 0; i < log.size(); i++) {
+            if (log.isCard(i) != mCard || log.isInitial(i))
+                continue;
+
+            long shape = shapeOf(log, i);
+            boolean[] mask = mMasks.get(shape);
+            if (mask == null) {
+                mask = createMask(log, i);
+                mMasks.put(shape, mask);
+            }
+
+            // selection is by name, different names are different requests
+            if (isCommand(log, i, INS_SELECT))
+                continue;
+
+            byte[] reference = references.get(shape);
+            if (reference == null) {
+                references.put(shape, copyOf(log, i));
+                continue;
+            }
+
+            for (int p = HEADER_LENGTH; p < mask.length; p++)
+                if (log.getByte(i, p) != reference[p])
+                    mask[p] = true;
+        }
+    }
+
+    /**
+     * Indexes the requests of the replayed log and finds echoed wildcard runs
+     */
+    private void index() {
+        Map<Long, List<Integer>> requests = new HashMap<>();
+
+        for (int i = 0; i < mLog.size(); i++) {
+            if (mLog.isCard(i) != mCard || mLog.isInitial(i))
+                continue;
+
+            long shape = shapeOf(mLog, i);
+            boolean[] mask = mMasks.get(shape);
+
+            byte[] request = copyOf(mLog, i);
+
+            long key = mix(shape, maskedHash(request, mask));
+            List<Integer> indices = requests.get(key);
+            if (indices == null) {
+                indices = new ArrayList<>();
+                requests.put(key, indices);
+            }
+            indices.add(i);
+
+            if (i + 1 < mLog.size() && mLog.isCard(i + 1) != mCard)
+                mEchoes[i] = findEchoes(request, mask, i + 1);
+        }
+
+        for (Map.Entry<Long, List<Integer>> entry : requests.entrySet()) {
+            int[] indices = new int[entry.getValue().size()];
+            for (int i = 0; i < indices.length; i++)
+                indices[i] = entry.getValue().get(i);
+
+            mRequests.put(entry.getKey(), indices);
+        }
+    }
+
+    /**
+     * Finds wildcard bytes of the request that occur in the response, at least MIN_ECHO_LENGTH
+     * consecutive ones. Each wildcard position is part of at most one echo.
+     */
+    private int[] findEchoes(byte[] request, boolean[] mask, int responseIndex) {
+        List<Integer> echoes = new ArrayList<>();
+        int responseLength = mLog.getLength(responseIndex);
+
+        for (int start = 0; start < mask.length; start++) {
+            if (!mask[start])
+                continue;
+
+            // longest match in the response of wildcard bytes beginning at start
+            int bestOffset = -1, bestLength = 0;
+            for (int r = 0; r < responseLength; r++) {
+                int length = 0;
+                while (start + length < mask.length && mask[start + length] && r + length < responseLength
+                        && request[start + length] == mLog.getByte(responseIndex, r + length))
+                    length++;
+
+                if (length > bestLength) {
+                    bestOffset = r;
+                    bestLength = length;
+                }
+            }
+
+            if (bestLength >= MIN_ECHO_LENGTH) {
+                echoes.add(bestOffset);
+                echoes.add(start);
+                echoes.add(bestLength);
+                start += bestLength - 1;
+            }
+        }
+
+        if (echoes.isEmpty())
+            return null;
+
+        int[] result = new int[echoes.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = echoes.get(i);
+        return result;
+    }
+
+    /**
+     * Creates the initial mask of a request, with the data field of EMV commands carrying
+     * terminal data as wildcard
+     */
+    private boolean[] createMask(ReplayLog log, int index) {
+        boolean[] mask = new boolean[log.getLength(index)];
+
+        if (!mCard && mask.length > APDU_DATA_OFFSET && (isCommand(log, index, INS_GPO)
+                || isCommand(log, index, INS_GENERATE_AC) || isCommand(log, index, INS_INTERNAL_AUTHENTICATE))) {
+            // Lc bytes of data follow the header and Lc, an optional Le is not a wildcard
+            int dataEnd = Math.min(mask.length, APDU_DATA_OFFSET + (log.getByte(index, 4) & 0xFF));
+            for (int p = APDU_DATA_OFFSET; p < dataEnd; p++)
+                mask[p] = true;
+        }
+
+        return mask;
+    }
+
+    private static byte[] copyOf(ReplayLog log, int index) {
+        byte[] result = new byte[log.getLength(index)];
+        for (int p = 0; p < result.length; p++)
+            result[p] = log.getByte(index, p);
+        return result;
+    }
+
+    private static boolean isCommand(ReplayLog log, int index, byte ins) {
+        return log.getLength(index) > 1 && log.getByte(index, 1) == ins;
+    }
+
+    /**
+     * Length and up to four header bytes
+     */
+    private static long shapeOf(ReplayLog log, int index) {
+        long shape = log.getLength(index);
+        for (int p = 0; p < HEADER_LENGTH; p++)
+            shape = shape << 8 | (p < log.getLength(index) ? log.getByte(index, p) & 0xFF : 0);
+        return shape;
+    }
+
+    private static long shapeOf(byte[] request) {
+        long shape = request.length;
+        for (int p = 0; p < HEADER_LENGTH; p++)
+            shape = shape << 8 | (p < request.length ? request[p] & 0xFF : 0);
+        return shape;
+    }
+
+    /**
+     * FNV-1a over all non-wildcard bytes
+     */
+    private static long maskedHash(byte[] request, boolean[] mask) {
+        long hash = 0xcbf29ce484222325L;
+        for (int p = 0; p < request.length; p++) {
+            if (!mask[p]) {
+                hash ^= request[p] & 0xFF;
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long shape, long hash) {
+        return hash * 31 + shape;
+    }
+
+    /**
+     * Open addressing hash table with primitive long keys, lookups do not allocate
+     */
+    private static class LongTable<V> {
+        private long[] mKeys = new long[16];
+        private Object[] mValues = new Object[16];
+        private int mSize = 0;
+
+        @SuppressWarnings("unchecked")
+        V get(long key) {
+            int mask = mKeys.length - 1;
+            for (int i = slot(key, mask); mValues[i] != null; i = (i + 1) & mask)
+                if (mKeys[i] == key)
+                    return (V) mValues[i];
+
+            return null;
+        }
+
+        void put(long key, V value) {
+            if (2 * (mSize + 1) > mKeys.length)
+                grow();
+
+            int mask = mKeys.length - 1;
+            int i = slot(key, mask);
+            while (mValues[i] != null && mKeys[i] != key)
+                i = (i + 1) & mask;
+
+            if (mValues[i] == null)
+                mSize++;
+
+            mKeys[i] = key;
+            mValues[i] = value;
+        }
+
+        private void grow() {
+            long[] keys = mKeys;
+            Object[] values = mValues;
+            mKeys = new long[keys.length * 2];
+            mValues = new Object[values.length * 2];
+            mSize = 0;
+
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] != null) {
+                    @SuppressWarnings("unchecked")
+                    V value = (V) values[i];
+                    put(keys[i], value);
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & mask;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package de.tu_darmstadt.seemoo.nfcgate.nfc;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command to response lookup table compiled from a replay log, for answering reader commands
+ * directly in the HCE service. Only commands that are always answered with the same response
+ * in the log are included.
+ */
+public class ResponseTable {
+    private final Map<ByteBuffer, byte[]> mResponses = new HashMap<>();
+
+    public ResponseTable(ReplayLog log) {
+        Set<ByteBuffer> ambiguous = new HashSet<>();
+
+        for (int i = 0; i + 1 < log.size(); i++) {
+            // reader command directly followed by the card response
+            if (log.isCard(i) || log.isInitial(i) || !log.isCard(i + 1))
+                continue;
+
+            ByteBuffer command = ByteBuffer.wrap(copyOf(log, i));
+            byte[] response = copyOf(log, i + 1);
+            byte[] previous = mResponses.get(command);
+
+            if (previous == null && !ambiguous.contains(command))
+                mResponses.put(command, response);
+            else if (previous != null && !ByteBuffer.wrap(previous).equals(ByteBuffer.wrap(response))) {
+                // the answer depends on more than the command
+                mResponses.remove(command);
+                ambiguous.add(command);
+            }
+        }
+    }
+
+    /**
+     * Returns the response to the command or null if it cannot be answered from the table
+     */
+    public byte[] get(byte[] command) {
+        return mResponses.get(ByteBuffer.wrap(command));
+    }
+
+    public int size() {
+        return mResponses.size();
+    }
+
+    private static byte[] copyOf(ReplayLog log, int index) {
+        byte[] result = new byte[log.getLength(index)];
+        for (int p = 0; p < result.length; p++)
+            result[p] = log.getByte(index, p);
+        return result;
+    }
+}
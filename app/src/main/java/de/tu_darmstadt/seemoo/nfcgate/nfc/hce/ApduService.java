@@ -6,6 +6,7 @@ import android.util.Log;
 
 import de.tu_darmstadt.seemoo.nfcgate.nfc.NfcManager;
 import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
+import de.tu_darmstadt.seemoo.nfcgate.util.RelayStats;
 import de.tu_darmstadt.seemoo.nfcgate.util.Utils;
 
 /**
@@ -16,6 +17,8 @@ public class ApduService extends HostApduService {
     private final static String TAG = "ApduService";
 
     private NfcManager mNfcManager = NfcManager.getInstance();
+    // arrival of the relayed command awaiting its response or 0
+    private volatile long mCommandStart = 0;
 
     /**
      * Returning an empty APDU response causes the hce service to wait
@@ -34,8 +37,20 @@ public class ApduService extends HostApduService {
      */
     @Override
     public byte[] processCommandApdu(byte[] apdu, Bundle extras) {
+        long start = System.nanoTime();
         Log.d(TAG, "APDU-IN: " + Utils.bytesToHex(apdu));
 
+        // answer directly if the mode knows the response
+        byte[] response = mNfcManager.getFastPathResponse(apdu);
+        if (response != null) {
+            Log.d(TAG, "APDU-OUT: " + Utils.bytesToHex(response));
+            RelayStats.getInstance().record(RelayStats.Hop.HCE_ROUND_TRIP, System.nanoTime() - start);
+            return response;
+        }
+
+        // the reader waits for the response before it sends the next command
+        mCommandStart = start;
+
         // Package the ADPU into a NfcComm object
         NfcComm nfcdata = new NfcComm(false, false, apdu);
 
@@ -55,5 +70,10 @@ public class ApduService extends HostApduService {
     public void sendResponse(byte[] apdu) {
         Log.d(TAG, "APDU-OUT: " + Utils.bytesToHex(apdu));
         sendResponseApdu(apdu);
+
+        long start = mCommandStart;
+        mCommandStart = 0;
+        if (start != 0)
+            RelayStats.getInstance().record(RelayStats.Hop.HCE_ROUND_TRIP, System.nanoTime() - start);
     }
 }
@@ -19,4 +19,12 @@ public abstract class BaseMode {
     // action and log methods
     public abstract void onData(boolean isForeign, NfcComm data);
     public abstract void onNetworkStatus(NetworkStatus status);
+
+    /**
+     * Called on the HCE thread before a reader command is passed to onData.
+     * Returns the response to answer the command immediately or null to handle it by onData.
+     */
+    public byte[] onFastPath(byte[] command) {
+        return null;
+    }
 }
@@ -0,0 +1,119 @@
+package de.tu_darmstadt.seemoo.nfcgate.nfc.reader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Predicts the READ RECORD commands of an EMV terminal from the Application File Locator (AFL)
+ * in the GET PROCESSING OPTIONS response. The terminal reads all records listed in the AFL and
+ * READ RECORD does not change the state of the card.
+ */
+public class EmvPredictor implements TransceivePipeline.Predictor {
+    private static final byte INS_GPO = (byte) 0xA8;
+    private static final byte INS_READ_RECORD = (byte) 0xB2;
+    private static final byte INS_GET_DATA = (byte) 0xCA;
+    // limits prefetching on malformed AFLs
+    private static final int MAX_RECORDS = 32;
+
+    @Override
+    public List<byte[]> predict(byte[] command, byte[] response) {
+        if (command.length < 4 || command[1] != INS_GPO || !isSuccess(response))
+            return null;
+
+        byte[] afl = findAfl(response);
+        if (afl == null)
+            return null;
+
+        // each AFL entry: SFI << 3, first record, last record, records for offline authentication
+        List<byte[]> result = new ArrayList<>();
+        for (int i = 0; i + 4 <= afl.length; i += 4) {
+            int sfi = (afl[i] & 0xFF) >> 3;
+            int first = afl[i + 1] & 0xFF;
+            int last = afl[i + 2] & 0xFF;
+
+            for (int record = first; record <= last && result.size() < MAX_RECORDS; record++)
+                result.add(new byte[] { 0x00, INS_READ_RECORD, (byte) record, (byte) (sfi << 3 | 4), 0x00 });
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean keepsPredictions(byte[] command) {
+        // reading does not change which application is selected
+        return command.length >= 2 && (command[1] == INS_READ_RECORD || command[1] == INS_GET_DATA);
+    }
+
+    private static boolean isSuccess(byte[] response) {
+        return response.length >= 2
+                && response[response.length - 2] == (byte) 0x90
+                && response[response.length - 1] == 0x00;
+    }
+
+    /**
+     * Returns the AFL of response format 1 (tag 80) or format 2 (tag 77 containing tag 94)
+     */
+    private static byte[] findAfl(byte[] response) {
+        int end = response.length - 2;
+        int[] value = readLength(response, 1, end);
+        if (value == null)
+            return null;
+
+        // format 1: AIP (2 bytes) followed by the AFL
+        if (response[0] == (byte) 0x80)
+            return value[1] > 2 ? copy(response, value[0] + 2, value[1] - 2) : null;
+
+        if (response[0] != 0x77)
+            return null;
+
+        // format 2: search tag 94 in the template
+        int offset = value[0];
+        int templateEnd = value[0] + value[1];
+        while (offset < templateEnd) {
+            // tags of one or two bytes
+            int tag = response[offset++] & 0xFF;
+            if ((tag & 0x1F) == 0x1F && offset < templateEnd)
+                tag = tag << 8 | (response[offset++] & 0xFF);
+
+            int[] element = readLength(response, offset, templateEnd);
+            if (element == null)
+                return null;
+
+            if (tag == 0x94)
+                return copy(response, element[0], element[1]);
+
+            offset = element[0] + element[1];
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads a BER length at offset
+     *
+     * @return offset and length of the value or null if it exceeds end
+     */
+    private static int[] readLength(byte[] data, int offset, int end) {
+        if (offset >= end)
+            return null;
+
+        int length = data[offset++] & 0xFF;
+        if (length >= 0x80) {
+            int count = length & 0x7F;
+            if (count == 0 || count > 2 || offset + count > end)
+                return null;
+
+            length = 0;
+            for (int i = 0; i < count; i++)
+                length = length << 8 | (data[offset++] & 0xFF);
+        }
+
+        return offset + length <= end ? new int[] { offset, length } : null;
+    }
+
+    private static byte[] copy(byte[] data, int offset, int length) {
+        byte[] result = new byte[length];
+        System.arraycopy(data, offset, result, 0, length);
+        return result;
+    }
+}
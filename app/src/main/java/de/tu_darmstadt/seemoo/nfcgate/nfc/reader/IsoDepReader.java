@@ -5,6 +5,8 @@ import android.nfc.tech.IsoDep;
 
 import androidx.annotation.NonNull;
 
+import java.io.IOException;
+
 import de.tu_darmstadt.seemoo.nfcgate.nfc.config.ConfigBuilder;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.config.OptionType;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.config.Technologies;
@@ -22,7 +24,16 @@ public class IsoDepReader extends NFCTagReader {
      * @param tag: A tag using the IsoDep technology.
      */
     IsoDepReader(Tag tag, String underlying) {
-        super(IsoDep.get(tag));
+        this(IsoDep.get(tag), tag, underlying);
+    }
+
+    private IsoDepReader(final IsoDep reader, Tag tag, String underlying) {
+        super(reader, new Transceiver() {
+            @Override
+            public byte[] transceive(byte[] command) throws IOException {
+                return reader.transceive(command);
+            }
+        });
 
         // set extended timeout
         ((IsoDep) mReader).setTimeout(5000);
@@ -7,21 +7,31 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.List;
 
 import de.tu_darmstadt.seemoo.nfcgate.nfc.config.ConfigBuilder;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.config.Technologies;
+import de.tu_darmstadt.seemoo.nfcgate.util.RelayStats;
 
 /**
  * Interface to all NFCTagReader-Classes.
  */
 public abstract class NFCTagReader {
+    /**
+     * Typed transceive of a technology, there is no common interface for TagTechnology
+     */
+    interface Transceiver {
+        byte[] transceive(byte[] command) throws IOException;
+    }
+
     TagTechnology mReader;
+    private final Transceiver mTransceiver;
+    private volatile long mLastTransceiveTime = 0;
 
-    NFCTagReader(TagTechnology reader) {
+    NFCTagReader(TagTechnology reader, Transceiver transceiver) {
         mReader = reader;
+        mTransceiver = transceiver;
     }
 
     /**
@@ -60,15 +70,25 @@ public abstract class NFCTagReader {
      * @return byte[]-representation of the answer of the NFC chip
      */
     public byte[] transceive(byte[] command) {
+        long start = System.nanoTime();
         try {
-            // there is no common interface for TagTechnology...
-            Method transceive = mReader.getClass().getMethod("transceive", byte[].class);
-            return (byte[])transceive.invoke(mReader, command);
+            return mTransceiver.transceive(command);
         }
         catch (Exception e) {
             e.printStackTrace();
             return null;
         }
+        finally {
+            mLastTransceiveTime = System.nanoTime() - start;
+            RelayStats.getInstance().record(RelayStats.Hop.TAG_IO, mLastTransceiveTime);
+        }
+    }
+
+    /**
+     * Duration of the last transceive in nanoseconds, including failed ones
+     */
+    public long getLastTransceiveTime() {
+        return mLastTransceiveTime;
     }
 
     /**
@@ -4,6 +4,8 @@ import android.nfc.Tag;
 import android.nfc.tech.NfcA;
 import androidx.annotation.NonNull;
 
+import java.io.IOException;
+
 import de.tu_darmstadt.seemoo.nfcgate.nfc.config.ConfigBuilder;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.config.OptionType;
 
@@ -17,7 +19,16 @@ public class NfcAReader extends NFCTagReader {
      * @param tag: A tag using the NfcA technology.
      */
     NfcAReader(Tag tag) {
-        super(NfcA.get(tag));
+        this(NfcA.get(tag));
+    }
+
+    private NfcAReader(final NfcA reader) {
+        super(reader, new Transceiver() {
+            @Override
+            public byte[] transceive(byte[] command) throws IOException {
+                return reader.transceive(command);
+            }
+        });
     }
 
     @NonNull
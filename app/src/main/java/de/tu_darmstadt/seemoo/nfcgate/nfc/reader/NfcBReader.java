@@ -4,6 +4,8 @@ import android.nfc.Tag;
 import android.nfc.tech.NfcB;
 import androidx.annotation.NonNull;
 
+import java.io.IOException;
+
 import de.tu_darmstadt.seemoo.nfcgate.nfc.config.ConfigBuilder;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.config.OptionType;
 
@@ -17,7 +19,16 @@ public class NfcBReader extends NFCTagReader {
      * @param tag: A tag using the NfcB technology.
      */
     NfcBReader(Tag tag) {
-        super(NfcB.get(tag));
+        this(NfcB.get(tag));
+    }
+
+    private NfcBReader(final NfcB reader) {
+        super(reader, new Transceiver() {
+            @Override
+            public byte[] transceive(byte[] command) throws IOException {
+                return reader.transceive(command);
+            }
+        });
     }
 
     @NonNull
@@ -4,6 +4,8 @@ import android.nfc.Tag;
 import android.nfc.tech.NfcF;
 import androidx.annotation.NonNull;
 
+import java.io.IOException;
+
 import de.tu_darmstadt.seemoo.nfcgate.nfc.config.ConfigBuilder;
 import de.tu_darmstadt.seemoo.nfcgate.nfc.config.OptionType;
 
@@ -17,7 +19,16 @@ public class NfcFReader extends NFCTagReader {
      * @param tag: A tag using the NfcF technology.
      */
     NfcFReader(Tag tag) {
-        super(NfcF.get(tag));
+        this(NfcF.get(tag));
+    }
+
+    private NfcFReader(final NfcF reader) {
+        super(reader, new Transceiver() {
+            @Override
+            public byte[] transceive(byte[] command) throws IOException {
+                return reader.transceive(command);
+            }
+        });
     }
 
     @NonNull
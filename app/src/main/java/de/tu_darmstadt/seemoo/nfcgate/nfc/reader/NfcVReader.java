@@ -4,6 +4,8 @@ import android.nfc.Tag;
 import android.nfc.tech.NfcV;
 import androidx.annotation.NonNull;
 
+import java.io.IOException;
+
 import de.tu_darmstadt.seemoo.nfcgate.nfc.config.ConfigBuilder;
 
 /**
@@ -16,7 +18,16 @@ public class NfcVReader extends NFCTagReader {
      * @param tag: A tag using the NfcV technology.
      */
     NfcVReader(Tag tag) {
-        super(NfcV.get(tag));
+        this(NfcV.get(tag));
+    }
+
+    private NfcVReader(final NfcV reader) {
+        super(reader, new Transceiver() {
+            @Override
+            public byte[] transceive(byte[] command) throws IOException {
+                return reader.transceive(command);
+            }
+        });
     }
 
     @NonNull
@@ -0,0 +1,163 @@
+package de.tu_darmstadt.seemoo.nfcgate.nfc.reader;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import de.tu_darmstadt.seemoo.nfcgate.util.RelayStats;
+
+/**
+ * Performs all I/O with one tag on a worker thread. After each command, commands the remote reader
+ * is certain to send next are transceived speculatively and their answers are cached, so the
+ * matching command is answered without waiting for the tag.
+ *
+ * Commands of the remote reader are queued in front of speculative commands. Cached answers are
+ * matched without the Le of the command, remote readers differ in the Le they send.
+ */
+public class TransceivePipeline {
+    private static final String TAG = "TransceivePipeline";
+
+    public interface Predictor {
+        /**
+         * Returns commands certain to follow, or null. Predicted commands must not change the state
+         * of the tag, they may be sent without the remote reader ever sending them. Their answers
+         * must not depend on Le, a command that only differs in Le is answered from the cache.
+         */
+        List<byte[]> predict(byte[] command, byte[] response);
+
+        /**
+         * Indicates whether the answers of predicted commands stay valid after the command.
+         * Otherwise all cached answers are discarded before the command is sent.
+         */
+        boolean keepsPredictions(byte[] command);
+    }
+
+    private final NFCTagReader mReader;
+    private final Predictor mPredictor;
+    private final BlockingDeque<FutureTask<byte[]>> mQueue = new LinkedBlockingDeque<>();
+    private final Thread mWorker;
+
+    // speculative commands without Le queued, in progress or answered, only accessed by the caller of transceive
+    private final Map<ByteBuffer, FutureTask<byte[]>> mPrefetched = new HashMap<>();
+
+    public TransceivePipeline(NFCTagReader reader, Predictor predictor) {
+        mReader = reader;
+        mPredictor = predictor;
+
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted())
+                        mQueue.take().run();
+                } catch (InterruptedException ignored) { }
+            }
+        }, TAG);
+        mWorker.setDaemon(true);
+        mWorker.start();
+    }
+
+    /**
+     * Sends a command of the remote reader to the tag or answers it from the cache
+     *
+     * @return answer of the tag or null on error
+     */
+    public byte[] transceive(byte[] command) {
+        FutureTask<byte[]> task = mPrefetched.remove(keyOf(command));
+        RelayStats.getInstance().onPrefetch(task != null);
+
+        if (task == null) {
+            if (!mPredictor.keepsPredictions(command))
+                discardPrefetched();
+
+            task = createTask(command);
+            mQueue.offerFirst(task);
+        }
+
+        byte[] response = await(task);
+        if (response != null)
+            prefetch(mPredictor.predict(command, response));
+
+        return response;
+    }
+
+    /**
+     * Stops the worker, the reader is not closed
+     */
+    public void close() {
+        discardPrefetched();
+        mWorker.interrupt();
+    }
+
+    private void prefetch(List<byte[]> commands) {
+        if (commands == null)
+            return;
+
+        for (byte[] command : commands) {
+            ByteBuffer key = keyOf(command);
+            if (mPrefetched.containsKey(key))
+                continue;
+
+            FutureTask<byte[]> task = createTask(command);
+            mPrefetched.put(key, task);
+            mQueue.offerLast(task);
+        }
+    }
+
+    private void discardPrefetched() {
+        // queued commands are skipped, a command in progress completes
+        for (FutureTask<byte[]> task : mPrefetched.values())
+            task.cancel(false);
+
+        mPrefetched.clear();
+    }
+
+    /**
+     * Returns the command without its Le, commands with extended length are kept whole
+     */
+    static ByteBuffer keyOf(byte[] command) {
+        int length = command.length;
+
+        if (length == 5) {
+            // header and Le
+            length = 4;
+        }
+        else if (length > 5) {
+            // header, Lc, data and Le
+            int lc = command[4] & 0xFF;
+            if (lc != 0 && length == 6 + lc)
+                length--;
+        }
+
+        return ByteBuffer.wrap(command, 0, length);
+    }
+
+    private FutureTask<byte[]> createTask(final byte[] command) {
+        return new FutureTask<>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return mReader.transceive(command);
+            }
+        });
+    }
+
+    private static byte[] await(FutureTask<byte[]> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Transceive failed", e);
+        }
+
+        return null;
+    }
+}
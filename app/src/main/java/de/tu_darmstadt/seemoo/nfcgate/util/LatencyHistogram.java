@@ -0,0 +1,96 @@
+package de.tu_darmstadt.seemoo.nfcgate.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds with log-linear buckets.
+ * Values below 64 ns are exact, larger values are recorded with a relative error below 1/32.
+ * Recording is safe from any thread and does not allocate.
+ */
+public class LatencyHistogram {
+    // 32 linear sub-buckets per power of two
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR_COUNT = 2 * SUB_COUNT;
+    private static final int BUCKET_COUNT = LINEAR_COUNT + (63 - SUB_BITS - 1) * SUB_COUNT;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            return;
+
+        mBuckets.incrementAndGet(indexOf(nanos));
+        mCount.incrementAndGet();
+        mSum.addAndGet(nanos);
+
+        long max;
+        while (nanos > (max = mMax.get()) && !mMax.compareAndSet(max, nanos));
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * Returns the value below which the given fraction (0..1) of recorded values falls.
+     * Concurrent recording may make the result slightly inaccurate.
+     */
+    public long getPercentile(double fraction) {
+        long count = mCount.get();
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank)
+                return Math.min(highestValueOf(i), mMax.get());
+        }
+
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            mBuckets.set(i, 0);
+
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_COUNT)
+            return (int) value;
+
+        // value >>> shift is in [SUB_COUNT, 2 * SUB_COUNT)
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        int sub = (int) (value >>> shift) - SUB_COUNT;
+        return LINEAR_COUNT + (shift - 1) * SUB_COUNT + sub;
+    }
+
+    static long highestValueOf(int index) {
+        if (index < LINEAR_COUNT)
+            return index;
+
+        int shift = (index - LINEAR_COUNT) / SUB_COUNT + 1;
+        long sub = (index - LINEAR_COUNT) % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
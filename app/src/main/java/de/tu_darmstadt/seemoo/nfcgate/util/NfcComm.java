@@ -11,6 +11,8 @@ import de.tu_darmstadt.seemoo.nfcgate.network.c2c.C2C.NFCData;
  */
 public class NfcComm {
     private NFCData mData;
+    // System.nanoTime() when received from the network, 0 for local data
+    private long mReceivedAt = 0;
 
     /**
      * Instantiate a NfcComm object for regular NFC Traffic
@@ -23,11 +25,22 @@ public class NfcComm {
      * Instantiate a NfcComm object for regular NFC Traffic
      */
     public NfcComm(boolean fromCard, boolean isInitial, byte[] data, long timestamp) {
+        this(fromCard, isInitial, ByteString.copyFrom(data), timestamp);
+    }
+
+    /**
+     * Instantiate a NfcComm object for regular NFC Traffic from a part of a larger buffer
+     */
+    public NfcComm(boolean fromCard, boolean isInitial, byte[] buffer, int offset, int length) {
+        this(fromCard, isInitial, ByteString.copyFrom(buffer, offset, length), System.currentTimeMillis());
+    }
+
+    private NfcComm(boolean fromCard, boolean isInitial, ByteString data, long timestamp) {
         mData = NFCData.newBuilder()
                 .setDataSource(fromCard ? NFCData.DataSource.CARD : NFCData.DataSource.READER)
                 .setDataType(isInitial ? NFCData.DataType.INITIAL : NFCData.DataType.CONTINUATION)
                 .setTimestamp(timestamp)
-                .setData(ByteString.copyFrom(data))
+                .setData(data)
                 .build();
     }
 
@@ -42,6 +55,17 @@ public class NfcComm {
         }
     }
 
+    /**
+     * Instantiate a NfcComm object from serialized data without copying it first
+     */
+    public NfcComm(ByteString data) {
+        try {
+            mData = NFCData.parseFrom(data);
+        } catch (InvalidProtocolBufferException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * True if initial data, false on continuation
      */
@@ -70,6 +94,31 @@ public class NfcComm {
         return mData.getData().toByteArray();
     }
 
+    /**
+     * Length of the data returned by getData
+     */
+    public int getDataLength() {
+        return mData.getData().size();
+    }
+
+    /**
+     * Copies the data returned by getData into target without an intermediate array
+     */
+    public void copyData(byte[] target, int offset) {
+        mData.getData().copyTo(target, offset);
+    }
+
+    /**
+     * System.nanoTime() when this was received from the network or 0, not serialized
+     */
+    public long getReceivedAt() {
+        return mReceivedAt;
+    }
+
+    public void setReceivedAt(long receivedAt) {
+        mReceivedAt = receivedAt;
+    }
+
     /**
      * Returns serialized NFCData
      */
@@ -0,0 +1,68 @@
+package de.tu_darmstadt.seemoo.nfcgate.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of each hop an APDU takes through this device during relay, measured with System.nanoTime().
+ * Hops are measured locally, so each device of a relay only reports its own side.
+ */
+public class RelayStats {
+    public enum Hop {
+        // HCE: command APDU from the reader until its response is passed to HCE
+        HCE_ROUND_TRIP,
+        // message received from the network until it is applied to HCE or the tag
+        RECEIVE_DISPATCH,
+        // relay waiting for the answer of the tag to one APDU, including prefetched answers
+        TAG_TRANSCEIVE,
+        // I/O of one APDU with the tag, including speculative APDUs
+        TAG_IO,
+        // message queued for sending until written to the socket
+        SEND_QUEUE,
+    }
+
+    private static final RelayStats mInstance = new RelayStats();
+    public static RelayStats getInstance() {
+        return mInstance;
+    }
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[Hop.values().length];
+    // tag commands answered from prefetched responses or sent to the tag
+    private final AtomicLong mPrefetchHits = new AtomicLong();
+    private final AtomicLong mPrefetchMisses = new AtomicLong();
+
+    private RelayStats() {
+        for (int i = 0; i < mHistograms.length; i++)
+            mHistograms[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Records one measurement of the hop, callers keep the start time with the request they time
+     */
+    public void record(Hop hop, long nanos) {
+        mHistograms[hop.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram get(Hop hop) {
+        return mHistograms[hop.ordinal()];
+    }
+
+    public void onPrefetch(boolean hit) {
+        (hit ? mPrefetchHits : mPrefetchMisses).incrementAndGet();
+    }
+
+    public long getPrefetchHits() {
+        return mPrefetchHits.get();
+    }
+
+    public long getPrefetchMisses() {
+        return mPrefetchMisses.get();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms)
+            histogram.reset();
+
+        mPrefetchHits.set(0);
+        mPrefetchMisses.set(0);
+    }
+}
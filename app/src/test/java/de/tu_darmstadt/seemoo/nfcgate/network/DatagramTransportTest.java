@@ -0,0 +1,225 @@
+package de.tu_darmstadt.seemoo.nfcgate.network;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.tu_darmstadt.seemoo.nfcgate.network.c2s.C2S;
+import de.tu_darmstadt.seemoo.nfcgate.network.data.NetworkStatus;
+import de.tu_darmstadt.seemoo.nfcgate.network.transport.DatagramTransport;
+import de.tu_darmstadt.seemoo.nfcgate.server.RelayServer;
+
+import static de.tu_darmstadt.seemoo.nfcgate.network.c2s.C2S.ServerData.Opcode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Relays messages between a DatagramTransport with loss injection and a TCP client through the
+ * reference RelayServer on the loopback interface
+ */
+public class DatagramTransportTest {
+    private static final int SESSION = 1;
+    private static final int MESSAGES = 500;
+    private static final double LOSS_RATE = 0.1;
+
+    private Thread mServer;
+    private int mPort;
+
+    /**
+     * Counts OP_PSH messages and checks they arrive in order
+     */
+    private static class Receiver implements ServerConnection.Callback {
+        final List<NetworkStatus> statuses = new CopyOnWriteArrayList<>();
+        final CountDownLatch joined = new CountDownLatch(1);
+        final CountDownLatch received = new CountDownLatch(MESSAGES);
+        volatile int next = 0;
+        volatile boolean ordered = true;
+        ServerConnection echo;
+
+        @Override
+        public void onReceive(ByteBuffer data) {
+            C2S.ServerData message;
+            try {
+                message = C2S.ServerData.parseFrom(data);
+            } catch (InvalidProtocolBufferException e) {
+                throw new AssertionError(e);
+            }
+
+            if (message.getOpcode() == Opcode.OP_SYN)
+                joined.countDown();
+            if (message.getOpcode() != Opcode.OP_PSH)
+                return;
+
+            if (message.getData().asReadOnlyByteBuffer().getInt() != next++)
+                ordered = false;
+            if (echo != null)
+                echo.send(SESSION, message.toByteArray());
+            received.countDown();
+        }
+
+        @Override
+        public void onNetworkStatus(NetworkStatus status) {
+            statuses.add(status);
+        }
+    }
+
+    @After
+    public void stopServer() throws InterruptedException {
+        if (mServer != null) {
+            mServer.interrupt();
+            mServer.join(1000);
+        }
+    }
+
+    @Test
+    public void relaysInOrderDespiteLoss() throws Exception {
+        startServer(true);
+
+        Receiver datagramSide = new Receiver();
+        Receiver tcpSide = new Receiver();
+        ServerConnection datagram = new ServerConnection("127.0.0.1", mPort)
+                .setCallback(datagramSide)
+                .setTransport(new DatagramTransport().setLossRate(LOSS_RATE));
+        ServerConnection tcp = new ServerConnection("127.0.0.1", mPort)
+                .setCallback(tcpSide);
+        tcpSide.echo = tcp;
+
+        join(datagram, tcp, datagramSide);
+        for (int i = 0; i < MESSAGES; i++)
+            datagram.send(SESSION, message(i));
+
+        assertTrue(datagram.flush(SESSION, 20000));
+        assertTrue(tcpSide.received.await(20, TimeUnit.SECONDS));
+        assertTrue(datagramSide.received.await(20, TimeUnit.SECONDS));
+        assertTrue(tcpSide.ordered);
+        assertTrue(datagramSide.ordered);
+        assertEquals(MESSAGES, datagramSide.next);
+
+        // lost packets were retransmitted on the datagram path instead of falling back
+        assertEquals(1, count(datagramSide.statuses, NetworkStatus.CONNECTED));
+        assertFalse(datagramSide.statuses.contains(NetworkStatus.ERROR));
+
+        datagram.disconnect();
+        tcp.disconnect();
+    }
+
+    @Test
+    public void fallsBackToTcpWithoutDatagramServer() throws Exception {
+        relaysAfterFallback(false, LOSS_RATE);
+    }
+
+    @Test
+    public void fallsBackToTcpIfAllDatagramsAreLost() throws Exception {
+        relaysAfterFallback(true, 1);
+    }
+
+    private void relaysAfterFallback(boolean datagramServer, double lossRate) throws Exception {
+        startServer(datagramServer);
+
+        Receiver datagramSide = new Receiver();
+        Receiver tcpSide = new Receiver();
+        ServerConnection datagram = new ServerConnection("127.0.0.1", mPort)
+                .setCallback(datagramSide)
+                .setTransport(new DatagramTransport().setLossRate(lossRate));
+        ServerConnection tcp = new ServerConnection("127.0.0.1", mPort)
+                .setCallback(tcpSide);
+
+        // the join is queued while the transport waits for the unanswered HELLOs
+        join(datagram, tcp, datagramSide);
+        for (int i = 0; i < MESSAGES; i++)
+            datagram.send(SESSION, message(i));
+
+        assertTrue(datagram.flush(SESSION, 20000));
+        assertTrue(tcpSide.received.await(20, TimeUnit.SECONDS));
+        assertTrue(tcpSide.ordered);
+        assertEquals(MESSAGES, tcpSide.next);
+        assertEquals(1, count(datagramSide.statuses, NetworkStatus.CONNECTED));
+        assertFalse(datagramSide.statuses.contains(NetworkStatus.ERROR));
+
+        datagram.disconnect();
+        tcp.disconnect();
+    }
+
+    private void startServer(boolean datagram) throws Exception {
+        // free port for both TCP and UDP
+        try (ServerSocket socket = new ServerSocket(0)) {
+            mPort = socket.getLocalPort();
+        }
+
+        final RelayServer server = new RelayServer()
+                .setPort(mPort)
+                .setDatagram(datagram);
+        mServer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.run();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        mServer.start();
+
+        // wait until the server accepts connections
+        for (int attempt = 0; ; attempt++) {
+            try (Socket socket = new Socket("127.0.0.1", mPort)) {
+                return;
+            } catch (IOException e) {
+                if (attempt == 50)
+                    throw e;
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    /**
+     * Joins both connections to the session, waits until the first received the join of the second
+     */
+    private static void join(ServerConnection first, ServerConnection second, Receiver firstSide)
+            throws InterruptedException {
+        first.connect();
+        first.send(SESSION, message(Opcode.OP_SYN, -1));
+        assertTrue(first.flush(SESSION, 10000));
+
+        // a flush over TCP does not wait for the server, repeat until the join was forwarded
+        second.connect();
+        for (int attempt = 0; attempt < 100 && !firstSide.joined.await(100, TimeUnit.MILLISECONDS); attempt++)
+            second.send(SESSION, message(Opcode.OP_SYN, -1));
+
+        assertEquals(0, firstSide.joined.getCount());
+    }
+
+    private static byte[] message(int index) {
+        return message(Opcode.OP_PSH, index);
+    }
+
+    private static byte[] message(Opcode opcode, int index) {
+        return C2S.ServerData.newBuilder()
+                .setOpcode(opcode)
+                .setData(ByteString.copyFrom(ByteBuffer.allocate(4).putInt(0, index)))
+                .build()
+                .toByteArray();
+    }
+
+    private static int count(List<NetworkStatus> statuses, NetworkStatus status) {
+        int count = 0;
+        for (NetworkStatus s : statuses) {
+            if (s == status)
+                count++;
+        }
+        return count;
+    }
+}
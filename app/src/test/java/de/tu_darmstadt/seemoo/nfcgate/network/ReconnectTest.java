@@ -0,0 +1,149 @@
+package de.tu_darmstadt.seemoo.nfcgate.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.tu_darmstadt.seemoo.nfcgate.network.data.NetworkStatus;
+import de.tu_darmstadt.seemoo.nfcgate.network.transport.SelectorTransport;
+import de.tu_darmstadt.seemoo.nfcgate.network.transport.ThreadedTransport;
+import de.tu_darmstadt.seemoo.nfcgate.network.transport.Transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Resets the connection while messages are sent and checks what the server receives after the
+ * reconnect: messages in order, none twice, up to the last one
+ */
+public class ReconnectTest {
+    private static final int SESSION = 1;
+    private static final int MESSAGES = 3000;
+    // frames the server reads before it resets the first connection
+    private static final int RESET_AFTER = 200;
+
+    private ServerSocket mServerSocket;
+    private Thread mServer;
+    private final List<Integer> mReceived = new ArrayList<>();
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private volatile int mConnections = 0;
+
+    @Before
+    public void startServer() throws IOException {
+        mServerSocket = new ServerSocket(0);
+        mServer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true)
+                        serve(mServerSocket.accept());
+                } catch (IOException ignored) {
+                    // closed by stopServer()
+                }
+            }
+        };
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        mServerSocket.close();
+        mServer.join(1000);
+    }
+
+    @Test
+    public void threadedTransportKeepsOrder() throws Exception {
+        keepsOrder(new ThreadedTransport());
+    }
+
+    @Test
+    public void selectorTransportKeepsOrder() throws Exception {
+        keepsOrder(new SelectorTransport());
+    }
+
+    private void keepsOrder(Transport transport) throws Exception {
+        final List<NetworkStatus> statuses = new ArrayList<>();
+        ServerConnection connection = new ServerConnection("127.0.0.1", mServerSocket.getLocalPort())
+                .setCallback(new ServerConnection.Callback() {
+                    @Override
+                    public void onReceive(ByteBuffer data) { }
+
+                    @Override
+                    public void onNetworkStatus(NetworkStatus status) {
+                        synchronized (statuses) {
+                            statuses.add(status);
+                        }
+                    }
+                })
+                .setTransport(transport)
+                .setBatchLimits(8, 1024)
+                .setReconnectPolicy(new ReconnectPolicy(20, 100, 10))
+                .connect();
+
+        for (int i = 0; i < MESSAGES; i++) {
+            connection.send(SESSION, ByteBuffer.allocate(4).putInt(i).array());
+
+            // spread the messages over the reset and the reconnect
+            if (i % 100 == 99)
+                Thread.sleep(5);
+        }
+
+        assertTrue(mDone.await(20, TimeUnit.SECONDS));
+        connection.disconnect();
+
+        synchronized (statuses) {
+            assertTrue(statuses.contains(NetworkStatus.RECONNECTING));
+            assertFalse(statuses.contains(NetworkStatus.ERROR));
+        }
+        assertEquals(2, mConnections);
+
+        // messages written to the first connection but not read by the server are lost
+        synchronized (mReceived) {
+            for (int i = 1; i < mReceived.size(); i++)
+                assertTrue("message " + mReceived.get(i) + " after " + mReceived.get(i - 1),
+                        mReceived.get(i) > mReceived.get(i - 1));
+            assertEquals(MESSAGES - 1, (int) mReceived.get(mReceived.size() - 1));
+        }
+    }
+
+    /**
+     * Reads frames of 4 byte length, 1 byte session and the message number as payload.
+     * Resets the first connection after RESET_AFTER frames.
+     */
+    private void serve(Socket socket) throws IOException {
+        boolean first = mConnections++ == 0;
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+
+        try {
+            for (int frames = 0; !first || frames < RESET_AFTER; frames++) {
+                byte[] payload = new byte[input.readInt()];
+                assertEquals(SESSION, input.readByte());
+                input.readFully(payload);
+
+                int message = ByteBuffer.wrap(payload).getInt();
+                synchronized (mReceived) {
+                    mReceived.add(message);
+                }
+                if (message == MESSAGES - 1)
+                    mDone.countDown();
+            }
+        } catch (IOException ignored) {
+            // closed by the client
+        }
+
+        // without lingering, close() resets the connection
+        socket.setSoLinger(true, 0);
+        socket.close();
+    }
+}
@@ -0,0 +1,224 @@
+package de.tu_darmstadt.seemoo.nfcgate.network;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.tu_darmstadt.seemoo.nfcgate.network.c2s.C2S;
+import de.tu_darmstadt.seemoo.nfcgate.network.data.NetworkStatus;
+import de.tu_darmstadt.seemoo.nfcgate.network.transport.ThreadedTransport;
+import de.tu_darmstadt.seemoo.nfcgate.server.RelayServer;
+
+import static de.tu_darmstadt.seemoo.nfcgate.network.c2s.C2S.ServerData.Opcode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Carries several sessions over one shared connection through the reference RelayServer with
+ * --tag-sessions. Each session is echoed by its own plain connection.
+ */
+public class SessionMultiplexerTest {
+    private static final int[] SESSIONS = { 1, 2, 3 };
+    // the first session is much chattier than the others
+    private static final int[] MESSAGES = { 2000, 50, 50 };
+    // messages per session sent before waiting for the send queue
+    private static final int BURST = 200;
+
+    private Thread mServer;
+    private int mPort;
+
+    /**
+     * Checks that only messages of its own session arrive, in order
+     */
+    private static class SessionReceiver implements ServerConnection.Callback {
+        final int session;
+        final CountDownLatch joined = new CountDownLatch(1);
+        final CountDownLatch received;
+        volatile int next = 0;
+        volatile boolean valid = true;
+
+        SessionReceiver(int session, int messages) {
+            this.session = session;
+            received = new CountDownLatch(messages);
+        }
+
+        @Override
+        public void onReceive(ByteBuffer data) {
+            C2S.ServerData message = parse(data);
+            if (message.getOpcode() == Opcode.OP_SYN)
+                joined.countDown();
+            if (message.getOpcode() != Opcode.OP_PSH)
+                return;
+
+            ByteBuffer payload = message.getData().asReadOnlyByteBuffer();
+            if (payload.getInt() != session || payload.getInt() != next++)
+                valid = false;
+            received.countDown();
+        }
+
+        @Override
+        public void onNetworkStatus(NetworkStatus status) { }
+    }
+
+    /**
+     * Echoes the messages of one session, frames carry the session number as first byte
+     */
+    private static class Echo implements ServerConnection.Callback {
+        final int session;
+        ServerConnection connection;
+
+        Echo(int session) {
+            this.session = session;
+        }
+
+        @Override
+        public void onReceive(ByteBuffer data) {
+            if ((data.get() & 0xFF) != session)
+                throw new AssertionError("Frame of another session");
+
+            C2S.ServerData message = parse(data);
+            if (message.getOpcode() == Opcode.OP_PSH)
+                connection.send(session, message.toByteArray());
+        }
+
+        @Override
+        public void onNetworkStatus(NetworkStatus status) { }
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        // free port for TCP
+        try (ServerSocket socket = new ServerSocket(0)) {
+            mPort = socket.getLocalPort();
+        }
+
+        final RelayServer server = new RelayServer()
+                .setPort(mPort)
+                .setTagSessions(true)
+                .setDatagram(false);
+        mServer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.run();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        mServer.start();
+
+        // wait until the server accepts connections
+        for (int attempt = 0; ; attempt++) {
+            try (Socket socket = new Socket("127.0.0.1", mPort)) {
+                return;
+            } catch (IOException e) {
+                if (attempt == 50)
+                    throw e;
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    @After
+    public void stopServer() throws InterruptedException {
+        mServer.interrupt();
+        mServer.join(1000);
+    }
+
+    @Test
+    public void relaysSessionsOverOneConnection() throws Exception {
+        SessionMultiplexer multiplexer = SessionMultiplexer.get("127.0.0.1", mPort, new ThreadedTransport(), null);
+        SessionReceiver[] receivers = new SessionReceiver[SESSIONS.length];
+        ServerConnection[] echoes = new ServerConnection[SESSIONS.length];
+        ServerConnection shared = null;
+
+        for (int i = 0; i < SESSIONS.length; i++) {
+            receivers[i] = new SessionReceiver(SESSIONS[i], MESSAGES[i]);
+            ServerConnection connection = multiplexer.attach(SESSIONS[i], receivers[i]);
+            assertNotNull(connection);
+            assertTrue(shared == null || shared == connection);
+            shared = connection;
+
+            Echo echo = new Echo(SESSIONS[i]);
+            echoes[i] = echo.connection = new ServerConnection("127.0.0.1", mPort).setCallback(echo);
+            join(shared, echoes[i], receivers[i]);
+        }
+
+        // a session number can only be attached once
+        assertNull(multiplexer.attach(SESSIONS[0], new SessionReceiver(SESSIONS[0], 0)));
+
+        for (int n = 0; n < MESSAGES[0]; n++) {
+            for (int i = 0; i < SESSIONS.length; i++) {
+                if (n < MESSAGES[i])
+                    shared.send(SESSIONS[i], message(Opcode.OP_PSH, SESSIONS[i], n));
+            }
+
+            // send queues are bounded per session, full queues drop messages
+            if (n % BURST == BURST - 1)
+                assertTrue(multiplexer.flush(SESSIONS[0], 10000));
+        }
+
+        for (int i = 0; i < SESSIONS.length; i++) {
+            assertTrue(receivers[i].received.await(20, TimeUnit.SECONDS));
+            assertTrue(receivers[i].valid);
+            assertEquals(MESSAGES[i], receivers[i].next);
+        }
+
+        for (int i = 0; i < SESSIONS.length; i++) {
+            multiplexer.detach(SESSIONS[i]);
+            echoes[i].disconnect();
+        }
+
+        // the last detach closed the shared connection, the next attach creates a new one
+        SessionMultiplexer next = SessionMultiplexer.get("127.0.0.1", mPort, new ThreadedTransport(), null);
+        assertTrue(next != multiplexer);
+    }
+
+    /**
+     * Joins both connections to the session, waits until the shared one received the join of the echo
+     */
+    private static void join(ServerConnection shared, ServerConnection echo, SessionReceiver receiver)
+            throws InterruptedException {
+        shared.send(receiver.session, message(Opcode.OP_SYN, receiver.session, -1));
+        assertTrue(shared.flush(receiver.session, 10000));
+
+        // a flush over TCP does not wait for the server, repeat until the join was forwarded
+        echo.connect();
+        for (int attempt = 0; attempt < 100 && !receiver.joined.await(100, TimeUnit.MILLISECONDS); attempt++)
+            echo.send(receiver.session, message(Opcode.OP_SYN, receiver.session, -1));
+
+        assertEquals(0, receiver.joined.getCount());
+    }
+
+    private static byte[] message(Opcode opcode, int session, int index) {
+        ByteBuffer data = ByteBuffer.allocate(8).putInt(session).putInt(index);
+        data.flip();
+
+        return C2S.ServerData.newBuilder()
+                .setOpcode(opcode)
+                .setData(ByteString.copyFrom(data))
+                .build()
+                .toByteArray();
+    }
+
+    private static C2S.ServerData parse(ByteBuffer data) {
+        try {
+            return C2S.ServerData.parseFrom(data);
+        } catch (InvalidProtocolBufferException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package de.tu_darmstadt.seemoo.nfcgate.network.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FairSendQueueTest {
+    @Test
+    public void chattySessionDoesNotStarveOthers() {
+        FairSendQueue queue = new FairSendQueue(100);
+        for (int i = 0; i < 100; i++)
+            assertTrue(queue.offer(record(1, i)));
+        assertTrue(queue.offer(record(2, 0)));
+        assertTrue(queue.offer(record(3, 0)));
+
+        // one record per session in turn, in order within each session
+        assertEquals(1, queue.poll().getSession());
+        assertEquals(2, queue.poll().getSession());
+        assertEquals(3, queue.poll().getSession());
+
+        List<SendRecord> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        assertEquals(99, rest.size());
+        for (int i = 0; i < rest.size(); i++) {
+            assertEquals(1, rest.get(i).getSession());
+            assertEquals(i + 1, rest.get(i).getData()[0]);
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void capacityIsBoundedPerSession() {
+        FairSendQueue queue = new FairSendQueue(2);
+        assertTrue(queue.offer(record(1, 0)));
+        assertTrue(queue.offer(record(1, 1)));
+        assertFalse(queue.offer(record(1, 2)));
+
+        // other sessions are not affected by a full session
+        assertTrue(queue.offer(record(2, 0)));
+        assertEquals(3, queue.size());
+
+        queue.poll();
+        assertTrue(queue.offer(record(1, 2)));
+    }
+
+    private static SendRecord record(int session, int index) {
+        return new SendRecord(session, new byte[] { (byte) index });
+    }
+}
@@ -0,0 +1,410 @@
+package de.tu_darmstadt.seemoo.nfcgate.network.frame;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+
+import de.tu_darmstadt.seemoo.nfcgate.network.c2s.C2S;
+import de.tu_darmstadt.seemoo.nfcgate.network.data.SendRecord;
+import de.tu_darmstadt.seemoo.nfcgate.server.RelayServer;
+
+import static de.tu_darmstadt.seemoo.nfcgate.network.c2s.C2S.ServerData.Opcode;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares FrameEncoder with the DataOutputStream writes SendThread used before and decodes its
+ * frames with FrameDecoder after they were relayed by the reference RelayServer
+ */
+public class FrameEncoderTest {
+    private static final int SESSION = 7;
+    // default batch limits of ServerConnection
+    private static final int BATCH_MAX_RECORDS = 64;
+    private static final int BATCH_MAX_BYTES = 16 * 1024;
+    private static final int WARMUP_FRAMES = 5000;
+    private static final int FRAMES = 20000;
+
+    private Thread mServer;
+    private int mPort;
+
+    /**
+     * Counts the writes passed on to the channel
+     */
+    private static class CountingChannel implements WritableByteChannel {
+        final WritableByteChannel channel;
+        long writes = 0;
+
+        CountingChannel(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            writes++;
+            return channel.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Accepts the given number of bytes, then fails like a lost connection
+     */
+    private static class FailingChannel implements WritableByteChannel {
+        final ByteBuffer accepted;
+
+        FailingChannel(int capacity) {
+            accepted = ByteBuffer.allocate(capacity);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!accepted.hasRemaining())
+                throw new IOException("Connection reset");
+
+            int length = Math.min(src.remaining(), accepted.remaining());
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + length);
+            accepted.put(part);
+            src.position(src.position() + length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() { }
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        // free port for TCP
+        try (ServerSocket socket = new ServerSocket(0)) {
+            mPort = socket.getLocalPort();
+        }
+
+        final RelayServer server = new RelayServer()
+                .setPort(mPort)
+                .setDatagram(false);
+        mServer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.run();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        mServer.start();
+
+        // wait until the server accepts connections
+        for (int attempt = 0; ; attempt++) {
+            try (Socket socket = new Socket("127.0.0.1", mPort)) {
+                return;
+            } catch (IOException e) {
+                if (attempt == 50)
+                    throw e;
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    @After
+    public void stopServer() throws InterruptedException {
+        mServer.interrupt();
+        mServer.join(1000);
+    }
+
+    @Test
+    public void writesSameBytesAsStreamWrites() throws IOException {
+        List<SendRecord> records = randomRecords(new Random(1), 300, true);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (SendRecord record : records)
+            writeStream(new DataOutputStream(expected), record);
+
+        // the buffer grows several times on the way
+        FrameEncoder encoder = new FrameEncoder();
+        for (SendRecord record : records)
+            encoder.put(record);
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        encoder.writeTo(Channels.newChannel(actual));
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+        // cleared buffers start over
+        encoder.clear();
+        encoder.put(records.get(0));
+        actual.reset();
+        encoder.writeTo(Channels.newChannel(actual));
+        assertEquals(FrameEncoder.HEADER_LENGTH + records.get(0).getData().length, actual.size());
+    }
+
+    @Test
+    public void keepsPartlyWrittenRecords() {
+        List<SendRecord> records = randomRecords(new Random(4), 10, false);
+        FrameEncoder encoder = new FrameEncoder();
+        List<SendRecord> batch = new ArrayList<>();
+        encoder.putBatch(new ArrayDeque<>(records), batch, records.size(), Integer.MAX_VALUE);
+
+        // the connection fails in the middle of the fourth frame
+        int written = 2;
+        for (int i = 0; i < 3; i++)
+            written += FrameEncoder.HEADER_LENGTH + records.get(i).getData().length;
+
+        try {
+            encoder.writeTo(new FailingChannel(written));
+            throw new AssertionError("Write did not fail");
+        } catch (IOException expected) { }
+
+        encoder.removeWritten(batch);
+        assertEquals(records.subList(3, records.size()), batch);
+    }
+
+    @Test
+    public void decodesRelayedFrames() throws Exception {
+        SocketChannel sender = SocketChannel.open(new InetSocketAddress("127.0.0.1", mPort));
+        SocketChannel receiver = SocketChannel.open(new InetSocketAddress("127.0.0.1", mPort));
+        sender.configureBlocking(false);
+        receiver.configureBlocking(false);
+        FrameDecoder senderDecoder = new FrameDecoder(FrameDecoder.DEFAULT_MAX_FRAME_LENGTH);
+        FrameDecoder receiverDecoder = new FrameDecoder(FrameDecoder.DEFAULT_MAX_FRAME_LENGTH);
+
+        // the sender joins first, it sees the receiver join once the receiver is in the session
+        FrameEncoder encoder = new FrameEncoder();
+        send(encoder, sender, message(Opcode.OP_SYN, new byte[0]));
+        ByteBuffer joined = null;
+        for (int attempt = 0; attempt < 50 && joined == null; attempt++) {
+            send(encoder, receiver, message(Opcode.OP_SYN, new byte[0]));
+            joined = receive(senderDecoder, sender, 100);
+        }
+        assertNotNull(joined);
+
+        List<SendRecord> records = randomRecords(new Random(2), 2000, true);
+        List<SendRecord> messages = new ArrayList<>();
+        for (SendRecord record : records)
+            messages.add(message(Opcode.OP_PSH, record.getData()));
+
+        // send in batches like SendThread
+        Queue<SendRecord> pending = new ArrayDeque<>(messages);
+        while (!pending.isEmpty()) {
+            encoder.clear();
+            encoder.putBatch(pending, new ArrayList<SendRecord>(), BATCH_MAX_RECORDS, BATCH_MAX_BYTES);
+            writeAll(encoder, sender);
+        }
+
+        int received = 0;
+        while (received < messages.size()) {
+            ByteBuffer frame = receive(receiverDecoder, receiver, 10000);
+            assertNotNull("frame " + received, frame);
+
+            // the sender joined before the receiver
+            C2S.ServerData message = parse(frame);
+            if (message.getOpcode() == Opcode.OP_SYN)
+                continue;
+
+            assertArrayEquals("frame " + received, messages.get(received).getData(), message.toByteArray());
+            received++;
+        }
+
+        sender.close();
+        receiver.close();
+    }
+
+    @Test
+    public void singleWriteIsCheaperThanStreamWrites() throws Exception {
+        List<SendRecord> records = randomRecords(new Random(3), 100, false);
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        SocketChannel channel = SocketChannel.open(server.socket().getLocalSocketAddress());
+        final SocketChannel sink = server.accept();
+        server.close();
+
+        // discards everything, so writes do not block on a full socket buffer
+        Thread drain = new Thread() {
+            @Override
+            public void run() {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+                try {
+                    while (sink.read(buffer) >= 0)
+                        buffer.clear();
+                } catch (IOException ignored) { }
+            }
+        };
+        drain.start();
+
+        CountingChannel counting = new CountingChannel(channel);
+        DataOutputStream stream = new DataOutputStream(Channels.newOutputStream(counting));
+        FrameEncoder encoder = new FrameEncoder();
+
+        writeStream(stream, records, WARMUP_FRAMES);
+        writeEncoded(encoder, counting, records, WARMUP_FRAMES);
+
+        counting.writes = 0;
+        long streamTime = writeStream(stream, records, FRAMES);
+        long streamWrites = counting.writes;
+
+        counting.writes = 0;
+        long encodedTime = writeEncoded(encoder, counting, records, FRAMES);
+        long encodedWrites = counting.writes;
+
+        channel.close();
+        drain.join(1000);
+
+        System.out.println(String.format("per frame: %.1f us and %.2f writes streamed, %.1f us and %.2f writes encoded",
+                streamTime / 1000.0 / FRAMES, (double) streamWrites / FRAMES,
+                encodedTime / 1000.0 / FRAMES, (double) encodedWrites / FRAMES));
+
+        // length, session and payload were written separately
+        assertTrue(streamWrites >= 3L * FRAMES);
+        // one write per batch
+        assertTrue(encodedWrites <= FRAMES / BATCH_MAX_RECORDS * 2);
+        assertTrue(encodedTime < streamTime);
+    }
+
+    /**
+     * Writes the record like SendThread did before FrameEncoder
+     */
+    private static void writeStream(DataOutputStream stream, SendRecord record) throws IOException {
+        // 4 byte data length
+        stream.writeInt(record.getData().length);
+        // 1 byte session number
+        stream.writeByte(record.getSession());
+        // send actual data
+        stream.write(record.getData());
+        // flush for good measure
+        stream.flush();
+    }
+
+    /**
+     * @return duration in nanoseconds
+     */
+    private static long writeStream(DataOutputStream stream, List<SendRecord> records, int frames)
+            throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++)
+            writeStream(stream, records.get(i % records.size()));
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return duration in nanoseconds
+     */
+    private static long writeEncoded(FrameEncoder encoder, WritableByteChannel channel, List<SendRecord> records,
+                                     int frames) throws IOException {
+        Queue<SendRecord> pending = new ArrayDeque<>(frames);
+        for (int i = 0; i < frames; i++)
+            pending.add(records.get(i % records.size()));
+
+        List<SendRecord> batch = new ArrayList<>(BATCH_MAX_RECORDS);
+        long start = System.nanoTime();
+        while (!pending.isEmpty()) {
+            encoder.clear();
+            batch.clear();
+            encoder.putBatch(pending, batch, BATCH_MAX_RECORDS, BATCH_MAX_BYTES);
+            encoder.writeTo(channel);
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static void send(FrameEncoder encoder, SocketChannel channel, SendRecord record) throws IOException {
+        encoder.clear();
+        encoder.put(record);
+        writeAll(encoder, channel);
+    }
+
+    /**
+     * Writes the assembled frames to a non-blocking channel
+     */
+    private static void writeAll(FrameEncoder encoder, SocketChannel channel) throws IOException {
+        encoder.flip();
+        while (!encoder.writeSome(channel))
+            Thread.yield();
+    }
+
+    /**
+     * @return payload of the next frame or null if none arrived in time
+     */
+    private static ByteBuffer receive(FrameDecoder decoder, SocketChannel channel, long timeoutMillis)
+            throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            ByteBuffer frame = decoder.poll();
+            if (frame != null)
+                return frame;
+
+            if (decoder.fill(channel) == 0) {
+                if (System.currentTimeMillis() > deadline)
+                    return null;
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * APDU sized records, with large ones some are larger than the initial buffer
+     */
+    private static List<SendRecord> randomRecords(Random random, int count, boolean large) {
+        List<SendRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] data = new byte[large && random.nextInt(10) == 0 ? random.nextInt(20000) : random.nextInt(300)];
+            random.nextBytes(data);
+            records.add(new SendRecord(SESSION, data));
+        }
+
+        return records;
+    }
+
+    private static SendRecord message(Opcode opcode, byte[] data) {
+        return new SendRecord(SESSION, C2S.ServerData.newBuilder()
+                .setOpcode(opcode)
+                .setData(ByteString.copyFrom(data))
+                .build()
+                .toByteArray());
+    }
+
+    private static C2S.ServerData parse(ByteBuffer data) {
+        try {
+            return C2S.ServerData.parseFrom(data);
+        } catch (InvalidProtocolBufferException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
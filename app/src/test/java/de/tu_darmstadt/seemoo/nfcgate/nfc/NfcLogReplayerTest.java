@@ -0,0 +1,216 @@
+package de.tu_darmstadt.seemoo.nfcgate.nfc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import de.tu_darmstadt.seemoo.nfcgate.db.NfcCommEntry;
+import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the replayer on a decoded ReplayLog with the replayer on database entries it replaced
+ */
+public class NfcLogReplayerTest {
+    private static final int LOGS = 300;
+    private static final int CALLS = 200;
+
+    /**
+     * NfcLogReplayer before the ReplayLog, pattern mode scans all entries
+     */
+    private static class EntryReplayer {
+        private final boolean mReader;
+        private final String mMode;
+        private final List<NfcCommEntry> mReplayLog;
+        private int mReplayIndex = 0;
+
+        EntryReplayer(boolean reader, String mode, List<NfcCommEntry> replayLog) {
+            mReader = reader;
+            mMode = mode;
+            mReplayLog = replayLog;
+        }
+
+        private NfcComm getNext() {
+            if (mReplayIndex >= mReplayLog.size())
+                return null;
+
+            return mReplayLog.get(mReplayIndex).getNfcComm();
+        }
+
+        NfcComm getResponse(NfcComm request) {
+            return "index".equals(mMode) ? getIndexBasedResponse(request) : getPatternBasedResponse(request);
+        }
+
+        boolean shouldWait() {
+            NfcComm next = getNext();
+            return next == null || next.isCard() == mReader;
+        }
+
+        private NfcComm getIndexBasedResponse(NfcComm request) {
+            NfcComm next = getNext();
+
+            if (request != null && next != null && next.isCard() == request.isCard()) {
+                mReplayIndex++;
+                return getIndexBasedResponse(null);
+            }
+            else if (request == null && next != null && next.isCard() != mReader) {
+                mReplayIndex++;
+                return new NfcComm(next.isCard(), next.isInitial(), next.getData());
+            }
+
+            return null;
+        }
+
+        private NfcComm getPatternBasedResponse(NfcComm request) {
+            NfcComm next = getNext();
+
+            if (request != null && next != null && next.isCard() == request.isCard()
+                    && Arrays.equals(next.getData(), request.getData())) {
+                return getIndexBasedResponse(request);
+            }
+            else if (request == null) {
+                return getIndexBasedResponse(null);
+            }
+            else {
+                int predictedIndex = ReplayIndexTest.scan(mReplayLog, mReader, request.getData(), mReplayIndex);
+                if (predictedIndex >= 0)
+                    mReplayIndex = predictedIndex;
+
+                return getIndexBasedResponse(request);
+            }
+        }
+    }
+
+    @Test
+    public void decodesEntries() {
+        List<NfcCommEntry> entries = new ArrayList<>();
+        entries.add(new NfcCommEntry(new NfcComm(true, true, new byte[] { 0x04, 0x00 }), 1));
+        entries.add(new NfcCommEntry(new NfcComm(false, false, new byte[0]), 1));
+        entries.add(new NfcCommEntry(new NfcComm(false, false, new byte[] { 0x00, (byte) 0xA4, 0x04 }), 1));
+
+        ReplayLog log = new ReplayLog(entries);
+        assertEquals(3, log.size());
+        assertTrue(log.isCard(0));
+        assertTrue(log.isInitial(0));
+        assertFalse(log.isCard(2));
+        assertFalse(log.isInitial(2));
+        assertEquals(0, log.getLength(1));
+        assertEquals((byte) 0xA4, log.getByte(2, 1));
+        assertTrue(log.dataEquals(1, new byte[0]));
+        assertTrue(log.dataEquals(2, new byte[] { 0x00, (byte) 0xA4, 0x04 }));
+        assertFalse(log.dataEquals(2, new byte[] { 0x00, (byte) 0xA4 }));
+
+        NfcComm comm = log.toNfcComm(0);
+        assertTrue(comm.isCard());
+        assertTrue(comm.isInitial());
+        assertArrayEquals(new byte[] { 0x04, 0x00 }, comm.getData());
+    }
+
+    @Test
+    public void indexModeRepliesLikeEntryReplayer() {
+        repliesLikeEntryReplayer("index");
+    }
+
+    @Test
+    public void patternModeRepliesLikeEntryReplayer() {
+        repliesLikeEntryReplayer("pattern");
+    }
+
+    @Test
+    public void indexModeFollowsFastPath() {
+        followsFastPath("index");
+    }
+
+    @Test
+    public void patternModeFollowsFastPath() {
+        followsFastPath("pattern");
+    }
+
+    /**
+     * Replays the commands of the log in tag mode, answering commands with a single response in the
+     * log from the ResponseTable and the others from the replayer like the HCE service does
+     */
+    private static void followsFastPath(String mode) {
+        Random random = new Random(17);
+        int fastPath = 0, slowPath = 0;
+
+        for (int l = 0; l < LOGS; l++) {
+            // few distinct commands, some always get the same response and some do not
+            List<NfcCommEntry> entries = new ArrayList<>();
+            for (int i = 0; i < 2 + random.nextInt(30); i++) {
+                int command = random.nextInt(6);
+                byte response = (byte) (command < 3 ? command : random.nextInt(4));
+                entries.add(ReplayIndexTest.entry(false, new byte[] { 0x00, (byte) 0xB2, (byte) command }));
+                entries.add(ReplayIndexTest.entry(true, new byte[] { response, (byte) 0x90, 0x00 }));
+            }
+
+            ReplayLog log = new ReplayLog(entries);
+            ResponseTable table = new ResponseTable(log);
+            NfcLogReplayer replayer = new NfcLogReplayer(false, mode, log);
+
+            for (int i = 0; i < entries.size(); i += 2) {
+                NfcComm request = entries.get(i).getNfcComm();
+                byte[] response = table.get(request.getData());
+
+                if (response != null) {
+                    replayer.skip(request);
+                    fastPath++;
+                }
+                else {
+                    response = replayer.getResponse(request).getData();
+                    slowPath++;
+                }
+
+                assertArrayEquals(mode + " log " + l + " entry " + i, entries.get(i + 1).getNfcComm().getData(), response);
+                assertTrue(replayer.shouldWait());
+            }
+        }
+
+        // both paths were taken often
+        assertTrue(fastPath > LOGS && slowPath > LOGS);
+    }
+
+    private static void repliesLikeEntryReplayer(String mode) {
+        Random random = new Random(15);
+
+        for (int l = 0; l < LOGS; l++) {
+            List<NfcCommEntry> entries = ReplayIndexTest.randomLog(random, 1 + random.nextInt(40));
+            boolean reader = random.nextBoolean();
+            NfcLogReplayer replayer = new NfcLogReplayer(reader, mode, new ReplayLog(entries));
+            EntryReplayer expected = new EntryReplayer(reader, mode, entries);
+
+            for (int c = 0; c < CALLS; c++) {
+                String message = mode + " log " + l + " call " + c;
+                assertEquals(message, expected.shouldWait(), replayer.shouldWait());
+
+                // mostly requests of the other side, sometimes our own or none
+                NfcComm request = null;
+                if (random.nextInt(4) != 0) {
+                    boolean card = random.nextInt(8) != 0 ? reader : !reader;
+                    request = new NfcComm(card, false, ReplayIndexTest.randomRequest(random, entries));
+                }
+
+                NfcComm expectedResponse = expected.getResponse(request);
+                NfcComm response = replayer.getResponse(request);
+                if (expectedResponse == null) {
+                    assertNull(message, response);
+                    continue;
+                }
+
+                assertNotNull(message, response);
+                assertEquals(message, expectedResponse.isCard(), response.isCard());
+                assertEquals(message, expectedResponse.isInitial(), response.isInitial());
+                assertArrayEquals(message, expectedResponse.getData(), response.getData());
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package de.tu_darmstadt.seemoo.nfcgate.nfc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import de.tu_darmstadt.seemoo.nfcgate.db.NfcCommEntry;
+import de.tu_darmstadt.seemoo.nfcgate.util.NfcComm;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares ReplayIndex lookups with the scan over all log entries that pattern mode used before
+ */
+public class ReplayIndexTest {
+    private static final int LOGS = 200;
+    private static final int QUERIES = 300;
+
+    // few distinct bytes, so messages share long prefixes
+    private static final byte[] ALPHABET = { 0x00, 0x01, (byte) 0x90, (byte) 0xA4, (byte) 0xB2 };
+
+    @Test
+    public void findsSameIndexAsScan() {
+        Random random = new Random(14);
+
+        for (int l = 0; l < LOGS; l++) {
+            List<NfcCommEntry> entries = randomLog(random, 1 + random.nextInt(60));
+            ReplayLog log = new ReplayLog(entries);
+            boolean reader = random.nextBoolean();
+            ReplayIndex index = new ReplayIndex(log, reader);
+
+            for (int q = 0; q < QUERIES; q++) {
+                byte[] request = randomRequest(random, entries);
+                int current = random.nextInt(entries.size() + 1);
+
+                assertEquals("log " + l + " query " + q,
+                        scan(entries, reader, request, current), index.find(request, current));
+            }
+        }
+    }
+
+    @Test
+    public void findsNothingWithoutMessagesOfTheSide() {
+        List<NfcCommEntry> entries = new ArrayList<>();
+        entries.add(entry(false, new byte[] { 0x00, (byte) 0xA4 }));
+        entries.add(entry(false, new byte[] { 0x00, (byte) 0xB2 }));
+
+        ReplayIndex index = new ReplayIndex(new ReplayLog(entries), true);
+        assertEquals(-1, index.find(new byte[] { 0x00, (byte) 0xA4 }, 0));
+        assertEquals(-1, scan(entries, true, new byte[] { 0x00, (byte) 0xA4 }, 0));
+    }
+
+    static List<NfcCommEntry> randomLog(Random random, int size) {
+        List<NfcCommEntry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            entries.add(entry(random.nextInt(3) != 0 ? i % 2 == 1 : random.nextBoolean(), randomBytes(random, 25)));
+        return entries;
+    }
+
+    /**
+     * Returns a logged message, a mutation of one or random bytes
+     */
+    static byte[] randomRequest(Random random, List<NfcCommEntry> entries) {
+        int kind = random.nextInt(4);
+        if (kind == 0)
+            return randomBytes(random, 30);
+
+        byte[] data = entries.get(random.nextInt(entries.size())).getNfcComm().getData();
+        if (kind == 1)
+            return data;
+
+        List<Byte> mutated = new ArrayList<>();
+        for (byte b : data)
+            mutated.add(b);
+
+        if (kind == 2 && !mutated.isEmpty())
+            mutated.set(random.nextInt(mutated.size()), ALPHABET[random.nextInt(ALPHABET.length)]);
+        else if (random.nextBoolean())
+            Collections.addAll(mutated, ALPHABET[random.nextInt(ALPHABET.length)], ALPHABET[0]);
+        else if (!mutated.isEmpty())
+            mutated.subList(random.nextInt(mutated.size()), mutated.size()).clear();
+
+        byte[] result = new byte[mutated.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = mutated.get(i);
+        return result;
+    }
+
+    static NfcCommEntry entry(boolean card, byte[] data) {
+        return new NfcCommEntry(new NfcComm(card, false, data), 1);
+    }
+
+    private static byte[] randomBytes(Random random, int maxLength) {
+        byte[] data = new byte[random.nextInt(maxLength + 1)];
+        for (int i = 0; i < data.length; i++)
+            data[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        return data;
+    }
+
+    /**
+     * Scores every message of the side like NfcLogReplayer did before ReplayIndex
+     */
+    static int scan(List<NfcCommEntry> entries, boolean reader, byte[] request, int current) {
+        Map<Integer, Integer> scoreMap = new HashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            NfcComm entry = entries.get(i).getNfcComm();
+            if (entry.isCard() == reader)
+                scoreMap.put(i, score(entry.getData(), request));
+        }
+
+        int cIndex = -1, cScore = -1;
+        for (Map.Entry<Integer, Integer> entry : scoreMap.entrySet()) {
+            int index = entry.getKey(), score = entry.getValue();
+
+            if (score > cScore || (score == cScore
+                    && rank(index, current, entries.size()) < rank(cIndex, current, entries.size()))) {
+                cIndex = index;
+                cScore = score;
+            }
+        }
+
+        return cIndex;
+    }
+
+    private static int rank(int index, int current, int size) {
+        if (index == -1) return Integer.MAX_VALUE;
+        else if (index > current) return index - current;
+        else return Math.max(0, size - current) + index;
+    }
+
+    private static int score(byte[] entry, byte[] request) {
+        int lScore = Math.max(0, 10 - (Math.abs(entry.length - request.length)));
+
+        int pScore;
+        for (pScore = 0; pScore < Math.min(entry.length, request.length); pScore++)
+            if (entry[pScore] != request[pScore])
+                break;
+
+        return pScore + lScore;
+    }
+}
@@ -0,0 +1,59 @@
+package de.tu_darmstadt.seemoo.nfcgate.nfc.reader;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EmvPredictorTest {
+    private static final byte[] GPO = { (byte) 0x80, (byte) 0xA8, 0x00, 0x00, 0x02, (byte) 0x83, 0x00, 0x00 };
+
+    private final EmvPredictor mPredictor = new EmvPredictor();
+
+    @Test
+    public void predictsRecordsOfFormat1() {
+        // AIP 1980, AFL SFI 1 records 1-2, SFI 2 record 1
+        byte[] response = { (byte) 0x80, 0x0A, 0x19, (byte) 0x80, 0x08, 0x01, 0x02, 0x00, 0x10, 0x01, 0x01, 0x00, (byte) 0x90, 0x00 };
+
+        List<byte[]> commands = mPredictor.predict(GPO, response);
+        assertEquals(3, commands.size());
+        assertArrayEquals(new byte[] { 0x00, (byte) 0xB2, 0x01, 0x0C, 0x00 }, commands.get(0));
+        assertArrayEquals(new byte[] { 0x00, (byte) 0xB2, 0x02, 0x0C, 0x00 }, commands.get(1));
+        assertArrayEquals(new byte[] { 0x00, (byte) 0xB2, 0x01, 0x14, 0x00 }, commands.get(2));
+    }
+
+    @Test
+    public void predictsRecordsOfFormat2() {
+        // template 77 with AIP (82) and AFL (94) SFI 3 records 2-4, preceded by a two byte tag
+        byte[] response = { 0x77, 0x0F, (byte) 0x9F, 0x36, 0x02, 0x00, 0x01, (byte) 0x82, 0x02, 0x19, (byte) 0x80,
+                (byte) 0x94, 0x04, 0x18, 0x02, 0x04, 0x00, (byte) 0x90, 0x00 };
+
+        List<byte[]> commands = mPredictor.predict(GPO, response);
+        assertEquals(3, commands.size());
+        for (int i = 0; i < 3; i++)
+            assertArrayEquals(new byte[] { 0x00, (byte) 0xB2, (byte) (i + 2), 0x1C, 0x00 }, commands.get(i));
+    }
+
+    @Test
+    public void ignoresOtherCommandsAndErrors() {
+        byte[] response = { (byte) 0x80, 0x06, 0x19, (byte) 0x80, 0x08, 0x01, 0x01, 0x00, (byte) 0x90, 0x00 };
+
+        assertNull(mPredictor.predict(new byte[] { 0x00, (byte) 0xB2, 0x01, 0x0C, 0x00 }, response));
+        assertNull(mPredictor.predict(GPO, new byte[] { 0x69, (byte) 0x85 }));
+        // length exceeds the response
+        assertNull(mPredictor.predict(GPO, new byte[] { (byte) 0x80, 0x20, 0x19, (byte) 0x80, (byte) 0x90, 0x00 }));
+    }
+
+    @Test
+    public void keepsPredictionsOnlyForReads() {
+        assertTrue(mPredictor.keepsPredictions(new byte[] { 0x00, (byte) 0xB2, 0x01, 0x0C, 0x00 }));
+        assertTrue(mPredictor.keepsPredictions(new byte[] { (byte) 0x80, (byte) 0xCA, (byte) 0x9F, 0x36, 0x00 }));
+        assertFalse(mPredictor.keepsPredictions(new byte[] { 0x00, (byte) 0xA4, 0x04, 0x00, 0x00 }));
+        assertFalse(mPredictor.keepsPredictions(GPO));
+    }
+}
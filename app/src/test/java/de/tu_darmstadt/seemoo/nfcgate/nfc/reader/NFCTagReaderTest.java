@@ -0,0 +1,115 @@
+package de.tu_darmstadt.seemoo.nfcgate.nfc.reader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import de.tu_darmstadt.seemoo.nfcgate.nfc.config.ConfigBuilder;
+import de.tu_darmstadt.seemoo.nfcgate.util.RelayStats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the bound transceive of NFCTagReader and compares its cost with the reflective lookup
+ * it replaced, against a technology that answers immediately
+ */
+public class NFCTagReaderTest {
+    private static final int WARMUP_CALLS = 200000;
+    private static final int CALLS = 1000000;
+
+    /**
+     * Stands in for a TagTechnology, echoes the command
+     */
+    public static class StubTechnology {
+        public byte[] transceive(byte[] command) throws IOException {
+            if (command.length == 0)
+                throw new IOException("Tag was lost");
+
+            return command;
+        }
+    }
+
+    private static NFCTagReader createReader(final StubTechnology technology) {
+        return new NFCTagReader(null, new NFCTagReader.Transceiver() {
+            @Override
+            public byte[] transceive(byte[] command) throws IOException {
+                return technology.transceive(command);
+            }
+        }) {
+            @Override
+            public ConfigBuilder getConfig() {
+                return null;
+            }
+        };
+    }
+
+    @Test
+    public void transceiveIsTimed() {
+        NFCTagReader reader = createReader(new StubTechnology());
+        long count = RelayStats.getInstance().get(RelayStats.Hop.TAG_IO).getCount();
+
+        byte[] command = { 0x00, (byte) 0xB2, 0x01, 0x0C, 0x00 };
+        assertArrayEquals(command, reader.transceive(command));
+        // failures are timed too
+        assertNull(reader.transceive(new byte[0]));
+
+        assertEquals(count + 2, RelayStats.getInstance().get(RelayStats.Hop.TAG_IO).getCount());
+        assertTrue(reader.getLastTransceiveTime() > 0);
+    }
+
+    @Test
+    public void boundTransceiveIsCheaperThanReflection() throws Exception {
+        final StubTechnology technology = new StubTechnology();
+        NFCTagReader.Transceiver bound = new NFCTagReader.Transceiver() {
+            @Override
+            public byte[] transceive(byte[] command) throws IOException {
+                return technology.transceive(command);
+            }
+        };
+        byte[] command = { 0x00, (byte) 0xB2, 0x01, 0x0C, 0x00 };
+
+        callReflective(technology, command, WARMUP_CALLS);
+        callBound(bound, command, WARMUP_CALLS);
+        long reflective = callReflective(technology, command, CALLS);
+        long direct = callBound(bound, command, CALLS);
+
+        System.out.println(String.format("per transceive: %.1f ns reflective, %.1f ns bound",
+                (double) reflective / CALLS, (double) direct / CALLS));
+        assertTrue(direct < reflective);
+    }
+
+    /**
+     * Looks up and invokes transceive like NFCTagReader did before it bound the technology
+     *
+     * @return duration in nanoseconds
+     */
+    private static long callReflective(Object technology, byte[] command, int calls) throws Exception {
+        int sink = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < calls; i++) {
+            Method transceive = technology.getClass().getMethod("transceive", byte[].class);
+            sink += ((byte[]) transceive.invoke(technology, command)).length;
+        }
+
+        long duration = System.nanoTime() - start;
+        assertEquals(calls * command.length, sink);
+        return duration;
+    }
+
+    private static long callBound(NFCTagReader.Transceiver transceiver, byte[] command, int calls) throws IOException {
+        int sink = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < calls; i++)
+            sink += transceiver.transceive(command).length;
+
+        long duration = System.nanoTime() - start;
+        assertEquals(calls * command.length, sink);
+        return duration;
+    }
+}
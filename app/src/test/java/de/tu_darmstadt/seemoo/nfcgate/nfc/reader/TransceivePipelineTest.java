@@ -0,0 +1,198 @@
+package de.tu_darmstadt.seemoo.nfcgate.nfc.reader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.tu_darmstadt.seemoo.nfcgate.nfc.config.ConfigBuilder;
+import de.tu_darmstadt.seemoo.nfcgate.util.RelayStats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays an EMV exchange of seven commands against a simulated tag, once serially and once
+ * through the pipeline, and compares how long the remote reader waited for the tag
+ */
+public class TransceivePipelineTest {
+    // duration of one tag transceive
+    private static final long TAG_MS = 20;
+    // network round trip before the next command of the remote reader arrives
+    private static final long NETWORK_MS = 30;
+
+    private static final byte[] OK = { (byte) 0x90, 0x00 };
+    // format 1: AIP 1980, AFL SFI 1 records 1-2, SFI 2 record 1
+    private static final byte[] GPO_RESPONSE = {
+            (byte) 0x80, 0x0A, 0x19, (byte) 0x80, 0x08, 0x01, 0x02, 0x00, 0x10, 0x01, 0x01, 0x00, (byte) 0x90, 0x00 };
+
+    private static final byte[][] EXCHANGE = {
+            // SELECT PPSE
+            { 0x00, (byte) 0xA4, 0x04, 0x00, 0x0E, '2', 'P', 'A', 'Y', '.', 'S', 'Y', 'S', '.', 'D', 'D', 'F', '0', '1', 0x00 },
+            // SELECT AID
+            { 0x00, (byte) 0xA4, 0x04, 0x00, 0x07, (byte) 0xA0, 0x00, 0x00, 0x00, 0x04, 0x10, 0x10, 0x00 },
+            // GET PROCESSING OPTIONS
+            { (byte) 0x80, (byte) 0xA8, 0x00, 0x00, 0x02, (byte) 0x83, 0x00, 0x00 },
+            // READ RECORD of the AFL
+            { 0x00, (byte) 0xB2, 0x01, 0x0C, 0x00 },
+            { 0x00, (byte) 0xB2, 0x02, 0x0C, 0x00 },
+            { 0x00, (byte) 0xB2, 0x01, 0x14, 0x00 },
+            // GENERATE AC
+            { (byte) 0x80, (byte) 0xAE, (byte) 0x80, 0x00, 0x02, 0x00, 0x00, 0x00 },
+    };
+
+    /**
+     * Tag answering every command after TAG_MS, GPO with the AFL above
+     */
+    private static class SimulatedTag extends NFCTagReader {
+        final List<byte[]> commands = Collections.synchronizedList(new ArrayList<byte[]>());
+
+        SimulatedTag() {
+            super(null, new Transceiver() {
+                @Override
+                public byte[] transceive(byte[] command) throws IOException {
+                    try {
+                        Thread.sleep(TAG_MS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+
+                    return command[1] == (byte) 0xA8 ? GPO_RESPONSE : OK;
+                }
+            });
+        }
+
+        @Override
+        public byte[] transceive(byte[] command) {
+            commands.add(command);
+            return super.transceive(command);
+        }
+
+        @Override
+        public ConfigBuilder getConfig() {
+            return null;
+        }
+    }
+
+    private interface Exchange {
+        byte[] transceive(byte[] command);
+    }
+
+    @Test
+    public void prefetchedRecordsAreAnsweredFromCache() throws InterruptedException {
+        final SimulatedTag serialTag = new SimulatedTag();
+        long serial = run(new Exchange() {
+            @Override
+            public byte[] transceive(byte[] command) {
+                return serialTag.transceive(command);
+            }
+        });
+
+        SimulatedTag pipelinedTag = new SimulatedTag();
+        final TransceivePipeline pipeline = new TransceivePipeline(pipelinedTag, new EmvPredictor());
+        long hits = RelayStats.getInstance().getPrefetchHits();
+        long pipelined = run(new Exchange() {
+            @Override
+            public byte[] transceive(byte[] command) {
+                return pipeline.transceive(command);
+            }
+        });
+        pipeline.close();
+
+        System.out.println(String.format("waited for the tag: %d ms serial, %d ms pipelined",
+                TimeUnit.NANOSECONDS.toMillis(serial), TimeUnit.NANOSECONDS.toMillis(pipelined)));
+
+        // the three READ RECORDs were sent once, before the remote reader asked for them
+        assertEquals(3, RelayStats.getInstance().getPrefetchHits() - hits);
+        assertEquals(EXCHANGE.length, pipelinedTag.commands.size());
+        assertTrue(pipelined + TimeUnit.MILLISECONDS.toNanos(2 * TAG_MS) < serial);
+    }
+
+    @Test
+    public void commandsOfTheReaderDiscardPredictions() {
+        SimulatedTag tag = new SimulatedTag();
+        TransceivePipeline pipeline = new TransceivePipeline(tag, new EmvPredictor());
+
+        pipeline.transceive(EXCHANGE[2]);
+        // a new SELECT invalidates the records of the previous application
+        pipeline.transceive(EXCHANGE[1]);
+        long hits = RelayStats.getInstance().getPrefetchHits();
+        assertArrayEquals(OK, pipeline.transceive(EXCHANGE[3]));
+        pipeline.close();
+
+        assertEquals(hits, RelayStats.getInstance().getPrefetchHits());
+        assertArrayEquals(EXCHANGE[3], tag.commands.get(tag.commands.size() - 1));
+    }
+
+    @Test
+    public void recordsAreMatchedWithoutLe() {
+        // terminals sending READ RECORD without Le or with the expected record length
+        assertRecordsPrefetched(withReadRecordLe(-1));
+        assertRecordsPrefetched(withReadRecordLe(0x1D));
+    }
+
+    /**
+     * Runs the exchange without delays and checks the prefetch hits and misses reported to RelayStats
+     */
+    private static void assertRecordsPrefetched(byte[][] exchange) {
+        SimulatedTag tag = new SimulatedTag();
+        TransceivePipeline pipeline = new TransceivePipeline(tag, new EmvPredictor());
+        long hits = RelayStats.getInstance().getPrefetchHits();
+        long misses = RelayStats.getInstance().getPrefetchMisses();
+
+        for (byte[] command : exchange)
+            assertArrayEquals(command[1] == (byte) 0xA8 ? GPO_RESPONSE : OK, pipeline.transceive(command));
+        pipeline.close();
+
+        // the three READ RECORDs hit, SELECT, SELECT, GET PROCESSING OPTIONS and GENERATE AC miss
+        assertEquals(3, RelayStats.getInstance().getPrefetchHits() - hits);
+        assertEquals(4, RelayStats.getInstance().getPrefetchMisses() - misses);
+        assertEquals(exchange.length, tag.commands.size());
+    }
+
+    /**
+     * Returns the exchange with the given Le in each READ RECORD, none if negative
+     */
+    private static byte[][] withReadRecordLe(int le) {
+        byte[][] exchange = new byte[EXCHANGE.length][];
+
+        for (int i = 0; i < EXCHANGE.length; i++) {
+            byte[] command = EXCHANGE[i];
+            if (command[1] == (byte) 0xB2) {
+                command = Arrays.copyOf(command, le < 0 ? 4 : 5);
+                if (le >= 0)
+                    command[4] = (byte) le;
+            }
+
+            exchange[i] = command;
+        }
+
+        return exchange;
+    }
+
+    /**
+     * Runs the exchange with a network round trip before each command
+     *
+     * @return total time spent waiting for answers in nanoseconds
+     */
+    private static long run(Exchange exchange) throws InterruptedException {
+        long waited = 0;
+
+        for (byte[] command : EXCHANGE) {
+            Thread.sleep(NETWORK_MS);
+
+            long start = System.nanoTime();
+            byte[] response = exchange.transceive(command);
+            waited += System.nanoTime() - start;
+
+            assertArrayEquals(command[1] == (byte) 0xA8 ? GPO_RESPONSE : OK, response);
+        }
+
+        return waited;
+    }
+}
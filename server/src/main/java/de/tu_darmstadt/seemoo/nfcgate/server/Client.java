@@ -0,0 +1,137 @@
+package de.tu_darmstadt.seemoo.nfcgate.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * One app connected over TCP. Only accessed on the thread of the RelayServer.
+ */
+class Client implements Peer {
+    // 4 byte length and 1 byte session number
+    static final int HEADER_LENGTH = 5;
+    private static final int INITIAL_CAPACITY = 8192;
+
+    private final SocketChannel mChannel;
+    private final SelectionKey mKey;
+    private final String mName;
+
+    // input
+    private ByteBuffer mInput = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    // output, buffers may be shared between clients and are only read
+    private final Queue<ByteBuffer> mOutput = new ArrayDeque<>();
+    private int mOutputBytes = 0;
+
+    // sessions joined by sending a frame and not left by OP_FIN
+    private final Set<Integer> mSessions = new HashSet<>();
+
+    Client(SocketChannel channel, SelectionKey key) {
+        mChannel = channel;
+        mKey = key;
+        mName = String.valueOf(channel.socket().getRemoteSocketAddress());
+    }
+
+    @Override
+    public Set<Integer> getSessions() {
+        return mSessions;
+    }
+
+    @Override
+    public int getOutputBytes() {
+        return mOutputBytes;
+    }
+
+    /**
+     * Reads everything available and passes each complete frame to the handler
+     *
+     * @throws IOException on EOF, I/O errors and frames exceeding maxFrameLength
+     */
+    void read(int maxFrameLength, FrameHandler handler) throws IOException {
+        while (true) {
+            int read = mChannel.read(mInput);
+            if (read < 0)
+                throw new EOFException("Connection closed by client");
+
+            // parse all complete frames
+            mInput.flip();
+            while (mInput.remaining() >= HEADER_LENGTH) {
+                int length = mInput.getInt(mInput.position());
+                if (length < 0 || length > maxFrameLength)
+                    throw new IOException("Invalid frame length " + length);
+                if (mInput.remaining() < HEADER_LENGTH + length)
+                    break;
+
+                mInput.getInt();
+                int session = mInput.get() & 0xFF;
+                byte[] payload = new byte[length];
+                mInput.get(payload);
+
+                handler.onFrame(this, session, payload);
+            }
+            mInput.compact();
+
+            // grow for a frame larger than the buffer
+            if (!mInput.hasRemaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(mInput.capacity() * 2);
+                mInput.flip();
+                grown.put(mInput);
+                mInput = grown;
+            }
+            else if (read == 0)
+                return;
+        }
+    }
+
+    /**
+     * Queues a frame and writes as much as possible right away
+     */
+    @Override
+    public void send(ByteBuffer frame) throws IOException {
+        mOutput.add(frame.duplicate());
+        mOutputBytes += frame.remaining();
+        flush();
+    }
+
+    /**
+     * Writes queued frames until the socket buffer is full
+     */
+    void flush() throws IOException {
+        ByteBuffer head;
+        while ((head = mOutput.peek()) != null) {
+            mOutputBytes -= mChannel.write(head);
+            if (head.hasRemaining())
+                break;
+
+            mOutput.poll();
+        }
+
+        // wait for OP_WRITE only while something is left
+        mKey.interestOps(mOutput.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mKey.isValid();
+    }
+
+    @Override
+    public void close() {
+        mKey.cancel();
+
+        try {
+            mChannel.close();
+        } catch (IOException ignored) { }
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
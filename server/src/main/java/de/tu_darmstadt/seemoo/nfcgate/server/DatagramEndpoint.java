@@ -0,0 +1,100 @@
+package de.tu_darmstadt.seemoo.nfcgate.server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Datagram socket of the RelayServer, serves apps using the datagram transport on the same port as
+ * TCP. Each remote address is one DatagramPeer. Only accessed on the thread of the RelayServer.
+ */
+class DatagramEndpoint {
+    private static final Logger LOG = Logger.getLogger("DatagramEndpoint");
+    // largest UDP payload
+    private static final int MAX_DATAGRAM_LENGTH = 65507;
+
+    private final DatagramChannel mChannel;
+    private final ByteBuffer mReceiveBuffer = ByteBuffer.allocate(MAX_DATAGRAM_LENGTH);
+    private final Map<SocketAddress, DatagramPeer> mPeers = new HashMap<>();
+
+    DatagramEndpoint(DatagramChannel channel) {
+        mChannel = channel;
+    }
+
+    /**
+     * Handles all received packets, peers failing are added to failed
+     */
+    void read(int maxFrameLength, Peer.FrameHandler handler, List<Peer> failed) throws IOException {
+        SocketAddress address;
+        while (true) {
+            mReceiveBuffer.clear();
+            if ((address = mChannel.receive(mReceiveBuffer)) == null)
+                return;
+
+            mReceiveBuffer.flip();
+            if (!mReceiveBuffer.hasRemaining())
+                continue;
+
+            byte type = mReceiveBuffer.get();
+            DatagramPeer peer = mPeers.get(address);
+            if (peer == null) {
+                // only a HELLO starts a new peer
+                if (type != DatagramPeer.TYPE_HELLO)
+                    continue;
+
+                peer = new DatagramPeer(mChannel, address, this);
+                mPeers.put(address, peer);
+                LOG.fine("Client connected: " + peer);
+            }
+
+            try {
+                peer.onPacket(type, mReceiveBuffer, maxFrameLength, handler);
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Client " + peer + " failed", e);
+                failed.add(peer);
+            }
+        }
+    }
+
+    /**
+     * Retransmits unacknowledged packets, peers failing are added to failed
+     */
+    void checkRetransmits(List<Peer> failed) {
+        long now = System.nanoTime();
+        for (DatagramPeer peer : new ArrayList<>(mPeers.values())) {
+            try {
+                peer.checkRetransmits(now);
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Client " + peer + " failed", e);
+                failed.add(peer);
+            }
+        }
+    }
+
+    /**
+     * Time in ms until the next retransmit is due, 0 if none is
+     */
+    long nextTimeout() {
+        long now = System.nanoTime();
+        long timeout = Long.MAX_VALUE;
+        for (DatagramPeer peer : mPeers.values())
+            timeout = Math.min(timeout, peer.nextTimeout(now));
+
+        return timeout == Long.MAX_VALUE ? 0 : Math.max(1, timeout);
+    }
+
+    void remove(SocketAddress address) {
+        mPeers.remove(address);
+    }
+
+    void close() throws IOException {
+        mChannel.close();
+    }
+}
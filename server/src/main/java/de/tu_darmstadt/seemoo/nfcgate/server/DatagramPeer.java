@@ -0,0 +1,259 @@
+package de.tu_darmstadt.seemoo.nfcgate.server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * One app using the datagram transport. Only accessed on the thread of the RelayServer.
+ *
+ * Implements the server side of the protocol of the app's DatagramThread: frames are sent as DATA
+ * packets without length prefix, at most WINDOW of them unacknowledged, and retransmitted until
+ * acknowledged. Received DATA packets are acknowledged immediately and delivered in order.
+ */
+class DatagramPeer implements Peer {
+    static final byte TYPE_HELLO = 0;
+    static final byte TYPE_DATA = 1;
+    static final byte TYPE_ACK = 2;
+    static final int DATA_HEADER_LENGTH = 5;
+
+    private static final int WINDOW = 32;
+    private static final int MAX_RETRANSMITS = 8;
+    // retransmission timeout bounds in ms
+    private static final long INITIAL_RTO = 200, MAX_RTO = 1000;
+
+    /**
+     * Sent but not yet acknowledged packet
+     */
+    private static class Outgoing {
+        final int seq;
+        final ByteBuffer packet;
+        long sentAt;
+        int retransmits = 0;
+        boolean acked = false;
+
+        Outgoing(int seq, ByteBuffer packet) {
+            this.seq = seq;
+            this.packet = packet;
+        }
+    }
+
+    private final DatagramChannel mChannel;
+    private final SocketAddress mAddress;
+    private final DatagramEndpoint mEndpoint;
+    private boolean mOpen = true;
+
+    // sender state
+    private int mSendNext = 0;
+    private final ArrayDeque<Outgoing> mUnacked = new ArrayDeque<>();
+    private final Queue<Outgoing> mQueued = new ArrayDeque<>();
+    private int mOutputBytes = 0;
+
+    // receiver state
+    private int mReceiveNext = 0;
+    private final Map<Integer, byte[]> mReordered = new HashMap<>();
+    private final ByteBuffer mControl = ByteBuffer.allocate(9);
+
+    private final Set<Integer> mSessions = new HashSet<>();
+
+    DatagramPeer(DatagramChannel channel, SocketAddress address, DatagramEndpoint endpoint) {
+        mChannel = channel;
+        mAddress = address;
+        mEndpoint = endpoint;
+    }
+
+    @Override
+    public Set<Integer> getSessions() {
+        return mSessions;
+    }
+
+    @Override
+    public int getOutputBytes() {
+        return mOutputBytes;
+    }
+
+    /**
+     * Handles one received packet, the buffer is positioned after the type
+     *
+     * @throws IOException on send errors and frames exceeding maxFrameLength
+     */
+    void onPacket(byte type, ByteBuffer packet, int maxFrameLength, FrameHandler handler) throws IOException {
+        switch (type) {
+            case TYPE_HELLO:
+                mControl.clear();
+                mControl.put(TYPE_HELLO);
+                mControl.flip();
+                write(mControl);
+                break;
+
+            case TYPE_DATA:
+                if (packet.remaining() < 5)
+                    return;
+                if (packet.remaining() - 5 > maxFrameLength)
+                    throw new IOException("Invalid frame length " + (packet.remaining() - 5));
+                onData(packet.getInt(), packet, handler);
+                break;
+
+            case TYPE_ACK:
+                if (packet.remaining() >= 8)
+                    onAck(packet.getInt(), packet.getInt());
+                break;
+        }
+    }
+
+    private void onData(int seq, ByteBuffer packet, FrameHandler handler) throws IOException {
+        if (seq - mReceiveNext >= WINDOW)
+            // too far ahead, the app retransmits it later
+            return;
+
+        if (seq == mReceiveNext) {
+            mReceiveNext++;
+            deliver(packet, handler);
+
+            // deliver reordered packets that are now in order
+            byte[] next;
+            while (mOpen && (next = mReordered.remove(mReceiveNext)) != null) {
+                mReceiveNext++;
+                deliver(ByteBuffer.wrap(next), handler);
+            }
+        }
+        else if (seq - mReceiveNext > 0 && !mReordered.containsKey(seq)) {
+            byte[] data = new byte[packet.remaining()];
+            packet.get(data);
+            mReordered.put(seq, data);
+        }
+        // else duplicate, acknowledge again since the previous ACK might have been lost
+
+        if (mOpen)
+            sendAck();
+    }
+
+    private void deliver(ByteBuffer frame, FrameHandler handler) {
+        int session = frame.get() & 0xFF;
+        byte[] payload = new byte[frame.remaining()];
+        frame.get(payload);
+
+        handler.onFrame(this, session, payload);
+    }
+
+    private void onAck(int next, int bitmap) throws IOException {
+        for (Outgoing out : mUnacked) {
+            int offset = out.seq - next;
+            if (offset < 0 || (offset > 0 && offset <= 32 && (bitmap & (1 << (offset - 1))) != 0))
+                out.acked = true;
+        }
+
+        while (!mUnacked.isEmpty() && mUnacked.peekFirst().acked)
+            mOutputBytes -= mUnacked.pollFirst().packet.capacity();
+
+        sendQueued(System.nanoTime());
+    }
+
+    @Override
+    public void send(ByteBuffer frame) throws IOException {
+        // DATA packet carries the frame without its length prefix
+        ByteBuffer packet = ByteBuffer.allocate(DATA_HEADER_LENGTH + frame.remaining() - 4);
+        packet.put(TYPE_DATA);
+        packet.putInt(mSendNext);
+        ByteBuffer view = frame.duplicate();
+        view.position(view.position() + 4);
+        packet.put(view);
+        packet.flip();
+
+        mQueued.add(new Outgoing(mSendNext++, packet));
+        mOutputBytes += packet.capacity();
+        sendQueued(System.nanoTime());
+    }
+
+    private void sendQueued(long now) throws IOException {
+        while (mUnacked.size() < WINDOW && !mQueued.isEmpty()) {
+            Outgoing out = mQueued.poll();
+            mUnacked.add(out);
+            transmit(out, now);
+        }
+    }
+
+    /**
+     * Retransmits packets whose timeout elapsed
+     *
+     * @throws IOException if a packet was not acknowledged after MAX_RETRANSMITS
+     */
+    void checkRetransmits(long now) throws IOException {
+        for (Outgoing out : mUnacked) {
+            if (out.acked || now - out.sentAt < rto(out) * 1000000)
+                continue;
+
+            if (out.retransmits >= MAX_RETRANSMITS)
+                throw new IOException("Packet " + out.seq + " was not acknowledged");
+
+            out.retransmits++;
+            transmit(out, now);
+        }
+    }
+
+    /**
+     * Time in ms until the next retransmit is due, Long.MAX_VALUE if none is
+     */
+    long nextTimeout(long now) {
+        long timeout = Long.MAX_VALUE;
+        for (Outgoing out : mUnacked) {
+            if (!out.acked)
+                timeout = Math.min(timeout, rto(out) - (now - out.sentAt) / 1000000);
+        }
+        return timeout;
+    }
+
+    private void sendAck() throws IOException {
+        // bit i acknowledges mReceiveNext + 1 + i
+        int bitmap = 0;
+        for (int i = 0; i < 32; i++) {
+            if (mReordered.containsKey(mReceiveNext + 1 + i))
+                bitmap |= 1 << i;
+        }
+
+        mControl.clear();
+        mControl.put(TYPE_ACK);
+        mControl.putInt(mReceiveNext);
+        mControl.putInt(bitmap);
+        mControl.flip();
+        write(mControl);
+    }
+
+    private void transmit(Outgoing out, long now) throws IOException {
+        out.sentAt = now;
+        out.packet.rewind();
+        write(out.packet);
+    }
+
+    private void write(ByteBuffer packet) throws IOException {
+        // a full socket buffer loses the packet like the network would, it is retransmitted
+        mChannel.send(packet, mAddress);
+    }
+
+    private static long rto(Outgoing out) {
+        return Math.min(MAX_RTO, INITIAL_RTO << out.retransmits);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    @Override
+    public void close() {
+        mOpen = false;
+        mEndpoint.remove(mAddress);
+    }
+
+    @Override
+    public String toString() {
+        return "udp:" + mAddress;
+    }
+}
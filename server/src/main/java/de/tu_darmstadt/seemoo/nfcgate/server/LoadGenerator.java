@@ -0,0 +1,235 @@
+package de.tu_darmstadt.seemoo.nfcgate.server;
+
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import de.tu_darmstadt.seemoo.nfcgate.network.c2s.C2S;
+
+import static de.tu_darmstadt.seemoo.nfcgate.network.c2s.C2S.ServerData.Opcode;
+
+/**
+ * Connects pairs of clients to a relay server and measures the round trip time of OP_PSH messages
+ * relayed from the first client of a pair to the second and back, like reader and tag of a relay.
+ *
+ * The session number is a single byte, a server distinguishes at most 256 sessions.
+ */
+public class LoadGenerator {
+    private static final int MAX_SESSIONS = 256;
+
+    // options
+    private String mHost = "127.0.0.1";
+    private int mPort = 5566;
+    private int mSessions = 100;
+    private int mRounds = 1000;
+    private int mPayloadLength = 64;
+
+    // results
+    private long[] mRoundTrips;
+    private int mRoundTripCount = 0;
+    private int mFinished = 0;
+
+    /**
+     * One end of a session. The initiator starts each round, the responder echoes.
+     */
+    private class Peer {
+        final int session;
+        final boolean initiator;
+        final SocketChannel channel;
+
+        ByteBuffer input = ByteBuffer.allocate(4096);
+        int round = 0;
+        long sentAt;
+
+        Peer(int session, boolean initiator, Selector selector) throws IOException {
+            this.session = session;
+            this.initiator = initiator;
+
+            channel = SocketChannel.open(new InetSocketAddress(mHost, mPort));
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, this);
+        }
+
+        void send(Opcode opcode, byte[] data) throws IOException {
+            byte[] payload = C2S.ServerData.newBuilder()
+                    .setOpcode(opcode)
+                    .setData(data == null ? ByteString.EMPTY : ByteString.copyFrom(data))
+                    .build()
+                    .toByteArray();
+
+            ByteBuffer frame = ByteBuffer.allocate(Client.HEADER_LENGTH + payload.length);
+            frame.putInt(payload.length);
+            frame.put((byte) session);
+            frame.put(payload);
+            frame.flip();
+
+            // frames are small, a blocking loop on the non-blocking channel is sufficient
+            while (frame.hasRemaining())
+                channel.write(frame);
+        }
+
+        void onReadable() throws IOException {
+            if (channel.read(input) < 0)
+                throw new IOException("Server closed connection");
+
+            input.flip();
+            while (input.remaining() >= 4 && input.remaining() >= 4 + input.getInt(input.position())) {
+                byte[] payload = new byte[input.getInt()];
+                input.get(payload);
+                onMessage(C2S.ServerData.parseFrom(payload));
+            }
+            input.compact();
+
+            // grow for a message larger than the buffer
+            if (!input.hasRemaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(input.capacity() * 2);
+                input.flip();
+                grown.put(input);
+                input = grown;
+            }
+        }
+
+        void onMessage(C2S.ServerData message) throws IOException {
+            switch (message.getOpcode()) {
+                case OP_SYN:
+                    // partner joined after us
+                    send(Opcode.OP_ACK, null);
+                    break;
+                case OP_ACK:
+                    // partner was already there, start measuring
+                    if (initiator)
+                        nextRound();
+                    break;
+                case OP_PSH:
+                    if (initiator) {
+                        onRoundTrip(System.nanoTime() - sentAt);
+                        nextRound();
+                    }
+                    else
+                        send(Opcode.OP_PSH, message.getData().toByteArray());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void nextRound() throws IOException {
+            if (round++ == mRounds) {
+                mFinished++;
+                return;
+            }
+
+            sentAt = System.nanoTime();
+            send(Opcode.OP_PSH, new byte[mPayloadLength]);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        LoadGenerator generator = new LoadGenerator();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--host":
+                    generator.mHost = args[++i];
+                    break;
+                case "--port":
+                    generator.mPort = Integer.parseInt(args[++i]);
+                    break;
+                case "--sessions":
+                    generator.mSessions = Integer.parseInt(args[++i]);
+                    break;
+                case "--rounds":
+                    generator.mRounds = Integer.parseInt(args[++i]);
+                    break;
+                case "--payload":
+                    generator.mPayloadLength = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Usage: LoadGenerator [--host H] [--port N] [--sessions N] [--rounds N] [--payload BYTES]");
+                    System.exit(1);
+            }
+        }
+
+        if (generator.mSessions > MAX_SESSIONS) {
+            System.err.println("At most " + MAX_SESSIONS + " sessions are possible");
+            System.exit(1);
+        }
+
+        generator.run();
+    }
+
+    private void run() throws IOException {
+        Selector selector = Selector.open();
+        mRoundTrips = new long[mSessions * mRounds];
+
+        // responders join first, the SYN of each initiator is answered with ACK
+        for (int i = 0; i < mSessions; i++)
+            new Peer(i, false, selector).send(Opcode.OP_SYN, null);
+        // the server forwards only after both joined, give responders time to be read
+        sleep(200);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < mSessions; i++)
+            new Peer(i, true, selector).send(Opcode.OP_SYN, null);
+
+        while (mFinished < mSessions) {
+            if (selector.select(5000) == 0) {
+                System.err.println("Timed out with " + mFinished + " of " + mSessions + " sessions finished");
+                break;
+            }
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                ((Peer) key.attachment()).onReadable();
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        report(elapsed);
+
+        for (SelectionKey key : selector.keys())
+            key.channel().close();
+        selector.close();
+    }
+
+    private void onRoundTrip(long nanos) {
+        mRoundTrips[mRoundTripCount++] = nanos;
+    }
+
+    private void report(long elapsed) {
+        long[] sorted = Arrays.copyOf(mRoundTrips, mRoundTripCount);
+        Arrays.sort(sorted);
+
+        System.out.println("sessions:    " + mSessions);
+        System.out.println("round trips: " + sorted.length);
+        System.out.printf("throughput:  %.0f round trips/s%n", sorted.length / (elapsed / 1e9));
+        if (sorted.length > 0) {
+            System.out.printf("rtt p50:     %.3f ms%n", percentile(sorted, 0.50) / 1e6);
+            System.out.printf("rtt p99:     %.3f ms%n", percentile(sorted, 0.99) / 1e6);
+            System.out.printf("rtt p99.9:   %.3f ms%n", percentile(sorted, 0.999) / 1e6);
+            System.out.printf("rtt max:     %.3f ms%n", sorted[sorted.length - 1] / 1e6);
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package de.tu_darmstadt.seemoo.nfcgate.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * One app connected over TCP or datagrams. Only accessed on the thread of the RelayServer.
+ */
+interface Peer {
+    interface FrameHandler {
+        void onFrame(Peer peer, int session, byte[] payload);
+    }
+
+    /**
+     * Sessions joined by sending a frame and not left by OP_FIN
+     */
+    Set<Integer> getSessions();
+
+    /**
+     * Bytes queued but not yet delivered
+     */
+    int getOutputBytes();
+
+    /**
+     * Queues a frame of 4 byte length and payload, the buffer may be shared and is only read
+     */
+    void send(ByteBuffer frame) throws IOException;
+
+    boolean isOpen();
+
+    void close();
+}
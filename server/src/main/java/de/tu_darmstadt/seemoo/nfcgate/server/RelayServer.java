@@ -0,0 +1,296 @@
+package de.tu_darmstadt.seemoo.nfcgate.server;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.tu_darmstadt.seemoo.nfcgate.network.c2s.C2S;
+
+import static de.tu_darmstadt.seemoo.nfcgate.network.c2s.C2S.ServerData.Opcode;
+
+/**
+ * Reference relay server for local testing.
+ *
+ * Clients send frames of a 4 byte length, a 1 byte session number and a C2S.ServerData payload.
+ * A client joins a session with its first frame for that session number. Every frame is forwarded
+ * as 4 byte length and payload to all other clients of the session, the payload is not modified.
+ * OP_FIN leaves the session after it was forwarded.
+ *
+ * Apps using the datagram transport are served on the same port over UDP, see DatagramPeer.
+ * All connections are served by a single selector thread.
+ */
+public class RelayServer implements Peer.FrameHandler {
+    private static final Logger LOG = Logger.getLogger("RelayServer");
+    private static final int DEFAULT_PORT = 5566;
+    private static final int DEFAULT_MAX_FRAME_LENGTH = 1024 * 1024;
+    // clients not reading their data are disconnected
+    private static final int DEFAULT_MAX_PENDING = 4 * 1024 * 1024;
+
+    // options
+    private int mPort = DEFAULT_PORT;
+    private int mMaxFrameLength = DEFAULT_MAX_FRAME_LENGTH;
+    private int mMaxPending = DEFAULT_MAX_PENDING;
+    private boolean mTagSessions = false;
+    private boolean mSynthesizeFin = false;
+    private boolean mDatagram = true;
+
+    // I/O
+    private Selector mSelector;
+    private DatagramEndpoint mDatagramEndpoint;
+    private final Map<Integer, List<Peer>> mSessions = new HashMap<>();
+    private final List<Peer> mClosing = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        RelayServer server = new RelayServer();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    server.setPort(Integer.parseInt(args[++i]));
+                    break;
+                case "--max-frame":
+                    server.setMaxFrameLength(Integer.parseInt(args[++i]));
+                    break;
+                case "--tag-sessions":
+                    server.setTagSessions(true);
+                    break;
+                case "--synthesize-fin":
+                    server.setSynthesizeFin(true);
+                    break;
+                case "--no-datagram":
+                    server.setDatagram(false);
+                    break;
+                default:
+                    System.err.println("Usage: RelayServer [--port N] [--max-frame BYTES] [--tag-sessions] [--synthesize-fin] [--no-datagram]");
+                    System.exit(1);
+            }
+        }
+
+        server.run();
+    }
+
+    public RelayServer setPort(int port) {
+        mPort = port;
+        return this;
+    }
+
+    /**
+     * Frames with a larger payload disconnect the client
+     */
+    public RelayServer setMaxFrameLength(int maxFrameLength) {
+        mMaxFrameLength = maxFrameLength;
+        return this;
+    }
+
+    /**
+     * Prefixes forwarded payloads with the session number, required by apps using a shared connection
+     */
+    public RelayServer setTagSessions(boolean tagSessions) {
+        mTagSessions = tagSessions;
+        return this;
+    }
+
+    /**
+     * Sends OP_FIN to the remaining clients of a session if a client disconnects without it
+     */
+    public RelayServer setSynthesizeFin(boolean synthesizeFin) {
+        mSynthesizeFin = synthesizeFin;
+        return this;
+    }
+
+    /**
+     * Serves apps using the datagram transport on the same port, enabled by default
+     */
+    public RelayServer setDatagram(boolean datagram) {
+        mDatagram = datagram;
+        return this;
+    }
+
+    /**
+     * Serves clients until the thread is interrupted
+     */
+    public void run() throws IOException {
+        mSelector = Selector.open();
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(new InetSocketAddress(mPort), 1024);
+        server.configureBlocking(false);
+        server.register(mSelector, SelectionKey.OP_ACCEPT);
+        LOG.info("Listening on port " + server.socket().getLocalPort());
+
+        if (mDatagram) {
+            DatagramChannel datagram = DatagramChannel.open();
+            datagram.socket().setReuseAddress(true);
+            datagram.socket().bind(new InetSocketAddress(server.socket().getLocalPort()));
+            datagram.configureBlocking(false);
+            datagram.register(mSelector, SelectionKey.OP_READ);
+            mDatagramEndpoint = new DatagramEndpoint(datagram);
+        }
+
+        while (!Thread.currentThread().isInterrupted()) {
+            mSelector.select(mDatagramEndpoint != null ? mDatagramEndpoint.nextTimeout() : 0);
+
+            Iterator<SelectionKey> it = mSelector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+
+                if (!key.isValid())
+                    continue;
+
+                if (key.isAcceptable())
+                    accept(server);
+                else if (key.attachment() == null)
+                    mDatagramEndpoint.read(mMaxFrameLength, this, mClosing);
+                else
+                    onReady(key, (Client) key.attachment());
+            }
+
+            if (mDatagramEndpoint != null)
+                mDatagramEndpoint.checkRetransmits(mClosing);
+
+            // clients failed while forwarding, disconnecting them may fail further clients
+            while (!mClosing.isEmpty())
+                disconnect(mClosing.remove(mClosing.size() - 1));
+        }
+
+        server.close();
+        if (mDatagramEndpoint != null)
+            mDatagramEndpoint.close();
+        mSelector.close();
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            SelectionKey key = channel.register(mSelector, SelectionKey.OP_READ);
+            Client client = new Client(channel, key);
+            key.attach(client);
+            LOG.fine("Client connected: " + client);
+        }
+    }
+
+    private void onReady(SelectionKey key, Client client) {
+        try {
+            if (key.isReadable())
+                client.read(mMaxFrameLength, this);
+            if (key.isValid() && key.isWritable())
+                client.flush();
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Client " + client + " failed", e);
+            disconnect(client);
+        }
+    }
+
+    @Override
+    public void onFrame(Peer client, int session, byte[] payload) {
+        Opcode opcode;
+        try {
+            opcode = C2S.ServerData.parseFrom(payload).getOpcode();
+        } catch (InvalidProtocolBufferException e) {
+            LOG.warning("Dropping invalid message of " + client);
+            return;
+        }
+
+        if (opcode == Opcode.UNRECOGNIZED) {
+            LOG.warning("Dropping unknown opcode of " + client);
+            return;
+        }
+
+        // first frame for a session joins it
+        List<Peer> peers = mSessions.get(session);
+        if (peers == null) {
+            peers = new ArrayList<>(2);
+            mSessions.put(session, peers);
+        }
+        if (client.getSessions().add(session))
+            peers.add(client);
+
+        forward(client, session, payload);
+
+        if (opcode == Opcode.OP_FIN)
+            leave(client, session);
+    }
+
+    /**
+     * Sends the payload to all clients of the session except the sender
+     */
+    private void forward(Peer sender, int session, byte[] payload) {
+        List<Peer> peers = mSessions.get(session);
+        if (peers == null || peers.isEmpty() || (peers.size() == 1 && peers.get(0) == sender))
+            return;
+
+        // the frame is shared by all receivers
+        ByteBuffer frame = ByteBuffer.allocate(Client.HEADER_LENGTH + payload.length);
+        if (mTagSessions) {
+            frame.putInt(payload.length + 1);
+            frame.put((byte) session);
+        }
+        else
+            frame.putInt(payload.length);
+        frame.put(payload);
+        frame.flip();
+
+        for (Peer peer : peers) {
+            if (peer == sender || !peer.isOpen())
+                continue;
+
+            try {
+                peer.send(frame);
+
+                if (peer.getOutputBytes() > mMaxPending)
+                    throw new IOException("Client does not read");
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Client " + peer + " failed", e);
+                // the list of peers is being iterated
+                mClosing.add(peer);
+            }
+        }
+    }
+
+    private void leave(Peer client, int session) {
+        client.getSessions().remove(session);
+
+        List<Peer> peers = mSessions.get(session);
+        if (peers != null) {
+            peers.remove(client);
+            if (peers.isEmpty())
+                mSessions.remove(session);
+        }
+    }
+
+    private void disconnect(Peer client) {
+        LOG.fine("Client disconnected: " + client);
+        client.close();
+
+        for (Integer session : new ArrayList<>(client.getSessions())) {
+            leave(client, session);
+
+            // tell remaining clients their peer is gone
+            if (mSynthesizeFin && mSessions.containsKey(session)) {
+                forward(client, session, C2S.ServerData.newBuilder()
+                        .setOpcode(Opcode.OP_FIN)
+                        .build()
+                        .toByteArray());
+            }
+        }
+    }
+}